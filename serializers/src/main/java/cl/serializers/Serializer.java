@@ -57,7 +57,8 @@ public interface Serializer<T,R> extends Closeable {
     ObjectWriter<R> getWriter();
     
     /**
-     * Get object iterator as Java 8 stream.
+     * Get object iterator as Java 8 stream. Streams of text files may be made parallel, in which case the file
+     * is split into ranges of lines, which are read and parsed on several threads (see {@code ObjectIterator.stream()}).
      */
     default Stream<T> stream() {
         return getIterator().stream();
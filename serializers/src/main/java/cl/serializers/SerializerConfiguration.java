@@ -40,6 +40,23 @@ public class SerializerConfiguration {
      */
     public final static Key<Charset> charset = new Key<>(() -> StandardCharsets.UTF_8);
     
+    /**
+     * Instruct a text-based {@link cl.serializers.iterators.ObjectIterator}, which reads a file, to map the file into
+     * memory, and to find lines by their bytes instead of reading the file with a {@code BufferedReader}.
+     * This saves copying the bytes to a buffer, and decoding lines of ASCII characters. The setting is ignored for
+     * input streams, and for character sets other than UTF-8, US-ASCII, and ISO-8859-1. The default value is false.
+     */
+    public final static Key<Boolean> memoryMapped = new Key<>(() -> false);
+    
+    /**
+     * Number of threads on which a text-based {@link cl.serializers.iterators.ObjectIterator} parses lines.
+     * When it is greater than one, lines are read on a separate thread, and parsed in blocks by that many threads;
+     * objects are returned in the order of the input. This helps iterators which spend more time on parsing lines
+     * than on reading them, like JSON and delimited iterators. The default value is 1, which means lines are
+     * parsed on the caller's thread.
+     */
+    public final static Key<Integer> parseParallelism = new Key<>(() -> 1);
+    
     /**
      * Instruct a text-based serializer on how many lines in the file belongs to the file header.
      * This setting should be consistent with {@link SerializerConfiguration#headerLines} value.
@@ -219,11 +236,13 @@ public class SerializerConfiguration {
      * <ul>
      *   <li>{@link SerializerConfiguration#skipEmptyLines}</li>
      *   <li>{@link SerializerConfiguration#charset}</li>
+     *   <li>{@link SerializerConfiguration#memoryMapped}</li>
+     *   <li>{@link SerializerConfiguration#parseParallelism}</li>
      *   <li>{@link SerializerConfiguration#jsonMapper}</li>
      * </ul>
      */
     public static Configurable<?> jsonSerializerDefaultConfiguration() {
-        return configurationWith(skipEmptyLines, charset, jsonMapper);
+        return configurationWith(skipEmptyLines, charset, memoryMapped, parseParallelism, jsonMapper);
     }
     
     /**
@@ -232,13 +251,15 @@ public class SerializerConfiguration {
      * <ul>
      *   <li>{@link SerializerConfiguration#skipEmptyLines}</li>
      *   <li>{@link SerializerConfiguration#charset}</li>
+     *   <li>{@link SerializerConfiguration#memoryMapped}</li>
+     *   <li>{@link SerializerConfiguration#parseParallelism}</li>
      *   <li>{@link SerializerConfiguration#numHeaderLines}</li>
      *   <li>{@link SerializerConfiguration#headerLines}</li>
      *   <li>{@link SerializerConfiguration#onHeader}</li>
      * </ul>
      */
     public static Configurable<?> stringSerializerDefaultConfiguration() {
-        return configurationWith(skipEmptyLines, charset, numHeaderLines, headerLines, onHeader);
+        return configurationWith(skipEmptyLines, charset, memoryMapped, parseParallelism, numHeaderLines, headerLines, onHeader);
     }
     
     /**
@@ -247,6 +268,8 @@ public class SerializerConfiguration {
      * <ul>
      *   <li>{@link SerializerConfiguration#skipEmptyLines}</li>
      *   <li>{@link SerializerConfiguration#charset}</li>
+     *   <li>{@link SerializerConfiguration#memoryMapped}</li>
+     *   <li>{@link SerializerConfiguration#parseParallelism}</li>
      *   <li>{@link SerializerConfiguration#numHeaderLines}</li>
      *   <li>{@link SerializerConfiguration#headerLines}</li>
      *   <li>{@link SerializerConfiguration#onHeader}</li>
@@ -266,7 +289,7 @@ public class SerializerConfiguration {
      */
     public static Configurable<?> delimitedSerializerDefaultConfiguration() {
         return configurationWith(
-                skipEmptyLines, charset,
+                skipEmptyLines, charset, memoryMapped, parseParallelism,
                 new Key<>(() -> 1),
                 headerLines, onHeader, generateHeaderIfAbsent, 
                 delimitedStringSplitter, delimitedStringJoiner,
@@ -153,10 +153,14 @@ final class SerializerImpl<T,R> implements Serializer<T,R> {
             if (typesWithHeader.contains(inputSerializationType) && 
                 typesWithHeader.contains(outputSerializationType)) {
                 List<String> headerLines = new ArrayList<>(objectIterator.get(SerializerConfiguration.headerLines));
+                int maxHeaderLines = headerLines.size() + objectIterator.get(SerializerConfiguration.numHeaderLines);
                 BiConsumer<Integer, String> existingOnHeader = objectIterator.get(SerializerConfiguration.onHeader);
                 BiConsumer<Integer, String> newOnHeader = (i, s) -> {
                   existingOnHeader.accept(i,s);
-                  headerLines.add(s);
+                  // iterators cloned from this one share the callback, don't collect their headers again
+                  if (headerLines.size() < maxHeaderLines) {
+                      headerLines.add(s);
+                  }
                 };
                 objectIterator.with(SerializerConfiguration.onHeader, newOnHeader);
                 objectWriter.with(SerializerConfiguration.headerLines, headerLines);
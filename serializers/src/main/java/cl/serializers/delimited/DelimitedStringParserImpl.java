@@ -16,6 +16,8 @@ class DelimitedStringParserImpl<T> extends ConfigurableObject<DelimitedStringPar
     private final Supplier<T> objectFactory;
     private final Map<Integer, String> indexToProperty;
     private final Map<String, Function<String, Object>> valueParsers;
+    private final int[] columns;
+    private final String[] properties;
     
     private boolean useSetters;
     private Consumer<PropertySetException> onPropertyError;
@@ -27,6 +29,13 @@ class DelimitedStringParserImpl<T> extends ConfigurableObject<DelimitedStringPar
         this.objectFactory = objectFactory;
         this.indexToProperty = new HashMap<>(indexToProperty);
         this.valueParsers = new HashMap<>(valueParsers);
+        
+        // mapped column indexes in ascending order, and their properties by column index
+        this.columns = indexToProperty.keySet().stream().filter(i -> i != null && i >= 0).mapToInt(i -> i).sorted().toArray();
+        this.properties = new String[columns.length > 0 ? columns[columns.length - 1] + 1 : 0];
+        for (int i : columns) {
+            properties[i] = indexToProperty.get(i);
+        }
     }
     
     @Override
@@ -37,8 +46,10 @@ class DelimitedStringParserImpl<T> extends ConfigurableObject<DelimitedStringPar
         
         T object = objectFactory.get();
         
-        for (int i = 0; i < values.length; i++) {
-            String property = indexToProperty.get(i);
+        // only look at mapped columns
+        for (int i : columns) {
+            if (i >= values.length) break;
+            String property = properties[i];
             if (property != null) {
                 String valueStr = values[i];
                 if (valueStr != null) {
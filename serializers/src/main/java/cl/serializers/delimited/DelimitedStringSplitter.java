@@ -77,6 +77,24 @@ public interface DelimitedStringSplitter extends Configurable<DelimitedStringSpl
      */
     String[] split(String s);
 
+    /**
+     * Split the given string, but only build values of the given columns. Values of other columns are {@code null},
+     * and the returned array may end after the last requested column. If {@code columns} is {@code null},
+     * all values are returned, as they are by {@link #split(String)}.
+     *
+     * @param s        the string to split
+     * @param columns  flags of requested columns by column index; columns past the end of the array are not requested
+     */
+    default String[] split(String s, boolean[] columns) {
+        String[] values = split(s);
+        if (values != null && columns != null) {
+            for (int i = 0; i < values.length; i++) {
+                if (i >= columns.length || !columns[i]) values[i] = null;
+            }
+        }
+        return values;
+    }
+
     /**
      * This is the most general way of getting a splitter instance.  The configuration for this instance will not
      * be locked, and the client will have to set all the necessary configuration settings and then lock the 
@@ -7,114 +7,202 @@ import cl.core.configurable.ConfigurableObject;
 
 /**
  * An implementation of the {@link DelimitedStringSplitter} interfaces.
+ *
+ * <p>The splitter scans the string forward, and keeps the beginning of the current value segment instead of
+ * copying characters one by one. Values which are contiguous in the string (which is the common case) are taken
+ * as substrings; a string builder is only used when enclosers have to be dropped from the middle of a value.
+ * Values of columns which are not requested are not built at all.
+ *
+ * <p>An encloser at the beginning of a value opens an enclosed value only if an encloser followed by a delimiter
+ * (or an encloser at the end of the string) comes after it. The splitter assumes it does, and goes on; if the end of
+ * the string is reached without one, it scans the rest of the string once more, taking the encloser as a character.
+ * So a string is scanned at most twice.
  */
 class DelimitedStringSplitterImpl extends ConfigurableObject<DelimitedStringSplitter> implements DelimitedStringSplitter {
 
+    private char enc;
+    private char delim;
+    private boolean isTrim;
+    private boolean isTrimEnclosed;
+    private boolean isAlwaysEnclosed;
+    private int numElems;
+
     @Override
     public String[] split(String str) {
+        return split(str, null);
+    }
+
+    @Override
+    public String[] split(String str, boolean[] columns) {
     	requireLock();
         if (str == null) return null;
-        
-        // extract parameters
-        char enc = get(encloser);
-        char delim = get(delimiter);
-        boolean isTrim = get(trim);
-        boolean isTrimEnclosed = get(trimEnclosed);
-        boolean isAlwaysEnclosed = get(alwaysEnclosed);
-        int numElems = get(numValues).orElse(10);
-        
+
         // trim the entire string if requested
         String s = isTrim ? str.trim() : str;
-        
-        char[] chars = s.toCharArray();
-        int last = chars.length - 1;
-        List<String> values = new ArrayList<>(numElems);
-        StringBuilder value = new StringBuilder();
+
+        int length = s.length();
+        int last = length - 1;
+        int lastColumn = columns == null ? Integer.MAX_VALUE : lastColumn(columns);
+        List<String> values = new ArrayList<>(columns == null ? numElems : Math.min(numElems, lastColumn + 1));
+
+        // The value is the contents of the builder followed by the characters from 'start' to the current position,
+        // or to 'end', if the value has been closed by an encloser. The builder is only allocated when some characters
+        // in the middle of a value have to be skipped.
+        StringBuilder value = null;
+        int start = 0;
+        int end = -1;
+        boolean keep = wanted(columns, 0);
         boolean inEnclosed = false;
         boolean wasEnclosed = false;
-        
-        for(int i = 0; i < chars.length; i++) {
-            char ch = chars[i];
-            
-            if (ch == delim) {
-            	// We encountered a delimiter. 
-            	// If we are in the enclosed section, then the delimiter should be treated
-            	// as a regular character, so we append it.
-            	// If we are not in the enclosed section, than we are done with a delimited value, 
-            	// so we optionally trim it and append the value to the list, and allocate a new value buffer.
-                if (inEnclosed) {
-                    value.append(ch);
-                } else {
-                    values.add(trimIfRequired(value.toString(), enc, wasEnclosed, isTrim, isTrimEnclosed));
-                    wasEnclosed = false;
-                    value = new StringBuilder();
-                }
-            } else if (ch == enc) {
-            	// We encountered an encloser.  The following may happen here:
-            	
-            	// 1) The encloser came either at the beginning of the entire string or after a delimiter. That means
-            	// we are at the beginning of the value, which may or may not be enclosed.
-            	// We need to figure out whether this is enclosed value, or the encloser is just a character, which
-            	// needs to be put in the result.  We assume, that if the value ends with encloser, too, than this
-            	// character is an encloser.  For that, we scan forward, until we reach the next delimiter.
-            	
-            	// 2) The encloser came right before the delimiter or it is the last in the string AND the value is enclosed.
-            	// We do not do anything, since this is the closing encloser, we just reset the control variables.
-            	
-            	// 3) In any other case, we would want to pass the encloser to output.  We also need to "escape"
-            	// doubled enclosers. 
-                if (i == 0 || chars[i-1] == delim) {
-                    if (i != last) {
-                    	if (isAlwaysEnclosed) {
-                    		inEnclosed = true;
-                    	} else {
-	                        for (int j = i+1; j < chars.length; j++) {
-	                            if (chars[j] == delim && chars[j-1] == enc || j == last && chars[j] == enc) {
-	                                inEnclosed = true;
-	                                break;
-	                            }
-	                        }
-                    	}
-                    } else {
-                    	// this is a rare case when the last character in the input is an encloser
-                    	// and this encloser is the only character in the value
-                    	if (!inEnclosed) value.append(ch);
+
+        // Position of an encloser at the beginning of a value, which has been taken as opening an enclosed value
+        // before it is known whether some encloser closes it, or -1.
+        int open = -1;
+        boolean literal = false;
+
+        int i = 0;
+        while (true) {
+            for(; i < length && values.size() <= lastColumn; i++) {
+                char ch = s.charAt(i);
+
+                if (ch == delim) {
+                	// We encountered a delimiter.
+                	// If it follows an encloser, the encloser which is pending (see below) does open an enclosed value.
+                	// If we are in the enclosed section, then the delimiter should be treated
+                	// as a regular character, so it stays in the value.
+                	// If we are not in the enclosed section, than we are done with a delimited value,
+                	// so we optionally trim it and append the value to the list, and start a new value.
+                    if (open >= 0 && s.charAt(i-1) == enc) open = -1;
+                    if (!inEnclosed) {
+                        values.add(keep ? trimIfRequired(valueOf(value, s, start, end < 0 ? i : end), enc, wasEnclosed, isTrim, isTrimEnclosed) : null);
+                        if (value != null) value.setLength(0);
+                        wasEnclosed = false;
+                        start = i + 1;
+                        end = -1;
+                        keep = wanted(columns, values.size());
+                    }
+                } else if (ch == enc) {
+                	// We encountered an encloser.  The following may happen here:
+
+                	// 1) The encloser came either at the beginning of the entire string or after a delimiter. That means
+                	// we are at the beginning of the value, which may or may not be enclosed.
+                	// We need to figure out whether this is enclosed value, or the encloser is just a character, which
+                	// needs to be put in the result.  We assume, that if the value ends with encloser, too, than this
+                	// character is an encloser, that is, if there is an encloser followed by a delimiter (or an encloser
+                	// at the end of the string) anywhere after it.  We can't know that yet, so we take it as an encloser,
+                	// and remember where it is: it is confirmed by the next delimiter which follows an encloser.
+                	// The encloser itself is dropped either way.
+
+                	// 2) The encloser came right before the delimiter or it is the last in the string AND the value is enclosed.
+                	// We do not do anything, since this is the closing encloser, we just reset the control variables.
+
+                	// 3) In any other case, we would want to pass the encloser to output.  We also need to "escape"
+                	// doubled enclosers.
+                    if (i == 0 || s.charAt(i-1) == delim) {
+                        if (i != last) {
+                        	value = skip(value, keep, s, start, i);
+                        	start = i + 1;
+                        	if (isAlwaysEnclosed) {
+                        		inEnclosed = true;
+                        	} else if (!inEnclosed && !literal) {
+                        	    inEnclosed = true;
+                        	    open = i;
+                        	}
+                        } else {
+                        	// this is a rare case when the last character in the input is an encloser
+                        	// and this encloser is the only character in the value
+                        	if (inEnclosed) {
+                        	    value = skip(value, keep, s, start, i);
+                        	    start = i + 1;
+                        	}
+                        }
+                    } else if (inEnclosed && (i == last || s.charAt(i+1) == delim)) {
+                        // the closing encloser is followed by a delimiter or the end of the string, so it ends the value
+                        inEnclosed = false;
+                        wasEnclosed = true;
+                        end = i;
+                    } else if (i != last) {
+                        // escape doubled enclosers
+                        int from = i;
+                        for (i = i + 1; i < last && s.charAt(i) == enc; i++);
+                        int numEnclosers = i - from;
+                        i--;
+
+                        if (numEnclosers > 1) {
+                            value = skip(value, keep, s, start, from);
+                            if (keep) {
+                                if (value == null) value = new StringBuilder();
+                                int numEnclosersEscaped = numEnclosers / 2 + numEnclosers % 2;
+                                for (int j = 0; j < numEnclosersEscaped; j++) {
+                                    value.append(enc);
+                                }
+                            }
+                            start = i + 1;
+                        }
                     }
-                } else if (inEnclosed && (i == last || chars[i+1] == delim)) {
-                    inEnclosed = false;
-                    wasEnclosed = true;
-                } else {
-					if (i != last) {
-						// escape doubled enclosers
-						int numEnclosers = 1;
-						
-						for (i = i + 1; i < last; i++) {
-							if (chars[i] == enc) {
-								numEnclosers++;
-							} else {
-								break;
-							}
-						}
-						i--;
-
-						int numEnclosersEscaped = numEnclosers / 2 + numEnclosers % 2;
-						for (int j = 0; j < numEnclosersEscaped; j++) {
-							value.append(enc);
-						}
-					} else {
-						value.append(ch);
-					}
                 }
-            } else {
-                value.append(ch);
             }
+
+            if (open < 0 || s.charAt(last) == enc) break;
+
+            // No encloser closes a value after the pending one, so it was a character, and so is every encloser
+            // at the beginning of a value after it. No values have been added since, and the value was empty
+            // right after the encloser, so scan the rest again from there.
+            i = open + 1;
+            start = i;
+            end = -1;
+            if (value != null) value.setLength(0);
+            inEnclosed = false;
+            wasEnclosed = false;
+            literal = true;
+            open = -1;
+        }
+
+        if (values.size() <= lastColumn) {
+            values.add(keep ? trimIfRequired(valueOf(value, s, start, end < 0 ? length : end), enc, wasEnclosed, isTrim, isTrimEnclosed) : null);
         }
 
-        values.add(trimIfRequired(value.toString(), enc, wasEnclosed, isTrim, isTrimEnclosed));
-        
         return values.toArray(new String[values.size()]);
     }
-    
+
+    @Override
+    protected void build() {
+        super.build();
+        enc = get(encloser);
+        delim = get(delimiter);
+        isTrim = get(trim);
+        isTrimEnclosed = get(trimEnclosed);
+        isAlwaysEnclosed = get(alwaysEnclosed);
+        numElems = get(numValues).orElse(10);
+    }
+
+    /*
+     * Move the characters from the start of the value segment to the given position into the builder, so
+     * that the character at the position may be skipped. Return the builder, which is allocated when there are
+     * characters to move.
+     */
+    private static StringBuilder skip(StringBuilder value, boolean keep, String s, int start, int end) {
+        if (!keep || value == null && start == end) return value;
+        if (value == null) value = new StringBuilder();
+        return value.append(s, start, end);
+    }
+
+    private static String valueOf(StringBuilder value, String s, int start, int end) {
+        if (value == null || value.length() == 0) return s.substring(start, end);
+        return value.append(s, start, end).toString();
+    }
+
+    private static boolean wanted(boolean[] columns, int column) {
+        return columns == null || column < columns.length && columns[column];
+    }
+
+    private static int lastColumn(boolean[] columns) {
+        for (int i = columns.length - 1; i >= 0; i--) {
+            if (columns[i]) return i;
+        }
+        return -1;
+    }
+
     private static String trimIfRequired(String s, char enc, boolean enclosed, boolean trim, boolean trimEnclosed) {
     	String finalValue = s;
     	if (enclosed && trimEnclosed) {
@@ -122,7 +210,7 @@ class DelimitedStringSplitterImpl extends ConfigurableObject<DelimitedStringSpli
     	} else if (!enclosed && trim) {
     		finalValue = s.trim();
     	}
-    	
+
     	if (trimEnclosed) {
     		int last = finalValue.length() - 1;
     		if (last >= 0) {
@@ -136,7 +224,7 @@ class DelimitedStringSplitterImpl extends ConfigurableObject<DelimitedStringSpli
 	    		}
     		}
     	}
-    	
+
     	return finalValue;
     }
 
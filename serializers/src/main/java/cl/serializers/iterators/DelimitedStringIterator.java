@@ -9,6 +9,7 @@ import java.util.Map;
 import java.util.function.BiConsumer;
 import java.util.function.Function;
 import java.util.function.Predicate;
+import java.util.stream.IntStream;
 
 import cl.core.configurable.ConfigurableException;
 import cl.core.util.Reflections;
@@ -44,6 +45,10 @@ import cl.serializers.delimited.DelimitedStringSplitter;
  *      <p>This configuration setting is optional. For missing columns, 
  *      the iterator will try to figure out object properties by parsing 
  *      the header in the file (the first line).
+ *      
+ *      <p>Only mapped columns are read: values of other columns are not built,
+ *      and the rest of a line after the last mapped column is not split at all,
+ *      so mapping a few columns of a wide file makes reading it faster.
  *  </li>
  *  <li>
  *      {@link cl.serializers.SerializerConfiguration#valueParsers} specifies
@@ -83,6 +88,7 @@ public class DelimitedStringIterator<T> extends TextIterator<T> {
     private final Class<T> klass;
     private DelimitedStringSplitter splitter;
     private DelimitedStringParser<T> parser;
+    private boolean[] mappedColumns; // columns which are mapped to properties
     
     private DelimitedStringIterator(File file, Class<T> klass) {
         super(file);
@@ -160,12 +166,17 @@ public class DelimitedStringIterator<T> extends TextIterator<T> {
         return DelimitedStringIterator.<T>fromInputStream(inputStream, klass, false).withConfigurationFrom(this).locked();        
     }
     
+    @Override
+    protected int numHeaderLines() {
+        return get(SerializerConfiguration.numHeaderLines);
+    }
+    
     /**
      * Parse a line into an object.
      */
     @Override
     protected T parseLine(String line) {
-        return parser.parse(splitter.split(line));
+        return parser.parse(splitter.split(line, mappedColumns));
     }
     
     @Override
@@ -216,6 +227,11 @@ public class DelimitedStringIterator<T> extends TextIterator<T> {
                     + "Either a header should exist in the file or 'columnIndexToProperty' should be set.");
         }
         
+        // the splitter only builds values of mapped columns, and stops after the last one
+        int[] columns = columnIndexToProperty.keySet().stream().filter(i -> i != null && i >= 0).mapToInt(i -> i).toArray();
+        mappedColumns = new boolean[IntStream.of(columns).max().orElse(-1) + 1];
+        IntStream.of(columns).forEach(i -> mappedColumns[i] = true);
+        
         parser = DelimitedStringParser.get(
                 klass, columnIndexToProperty, get(SerializerConfiguration.valueParsers), false)
                     .with(DelimitedStringParser.useSetters, useSetters)
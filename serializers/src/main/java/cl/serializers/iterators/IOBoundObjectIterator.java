@@ -34,6 +34,13 @@ abstract class IOBoundObjectIterator<T> extends ObjectIterator<T> {
         this(null, inputStream);
     }
 
+    /**
+     * Return the input file, or {@code null} if the input is a stream.
+     */
+    protected File getFile() {
+        return file;
+    }
+    
     /**
      * Overrides {@code ConfigurableObject.build()} in order to initialize the iterator's
      * input.
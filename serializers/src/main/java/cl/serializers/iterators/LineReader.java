@@ -0,0 +1,35 @@
+package cl.serializers.iterators;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.IOException;
+
+/**
+ * Source of lines for text iterators.
+ */
+interface LineReader extends Closeable {
+
+    /**
+     * Return the next line without the line separator, or {@code null} at the end of the input.
+     * Like {@code BufferedReader}, line readers recognize '\n', '\r', and "\r\n" as line separators.
+     */
+    String readLine() throws IOException;
+
+    /**
+     * Return a line reader, which reads lines from a buffered reader.
+     */
+    static LineReader of(BufferedReader reader) {
+        return new LineReader() {
+            @Override
+            public String readLine() throws IOException {
+                return reader.readLine();
+            }
+
+            @Override
+            public void close() throws IOException {
+                reader.close();
+            }
+        };
+    }
+
+}
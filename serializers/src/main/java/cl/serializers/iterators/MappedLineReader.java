@@ -0,0 +1,134 @@
+package cl.serializers.iterators;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * Line reader, which maps a file into memory, and finds lines by their bytes, without copying the file to a buffer
+ * first. Files are mapped in windows of at most {@code MAX_WINDOW_SIZE} bytes, which start at line boundaries,
+ * so files larger than 2 GB may be read as well; a line must fit into a window.
+ *
+ * <p>Lines of ASCII characters are converted to strings directly; other lines are decoded by the charset decoder.
+ * Both use buffers which are reused from line to line. Malformed input is replaced, as it is by
+ * {@code InputStreamReader}. The charset must be one in which bytes of '\n' and '\r' always mean line separators
+ * (see {@link TextFileSpliterator#supports(Charset)}).
+ */
+final class MappedLineReader implements LineReader {
+
+    private static final int MAX_WINDOW_SIZE = 1 << 30;
+
+    private final FileChannel channel;
+    private final long size;
+    private final int maxWindowSize;
+    private final CharsetDecoder decoder;
+    private MappedByteBuffer window;
+    private long windowStart;
+    private int position;
+    private char[] chars = new char[256];
+    private CharBuffer decoded = CharBuffer.allocate(256);
+
+    /**
+     * Create a line reader, which reads the channel from its current position. Closing the reader closes
+     * the channel.
+     */
+    MappedLineReader(FileChannel channel, Charset charset) throws IOException {
+        this(channel, charset, MAX_WINDOW_SIZE);
+    }
+
+    MappedLineReader(FileChannel channel, Charset charset, int maxWindowSize) throws IOException {
+        this.channel = channel;
+        this.size = channel.size();
+        this.maxWindowSize = maxWindowSize;
+        this.decoder = charset.newDecoder()
+                .onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        map(channel.position());
+    }
+
+    @Override
+    public String readLine() throws IOException {
+        while (true) {
+            int limit = window.limit();
+            boolean lastWindow = windowStart + limit == size;
+            if (position == limit && lastWindow) {
+                return null;
+            }
+            for (int i = position; i < limit; i++) {
+                byte b = window.get(i);
+                if (b == '\n' || b == '\r') {
+                    if (b == '\r' && i + 1 == limit && !lastWindow) {
+                        break; // the next byte may be '\n'
+                    }
+                    String line = decode(position, i);
+                    position = b == '\r' && i + 1 < limit && window.get(i + 1) == '\n' ? i + 2 : i + 1;
+                    return line;
+                }
+            }
+            if (lastWindow) {
+                String line = decode(position, limit);
+                position = limit;
+                return line;
+            }
+            if (position == 0 && limit == maxWindowSize) {
+                throw new IOException("line at " + windowStart + " is longer than " + maxWindowSize + " bytes");
+            }
+            map(windowStart + position);
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        window = null;
+        channel.close();
+    }
+
+    private void map(long start) throws IOException {
+        windowStart = start;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, start, Math.min(maxWindowSize, size - start));
+        position = 0;
+    }
+
+    /*
+     * Convert the bytes to a string; ASCII bytes are copied to chars, other bytes are decoded.
+     */
+    private String decode(int from, int to) {
+        int length = to - from;
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = window.get(from + i);
+            if (b < 0) {
+                return decodeCharset(from, to);
+            }
+            chars[i] = (char)b;
+        }
+        return new String(chars, 0, length);
+    }
+
+    private String decodeCharset(int from, int to) {
+        ByteBuffer bytes = window.duplicate();
+        bytes.limit(to).position(from);
+        int maxChars = (int)Math.ceil((to - from) * (double)decoder.maxCharsPerByte());
+        if (decoded.capacity() < maxChars) {
+            decoded = CharBuffer.allocate(Math.max(maxChars, decoded.capacity() * 2));
+        }
+        decoded.clear();
+        decoder.reset();
+        CoderResult result = decoder.decode(bytes, decoded, true);
+        if (!result.isUnderflow()) {
+            throw new IllegalStateException(result.toString());
+        }
+        decoder.flush(decoded);
+        decoded.flip();
+        return decoded.toString();
+    }
+
+}
@@ -11,6 +11,7 @@ import java.util.ArrayList;
 import java.util.Iterator;
 import java.util.List;
 import java.util.NoSuchElementException;
+import java.util.Spliterator;
 import java.util.Spliterators;
 import java.util.function.Consumer;
 import java.util.stream.Stream;
@@ -98,13 +99,23 @@ public abstract class ObjectIterator<T> extends ConfigurableObject<ObjectIterato
     }
     
     /**
-     * Convert this iterator to a stream.  The stream obtained by calling this method is ordered and sequential
-     * (can't be parallelized).
+     * Convert this iterator to a stream.  The stream obtained by calling this method is ordered and sequential.
+     * If no objects have been read yet, and the iterator can split its input (see {@code spliterator()}),
+     * the stream may be turned into a parallel one with {@code parallel()}, which then reads the input on
+     * several threads. Otherwise the stream can't be parallelized.
+     * 
+     * <p>A stream of a splittable input reads the input by itself, so the iterator has no more objects afterwards.
      * 
      * @throws ConfigurableException whenever configuration for this object is not locked.
      */
     public final Stream<T> stream() {
         requireLock();
+        Spliterator<T> spliterator = justOpen ? spliterator() : null;
+        if (spliterator != null) {
+            justOpen = false;
+            next = null;
+            return StreamSupport.stream(spliterator, false);
+        }
         return StreamSupport.stream(Spliterators.spliteratorUnknownSize(this, ORDERED | NONNULL | IMMUTABLE), false);
     }
     
@@ -143,6 +154,15 @@ public abstract class ObjectIterator<T> extends ConfigurableObject<ObjectIterato
      */
     public abstract ObjectIterator<T> clone(InputStream inputStream);
     
+    /**
+     * Return a spliterator, which reads the whole input, and can split it, so that a parallel stream reads
+     * the input on several threads; or {@code null}, if the input can't be split. This method is called by
+     * {@code stream()} before any objects are read. The default implementation returns {@code null}.
+     */
+    protected Spliterator<T> spliterator() {
+        return null;
+    }
+    
     /**
      * Read the next element from the iterator source.  The implementation of this method is iterator 
      * format specific.
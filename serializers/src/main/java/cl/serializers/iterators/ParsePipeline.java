@@ -0,0 +1,134 @@
+package cl.serializers.iterators;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
+
+/**
+ * Reads lines on one thread, and parses them on several threads. Lines are read in blocks, each block is parsed
+ * by a worker, and the parsed blocks are queued in the order of the input, so objects are returned
+ * in the same order as they are read. The queue is bounded, so reading stops when the consumer falls behind.
+ */
+final class ParsePipeline<T> implements Closeable {
+
+    private static final int BLOCK_SIZE = 256;
+    private static final CompletableFuture<List<Object>> END = CompletableFuture.completedFuture(Collections.emptyList());
+
+    private final Callable<String> readLine;
+    private final Function<String, T> parseLine;
+    private final BlockingQueue<CompletableFuture<? extends List<?>>> blocks;
+    private final ExecutorService workers;
+    private final Thread reader;
+    private Iterator<?> block = Collections.emptyIterator();
+    private boolean done;
+
+    /**
+     * Start reading.
+     *
+     * @param readLine     function which returns the next line, or {@code null} at the end of the input
+     * @param parseLine    function which parses a line; it is called by several threads at once
+     * @param parallelism  number of threads which parse lines
+     */
+    ParsePipeline(Callable<String> readLine, Function<String, T> parseLine, int parallelism) {
+        this.readLine = readLine;
+        this.parseLine = parseLine;
+        this.blocks = new ArrayBlockingQueue<>(parallelism * 2);
+        this.workers = Executors.newFixedThreadPool(parallelism, r -> {
+            Thread t = new Thread(r, "parse-worker");
+            t.setDaemon(true);
+            return t;
+        });
+        this.reader = new Thread(this::read, "parse-reader");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    /**
+     * Return the next parsed object, or {@code null} at the end of the input.
+     */
+    @SuppressWarnings("unchecked")
+    T next() throws IOException {
+        while (!block.hasNext()) {
+            if (done) {
+                return null;
+            }
+            try {
+                CompletableFuture<? extends List<?>> next = blocks.take();
+                if (next == END) {
+                    done = true;
+                } else {
+                    block = next.get().iterator();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            } catch (ExecutionException e) {
+                done = true;
+                Throwable cause = e.getCause();
+                if (cause instanceof IOException) throw (IOException)cause;
+                if (cause instanceof RuntimeException) throw (RuntimeException)cause;
+                if (cause instanceof Error) throw (Error)cause;
+                throw new IOException(cause);
+            }
+        }
+        return (T)block.next();
+    }
+
+    /**
+     * Stop reading and parsing. The caller closes the input afterwards.
+     */
+    @Override
+    public void close() {
+        reader.interrupt();
+        workers.shutdownNow();
+    }
+
+    private void read() {
+        try {
+            while (true) {
+                List<String> lines = new ArrayList<>(BLOCK_SIZE);
+                String line;
+                while (lines.size() < BLOCK_SIZE && (line = readLine.call()) != null) {
+                    lines.add(line);
+                }
+                if (!lines.isEmpty()) {
+                    blocks.put(CompletableFuture.supplyAsync(() -> parse(lines), workers));
+                }
+                if (lines.size() < BLOCK_SIZE) {
+                    blocks.put(END);
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            // closed
+        } catch (Exception e) {
+            CompletableFuture<List<Object>> failed = new CompletableFuture<>();
+            failed.completeExceptionally(e);
+            try {
+                blocks.put(failed);
+            } catch (InterruptedException ie) {
+                // closed
+            }
+        }
+    }
+
+    private List<T> parse(List<String> lines) {
+        List<T> objects = new ArrayList<>(lines.size());
+        for (String line : lines) {
+            objects.add(parseLine.apply(line));
+        }
+        return objects;
+    }
+
+}
@@ -98,6 +98,11 @@ public class StringIterator extends TextIterator<String> {
         }
     }
     
+    @Override
+    protected int numHeaderLines() {
+        return get(SerializerConfiguration.numHeaderLines);
+    }
+    
     @Override
     protected String parseLine(String line) {
         return line;
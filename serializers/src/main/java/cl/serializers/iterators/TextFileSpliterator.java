@@ -0,0 +1,247 @@
+package cl.serializers.iterators;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Spliterator over the lines of a text file, which splits the file into byte ranges, so that the lines may be
+ * read and parsed by several threads of a parallel stream. A range owns the lines which start in it: each split
+ * skips the partial line at the beginning of its range, and reads past the end of its range to finish its last line.
+ * Every split reads the file with its own input stream, which is opened on the first object.
+ *
+ * <p>As with text iterators, a {@code null} returned by {@code parseLine} ends the input: the split which reads it
+ * stops there, and so do the splits of the ranges after it, which have not read that far yet. Objects which those
+ * splits have already passed to the stream by then stay in it.
+ *
+ * <p>Like {@code BufferedReader}, the spliterator recognizes '\n', '\r', and "\r\n" as line separators. Only charsets
+ * in which bytes of '\n' and '\r' always mean line separators are supported
+ * (see {@link TextFileSpliterator#supports(Charset)}).
+ */
+final class TextFileSpliterator<T> implements Spliterator<T> {
+
+    private static final int MIN_SPLIT_SIZE = 64 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final File file;
+    private final Function<String, T> parseLine;
+    private final boolean skipEmptyLines;
+    private final Charset charset;
+    private final Set<Closeable> openStreams;
+    private final AtomicLong stop;
+    private long position;
+    private long end;
+    private InputStream in;
+    private byte[] line = new byte[256];
+
+    /**
+     * Create a spliterator over the lines in the given byte range of the file.
+     *
+     * @param openStreams  set, to which the spliterator adds its input stream while it is open, so that the streams
+     *                     of unfinished splits may be closed by the owner
+     */
+    TextFileSpliterator(File file, long from, long to, Function<String, T> parseLine, boolean skipEmptyLines,
+            Charset charset, Set<Closeable> openStreams) {
+        this(file, from, to, parseLine, skipEmptyLines, charset, openStreams, new AtomicLong(Long.MAX_VALUE));
+    }
+
+    private TextFileSpliterator(File file, long from, long to, Function<String, T> parseLine, boolean skipEmptyLines,
+            Charset charset, Set<Closeable> openStreams, AtomicLong stop) {
+        this.file = file;
+        this.position = from;
+        this.end = to;
+        this.parseLine = parseLine;
+        this.skipEmptyLines = skipEmptyLines;
+        this.charset = charset;
+        this.openStreams = openStreams;
+        this.stop = stop;
+    }
+
+    /**
+     * Return true if lines in the charset may be found by looking for '\n' and '\r' bytes.
+     */
+    static boolean supports(Charset charset) {
+        return charset.equals(StandardCharsets.UTF_8) || charset.equals(StandardCharsets.US_ASCII)
+                || charset.equals(StandardCharsets.ISO_8859_1);
+    }
+
+    /**
+     * Return the offset of the byte which follows the given number of lines at the beginning of the file.
+     */
+    static long skipLines(File file, int numLines) {
+        return uncheck(() -> {
+            long offset = 0;
+            try (InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE)) {
+                for (int i = 0; i < numLines; i++) {
+                    long skipped = skipLine(in);
+                    if (skipped < 0) break;
+                    offset += skipped;
+                }
+            }
+            return offset;
+        });
+    }
+
+    @Override
+    public boolean tryAdvance(Consumer<? super T> action) {
+        return uncheck(() -> {
+            if (in == null && !open()) {
+                return false;
+            }
+            while (position < Math.min(end, stop.get())) {
+                long start = position;
+                int length = readLine();
+                if (length < 0) {
+                    break;
+                }
+                if (skipEmptyLines && isBlank(length)) {
+                    continue;
+                }
+                T object = parseLine.apply(new String(line, 0, length, charset));
+                if (object == null) {
+                    stop.accumulateAndGet(start, Math::min);
+                    break;
+                }
+                action.accept(object);
+                return true;
+            }
+            close();
+            return false;
+        });
+    }
+
+    /**
+     * Split off the first half of the range, which is the prefix of the objects, unless the range is too small,
+     * or reading has started.
+     */
+    @Override
+    public Spliterator<T> trySplit() {
+        if (in != null || end - position < 2 * MIN_SPLIT_SIZE) {
+            return null;
+        }
+        long middle = position + (end - position) / 2;
+        Spliterator<T> prefix = new TextFileSpliterator<>(
+                file, position, middle, parseLine, skipEmptyLines, charset, openStreams, stop);
+        position = middle;
+        return prefix;
+    }
+
+    @Override
+    public long estimateSize() {
+        return Math.max(0, end - position);
+    }
+
+    @Override
+    public int characteristics() {
+        return ORDERED | NONNULL | IMMUTABLE;
+    }
+
+    /*
+     * Open the file at the beginning of the range, and skip to the first line which starts in the range.
+     * Return false if there is none.
+     */
+    private boolean open() throws IOException {
+        if (position >= Math.min(end, stop.get())) {
+            return false;
+        }
+        FileInputStream fis = new FileInputStream(file);
+        in = new BufferedInputStream(fis, BUFFER_SIZE);
+        openStreams.add(in);
+        if (position > 0) {
+            // a line starts at the position, if the previous byte ends a line
+            fis.getChannel().position(position - 1);
+            long skipped = skipLine(in);
+            if (skipped < 0) {
+                close();
+                return false;
+            }
+            position += skipped - 1;
+        }
+        return true;
+    }
+
+    /*
+     * Read the next line into the buffer, and return its length without the separator, or -1 at the end of the file.
+     */
+    private int readLine() throws IOException {
+        int length = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            position++;
+            if (b == '\n' || b == '\r') {
+                if (b == '\r' && skipLineFeed(in)) {
+                    position++;
+                }
+                return length;
+            }
+            if (length == line.length) {
+                line = Arrays.copyOf(line, length * 2);
+            }
+            line[length++] = (byte)b;
+        }
+        return length > 0 ? length : -1;
+    }
+
+    /*
+     * Skip the rest of the line, including its separator, and return the number of bytes skipped,
+     * or -1 if the input ends before the line does.
+     */
+    private static long skipLine(InputStream in) throws IOException {
+        long skipped = 0;
+        int b;
+        while ((b = in.read()) != -1) {
+            skipped++;
+            if (b == '\n') {
+                return skipped;
+            }
+            if (b == '\r') {
+                return skipLineFeed(in) ? skipped + 1 : skipped;
+            }
+        }
+        return -1;
+    }
+
+    /*
+     * Skip the next byte if it is '\n', which follows '\r'.
+     */
+    private static boolean skipLineFeed(InputStream in) throws IOException {
+        in.mark(1);
+        if (in.read() == '\n') {
+            return true;
+        }
+        in.reset();
+        return false;
+    }
+
+    /*
+     * Same as String.trim().isEmpty(), which is checked by text iterators.
+     */
+    private boolean isBlank(int length) {
+        for (int i = 0; i < length; i++) {
+            if ((line[i] & 0xff) > ' ') return false;
+        }
+        return true;
+    }
+
+    private void close() throws IOException {
+        if (in != null) {
+            openStreams.remove(in);
+            in.close();
+        }
+        position = end;
+    }
+
+}
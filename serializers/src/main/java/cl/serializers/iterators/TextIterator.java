@@ -3,11 +3,19 @@ package cl.serializers.iterators;
 import static cl.core.decorator.exception.ExceptionDecorators.*;
 
 import java.io.BufferedReader;
+import java.io.Closeable;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.util.Set;
+import java.util.Spliterator;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
 
+import cl.core.util.FileUtils;
 import cl.serializers.SerializerConfiguration;
 
 /**
@@ -25,14 +33,30 @@ import cl.serializers.SerializerConfiguration;
  *      {@link cl.serializers.SerializerConfiguration#charset} specifies the input character set. 
  *      The default value is UTF-8.
  *   </li>
+ *   <li>
+ *      {@link cl.serializers.SerializerConfiguration#memoryMapped} makes the iterator read files by mapping them
+ *      into memory, and finding lines by their bytes, instead of reading them with a {@code BufferedReader}.
+ *      It applies to files (not input streams) in UTF-8, US-ASCII, and ISO-8859-1. The default value is false.
+ *   </li>
+ *   <li>
+ *      {@link cl.serializers.SerializerConfiguration#parseParallelism} specifies the number of threads which
+ *      parse lines. When it is greater than one, lines are read in blocks on a separate thread, and the blocks
+ *      are parsed by that many threads, while objects are still returned in the order of the input.
+ *      The default value is 1, which means lines are read and parsed on the caller's thread.
+ *   </li>
  * </ul>
  * 
  * <p>Subclasses may override these configuration settings in their respective {@code build()} methods.
+ * With parallel parsing, {@code parseLine()} is called by several threads at once, after {@code build()}
+ * is complete.
  */
 abstract class TextIterator<T> extends IOBoundObjectIterator<T> {
     
-    protected BufferedReader reader;
+    protected LineReader reader;
     protected boolean skipEmptyLines;
+    private int parseParallelism;
+    private ParsePipeline<T> pipeline;
+    private final Set<Closeable> splitStreams = ConcurrentHashMap.newKeySet();
 
     /**
      * Initialize object iterator with file as input.
@@ -49,10 +73,12 @@ abstract class TextIterator<T> extends IOBoundObjectIterator<T> {
     }
 
     /**
-     * Close the input stream.
+     * Stop parsing, and close the input stream.
      */
     @Override
     public void close() throws IOException {
+        if (pipeline != null) pipeline.close();
+        FileUtils.close(splitStreams.toArray(new Closeable[0]));
         if (reader != null) reader.close();
     }
     
@@ -61,29 +87,124 @@ abstract class TextIterator<T> extends IOBoundObjectIterator<T> {
      * with specific character set given a low-level Java input stream.
      * 
      * <p>The buffered reader will be created with the character set specified as a configuration setting.
+     * Files are mapped into memory instead, if {@link cl.serializers.SerializerConfiguration#memoryMapped}
+     * is set, and the character set allows to find lines by their bytes.
      */
     @Override
     protected void init(InputStream inputStream) {
-        reader = uncheck(() -> new BufferedReader(
-                new InputStreamReader(inputStream, get(SerializerConfiguration.charset))));
+        Charset charset = get(SerializerConfiguration.charset);
+        if (get(SerializerConfiguration.memoryMapped) && inputStream instanceof FileInputStream
+                && TextFileSpliterator.supports(charset)) {
+            reader = uncheck(() -> new MappedLineReader(((FileInputStream)inputStream).getChannel(), charset));
+        } else {
+            reader = LineReader.of(new BufferedReader(new InputStreamReader(inputStream, charset)));
+        }
+        parseParallelism = get(SerializerConfiguration.parseParallelism);
     }
     
     /**
      * Implements the {@code ObjectIterator.readNext()} method.
      * The method reads one line from the iterator's text input and then delegates to {@code parseLine()}
-     * method, which converts this line into an actual object.
+     * method, which converts this line into an actual object. With parallel parsing, the next object
+     * is taken from the parse pipeline, which is started on the first call.
      */
     @Override
     protected final T readNext() throws IOException {
+        if (parseParallelism > 1) {
+            if (pipeline == null) {
+                pipeline = new ParsePipeline<>(this::readLine, this::parseLine, parseParallelism);
+            }
+            return pipeline.next();
+        }
+        return parseLine(readLine());
+    }
+    
+    /*
+     * Return the next line, or null at the end of the input.
+     */
+    private String readLine() throws IOException {
         String line = null;
         do {
             line = reader.readLine();
         } while (line != null && skipEmptyLines && (line.isEmpty() || line.trim().isEmpty()));
-        return parseLine(line);
+        return line;
+    }
+    
+    /**
+     * Return a spliterator, which reads objects with {@code readNext()}, like the iterator does, until it is split.
+     * The first split switches to byte ranges of the input file aligned to lines, each of which is read with its own
+     * input stream; objects are then read after the header lines, and parsed with {@code parseLine()} by the threads
+     * of the stream. The spliterator can't be split once it has read an object. Input streams, and charsets
+     * in which lines can't be found by their bytes, are not split.
+     */
+    @Override
+    protected Spliterator<T> spliterator() {
+        File file = getFile();
+        if (file == null || !TextFileSpliterator.supports(get(SerializerConfiguration.charset))) {
+            return null;
+        }
+        return new FileSpliterator(file);
+    }
+    
+    /**
+     * Return the number of header lines, which the iterator skips before reading objects. The default
+     * implementation returns zero.
+     */
+    protected int numHeaderLines() {
+        return 0;
     }
     
     /**
      * Given a line of text, parse this line into an actual object of some specific type.
      */
     protected abstract T parseLine(String line);
+    
+    /*
+     * Spliterator, which reads the iterator's own line reader (so that memory mapping and parallel parsing apply)
+     * until it is split, and delegates to a spliterator over byte ranges of the file afterwards.
+     */
+    private final class FileSpliterator implements Spliterator<T> {
+        
+        private final File file;
+        private TextFileSpliterator<T> ranges;
+        private boolean split;
+        private boolean reading;
+        
+        FileSpliterator(File file) {
+            this.file = file;
+        }
+        
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (split) return ranges.tryAdvance(action);
+            reading = true;
+            T object = uncheck(() -> readNext());
+            if (object == null) return false;
+            action.accept(object);
+            return true;
+        }
+        
+        @Override
+        public Spliterator<T> trySplit() {
+            if (reading) return null;
+            if (ranges == null) {
+                long from = TextFileSpliterator.skipLines(file, numHeaderLines());
+                ranges = new TextFileSpliterator<>(file, from, file.length(), TextIterator.this::parseLine,
+                        skipEmptyLines, get(SerializerConfiguration.charset), splitStreams);
+            }
+            Spliterator<T> prefix = ranges.trySplit();
+            split = split || prefix != null;
+            return prefix;
+        }
+        
+        @Override
+        public long estimateSize() {
+            return split ? ranges.estimateSize() : file.length();
+        }
+        
+        @Override
+        public int characteristics() {
+            return ORDERED | NONNULL | IMMUTABLE;
+        }
+    }
 }
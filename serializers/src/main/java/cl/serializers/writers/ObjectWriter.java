@@ -61,6 +61,19 @@ public abstract class ObjectWriter<T> extends ConfigurableObject<ObjectWriter<T>
         xs.forEachRemaining(this::write);
     }
     
+    /**
+     * Return the position in the destination, in bytes, at which the next object will be written. Any buffered
+     * output is flushed first.
+     * 
+     * <p>Only writers whose output may be read starting from any object, such as text writers, support this
+     * method. Reading from the returned position with a cloned object iterator gives the next written object.
+     * 
+     * @throws UnsupportedOperationException if the writer does not support positions
+     */
+    public long position() {
+        throw new UnsupportedOperationException(getClass().getName() + " does not support positions");
+    }
+    
     /**
      * Create a new object writer for the given file, which is of the same type and with the same configuration settings as the
      * original object writer.
@@ -3,6 +3,7 @@ package cl.serializers.writers;
 import static cl.core.decorator.exception.ExceptionDecorators.*;
 
 import java.io.File;
+import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
@@ -24,6 +25,7 @@ import cl.serializers.SerializerConfiguration;
 abstract class TextWriter<T> extends IOBoundObjectWriter<T> {
     
     protected PrintWriter writer;
+    private CountingOutputStream counter;
     
     /**
      * Create a writer which writes to a file.
@@ -56,6 +58,17 @@ abstract class TextWriter<T> extends IOBoundObjectWriter<T> {
         writer.println(toString(t));
     }
     
+    /**
+     * Flush the print writer and return the number of bytes written to the destination. Text outputs have
+     * one object per line, so the result is the position at which the next object starts.
+     */
+    @Override
+    public long position() {
+        requireLock();
+        writer.flush();
+        return counter.count;
+    }
+    
     /**
      * Implements the {@code IOBoundObjectWriter.init()} method in order to wrap a given output stream into a {@code PrintWriter}
      * object.
@@ -64,7 +77,8 @@ abstract class TextWriter<T> extends IOBoundObjectWriter<T> {
      */
     @Override
     protected void init(OutputStream outputStream) {
-        writer = uncheck(() -> new PrintWriter(new OutputStreamWriter(outputStream, get(SerializerConfiguration.charset))));
+        counter = new CountingOutputStream(outputStream);
+        writer = uncheck(() -> new PrintWriter(new OutputStreamWriter(counter, get(SerializerConfiguration.charset))));
     }    
     
     /**
@@ -72,4 +86,27 @@ abstract class TextWriter<T> extends IOBoundObjectWriter<T> {
      */
     protected abstract String toString(T t);
 
+    /*
+     * Counts bytes which pass through it to the destination.
+     */
+    private static final class CountingOutputStream extends FilterOutputStream {
+        private long count;
+        
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+        
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+        
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+
 }
@@ -269,6 +269,37 @@ class DelimitedStringSerializerConfigurationSpec extends FlatSpec with Matchers
     }
   }
   
+  it should "read only mapped columns of wide lines" in {
+    withFiles(newFile, newFile) { (src, dest) =>
+      import scala.collection.JavaConversions.mapAsJavaMap
+      
+      val columnIndexToProperty: java.util.Map[Integer, String] = Map(
+        new Integer(5) -> "gender", 
+        new Integer(0) -> "name")
+        
+      val config = Configurable.empty
+        .`with`(SerializerConfiguration.columnIndexToProperty, columnIndexToProperty)
+        .`with`[java.lang.Integer](SerializerConfiguration.numHeaderLines, 0)
+        .locked
+        
+      // unmapped columns have values, which can't be set, and the rest of the lines are not split
+      using (new PrintWriter(src)) { writer =>
+        writer.println("John|1|2|not a date|4|MALE|\"unclosed|" + "x|" * 1000)
+        writer.println("Jenny|1|2|3|4|FEMALE")
+        writer.println("Jack")
+      }
+      
+      using(psvSerializer(src, dest, classOf[Person], config)) { serializer =>
+        import scala.collection.JavaConverters.asScalaBufferConverter
+        
+        val people = serializer.getIterator.read.asScala
+        people.map(_.getName) should equal (Seq("John", "Jenny", "Jack"))
+        people.map(_.getGender) should equal (Seq(Person.Gender.MALE, Person.Gender.FEMALE, null))
+        people.forall(p => p.getDob == null && p.getAddress == null) should be (true)
+      }
+    }
+  }
+  
   private[this] def getPsvSerializerConfig(configuration: Configurable[_]) = {
     import scala.collection.JavaConversions.mapAsJavaMap
     
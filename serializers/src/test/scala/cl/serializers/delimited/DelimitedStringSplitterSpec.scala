@@ -114,6 +114,22 @@ class DelimitedStringSplitterSpec extends FlatSpec with Matchers with GivenWhenT
     p("One|\"") should equal(Array("One", "\""))
   }
   
+  Given("requested columns")
+  it should "return values of these columns only, and stop after the last one" in {
+    val s = "One,\"Two, \"\"2\"\" \",Three,\"Four\",Five"
+    DelimitedStringSplitter.csv().split(s, Array(false, true, false, true)) should equal(
+        Array(null, "Two, \"2\" ", null, "Four"))
+    DelimitedStringSplitter.csv().split(s, Array(true)) should equal(Array("One"))
+    DelimitedStringSplitter.csv().split(s, null) should equal(c(s))
+  }
+  
+  Given("a string with long enclosed values")
+  it should "split it in linear time" in {
+    val value = "x," * 100000 + "x"
+    val s = (1 to 10).map(_ => "\"" + value + "\"").mkString(",")
+    c(s) should equal(Array.fill(10)(value))
+  }
+  
   private def c(s: String) = DelimitedStringSplitter.csv().split(s)
   private def p(s: String) = DelimitedStringSplitter.pipe().split(s)
   private def ctrim(s: String) = DelimitedStringSplitter.csvTrimming.split(s)
@@ -2,6 +2,8 @@ package cl.serializers.iterators
 
 import java.io.File
 import java.io.FileInputStream
+import java.io.FileOutputStream
+import java.io.PrintWriter
 import java.util.ArrayList
 import java.util.stream.Collectors.toList
 
@@ -131,6 +133,162 @@ class ObjectIteratorSpec extends FlatSpec with Matchers {
     }
   }
   
+  it should "parse lines on several threads, and return objects in the order of the input" in {
+    val file = File.createTempFile("json", "")
+    try {
+      val jsonMapper = JsonMapper.getJsonMapper
+      val people = Person.peopleDB()
+      using(new PrintWriter(new FileOutputStream(file))) { out =>
+        for (i <- 0 until 10000) out.println(jsonMapper.toJson(people.get(i % people.size())))
+      }
+      val expected = JsonIterator.fromFile(file, classOf[Person]).read()
+      expected.size() should be (10000)
+      using (JsonIterator.fromFile(file, classOf[Person], false).`with`[Integer](SerializerConfiguration.parseParallelism, 4).locked()) { iter =>
+        iter.read() should equal (expected)
+      }
+      using (StringIterator.fromFile(file, false).`with`[Integer](SerializerConfiguration.parseParallelism, 3).locked()) { iter =>
+        iter.read() should equal (StringIterator.fromFile(file).read())
+      }
+      using (JsonIterator.fromFile(file, classOf[Person], false).`with`[Integer](SerializerConfiguration.parseParallelism, 4).locked()) { iter =>
+        iter.next(10) should equal (expected.subList(0, 10))
+      }
+    } finally {
+      file.delete()
+    }
+  }
+  
+  it should "throw parse errors of parallel parsing to the caller" in {
+    val file = File.createTempFile("json", "")
+    try {
+      using(new PrintWriter(new FileOutputStream(file))) { out =>
+        for (i <- 0 until 1000) out.println(if (i == 700) "{not json" else JsonMapper.getJsonMapper.toJson(Person.peopleDB().get(0)))
+      }
+      using (JsonIterator.fromFile(file, classOf[Person], false).`with`[Integer](SerializerConfiguration.parseParallelism, 2).locked()) { iter =>
+        an [Exception] should be thrownBy { iter.read() }
+      }
+    } finally {
+      file.delete()
+    }
+  }
+  
+  it should "split files for parallel streams, and keep the order of objects" in {
+    val file = File.createTempFile("json", "")
+    try {
+      val jsonMapper = JsonMapper.getJsonMapper
+      val people = Person.peopleDB()
+      val expected = new ArrayList[Person]
+      for (i <- 0 until 20000) {
+        val p = people.get(i % people.size())
+        expected.add(new Person(i.toString, p.getDob(), p.getGender(), p.getAddress()))
+      }
+      using(new PrintWriter(new FileOutputStream(file))) { out =>
+        for (i <- 0 until 20000) {
+          out.print(jsonMapper.toJson(expected.get(i)))
+          out.print(if (i % 2 == 0) "\n" else "\r\n")
+          if (i % 1000 == 0) out.print("  \n")
+        }
+      }
+      
+      using (JsonIterator.fromFile(file, classOf[Person], false)
+          .`with`[java.lang.Boolean](SerializerConfiguration.skipEmptyLines, true).locked()) { iter =>
+        iter.stream().parallel().collect(toList()) should equal (expected)
+        iter.hasNext() should be (false)
+      }
+      using (StringIterator.fromFile(file, false)
+          .`with`[Integer](SerializerConfiguration.numHeaderLines, 1)
+          .`with`[java.lang.Boolean](SerializerConfiguration.skipEmptyLines, true).locked()) { iter =>
+        val lines = iter.stream().parallel().collect(toList())
+        lines.size() should be (19999)
+        for (i <- 0 until lines.size()) lines.get(i) should equal (jsonMapper.toJson(expected.get(i + 1)))
+      }
+    } finally {
+      file.delete()
+    }
+  }
+  
+  it should "read the same lines from memory-mapped files as from buffered readers" in {
+    val file = File.createTempFile("string", "")
+    try {
+      using(new PrintWriter(new java.io.OutputStreamWriter(new FileOutputStream(file), "UTF-8"))) { out =>
+        out.print("header\r\n\n")
+        for (i <- 0 until 1000) {
+          out.print(if (i % 3 == 0) "\u0441\u0442\u0440\u043e\u043a\u0430 " + i else "line " + i + ("x" * (i % 50)))
+          out.print(Seq("\n", "\r\n", "\r")(i % 3))
+          if (i % 100 == 0) out.print("\r\n")
+        }
+        out.print("last line without a separator")
+      }
+      val expected = using (StringIterator.fromFile(file)) { _.read() }
+      using (StringIterator.fromFile(file, false)
+          .`with`[java.lang.Boolean](SerializerConfiguration.memoryMapped, true)
+          .`with`[Integer](SerializerConfiguration.numHeaderLines, 1).locked()) { iter =>
+        iter.next() should equal (expected.get(1))
+        val rest = new ArrayList[String]
+        while (iter.hasNext()) rest.add(iter.next())
+        rest should equal (expected.subList(2, expected.size()))
+      }
+      for (windowSize <- Seq(80, 1000, 4096)) {
+        using (new MappedLineReader(new java.io.FileInputStream(file).getChannel(),
+            java.nio.charset.StandardCharsets.UTF_8, windowSize)) { reader =>
+          val lines = new ArrayList[String]
+          var line = reader.readLine()
+          while (line != null) { lines.add(line); line = reader.readLine() }
+          lines should equal (expected)
+        }
+      }
+    } finally {
+      file.delete()
+    }
+  }
+  
+  it should "read sequential streams of files with its own line reader, mapped and parsed in parallel if configured" in {
+    val file = File.createTempFile("string", "")
+    try {
+      using(new PrintWriter(new FileOutputStream(file))) { out =>
+        out.println("header")
+        for (i <- 0 until 20000) out.println("line " + i)
+      }
+      val expected = using (StringIterator.fromFile(file)) { _.read() }
+      val iter = StringIterator.fromFile(file, false)
+          .`with`[java.lang.Boolean](SerializerConfiguration.memoryMapped, true)
+          .`with`[Integer](SerializerConfiguration.parseParallelism, 3)
+          .`with`[Integer](SerializerConfiguration.numHeaderLines, 1).locked().asInstanceOf[StringIterator]
+      using (iter) { iter =>
+        iter.reader shouldBe a [MappedLineReader]
+        val mapped = iter.reader
+        val threads = java.util.concurrent.ConcurrentHashMap.newKeySet[String]
+        iter.reader = new LineReader {
+          override def readLine() = { threads.add(Thread.currentThread().getName()); mapped.readLine() }
+          override def close() = mapped.close()
+        }
+        iter.stream().collect(toList()) should equal (expected.subList(1, expected.size()))
+        threads should contain only ("parse-reader")
+      }
+    } finally {
+      file.delete()
+    }
+  }
+  
+  it should "end streams of files at the first line parsed to null, as iterators do" in {
+    val file = File.createTempFile("json", "")
+    try {
+      val jsonMapper = JsonMapper.getJsonMapper
+      val people = Person.peopleDB()
+      using(new PrintWriter(new FileOutputStream(file))) { out =>
+        for (i <- 0 until 20000) out.println(if (i == 15000) "null" else jsonMapper.toJson(people.get(i % people.size())))
+      }
+      val expected = using (JsonIterator.fromFile(file, classOf[Person])) { _.read() }
+      expected.size() should be (15000)
+      using (JsonIterator.fromFile(file, classOf[Person])) { _.stream().collect(toList()) should equal (expected) }
+      using (JsonIterator.fromFile(file, classOf[Person])) { iter =>
+        val objects = iter.stream().parallel().collect(toList())
+        objects.subList(0, expected.size()) should equal (expected)
+      }
+    } finally {
+      file.delete()
+    }
+  }
+  
   private def forAllIterators[T](test: ObjectIterator[T] => Unit) {
     testIterators(javaInputFile, javaIterators) (test.asInstanceOf[ObjectIterator[Person] => Unit])
     testIterators(jsonInputFile, jsonIterators) (test.asInstanceOf[ObjectIterator[Person] => Unit])
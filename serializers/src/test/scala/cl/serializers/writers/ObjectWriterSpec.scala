@@ -90,6 +90,34 @@ class ObjectWriterSpec  extends FlatSpec with Matchers {
     }
   }
   
+  it can "tell the position of the next object when writing text" in {
+    withFile(emptyFile) { f =>
+      val people = Person.peopleDBStrings()
+      val positions = using (StringWriter.toFile(f)) { w =>
+        for (i <- 0 until people.size()) yield {
+          val position = w.position()
+          w.write(people.get(i))
+          position
+        }
+      }
+      for (i <- 0 until people.size()) {
+        val in = new java.io.FileInputStream(f)
+        in.skip(positions(i))
+        using (StringIterator.fromInputStream(in)) { iterator =>
+          iterator.read should equal (people.subList(i, people.size()))
+        }
+      }
+    }
+  }
+
+  it should "not support positions when writing Java objects" in {
+    withFile(emptyFile) { f =>
+      using (JavaWriter.toFile[Person](f)) { w =>
+        an[UnsupportedOperationException] should be thrownBy (w.position())
+      }
+    }
+  }
+
   private def forObjectWriters[T](test: ObjectWriter[T] => Unit) (verification: ObjectIterator[T] => Unit) {
     testWriters(emptyFile, javaWriters, javaIterator) (test.asInstanceOf[ObjectWriter[Person] => Unit]) (verification.asInstanceOf[ObjectIterator[Person] => Unit])
     testWriters(emptyFile, jsonWriters, jsonIterator) (test.asInstanceOf[ObjectWriter[Person] => Unit]) (verification.asInstanceOf[ObjectIterator[Person] => Unit])
@@ -0,0 +1,228 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static cl.util.file.sorter.FileSorterUtils.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.function.Consumer;
+
+import cl.core.configurable.ConfigurableObject;
+import cl.core.configurable.Key;
+import cl.serializers.SerializationType;
+
+/**
+ * Sorts many files at once on a shared pool of threads, under a common memory budget. This replaces calling
+ * {@code FileSorter.sort()} for each file in a loop, which sorts one file at a time on one thread.
+ *
+ * <p>Each file takes a share of the budget, which is estimated from the file's size, but is never larger than
+ * the budget divided by the number of threads, and the file is sorted by a file sorter limited to that share
+ * (see {@link FileSorter#memoryBudgetBytes}). So small files are sorted in memory, and large files are sorted by
+ * the 'external merge sort' algorithm. A file waits until its share of the budget is available. The largest files
+ * are started first.
+ *
+ * <p>Batch file sorter is a configurable object, which accepts the following configuration keys:
+ * <ul>
+ *   <li>{@link BatchFileSorter#parallelism}. Number of files which are sorted at once. The default value is
+ *       the number of available processors.</li>
+ *   <li>{@link BatchFileSorter#memoryBudgetBytes}. Memory in bytes, which is shared by the files being sorted.
+ *       The default value is half of the maximum heap size.</li>
+ *   <li>{@link BatchFileSorter#progressListener}. Optional listener, which is called each time a file is sorted.
+ *       The default value is empty.</li>
+ * </ul>
+ *
+ * <p>The file sorter of each file takes the other configuration keys, such as {@link FileSorter#comparator} or
+ * {@link FileSorter#removeDuplicates}, from the batch file sorter.
+ */
+public class BatchFileSorter extends ConfigurableObject<BatchFileSorter> {
+
+    /**
+     * Number of files which are sorted at once. The default value is the number of available processors.
+     */
+    public static final Key<Integer> parallelism = new Key<>(() -> Runtime.getRuntime().availableProcessors());
+
+    /**
+     * Memory in bytes, which is shared by the files being sorted. The default value is half of the maximum heap size.
+     */
+    public static final Key<Long> memoryBudgetBytes = new Key<>(() -> Runtime.getRuntime().maxMemory() / 2);
+
+    /**
+     * Optional listener, which is called each time a file is sorted. The default value is empty.
+     */
+    public static final Key<Optional<Consumer<Progress>>> progressListener = new Key<>(() -> Optional.empty());
+
+    /*
+     * Objects in memory take several times the size of their serialized form.
+     */
+    private static final int MEMORY_PER_INPUT_BYTE = 4;
+    private static final long MIN_MEMORY = 1024 * 1024;
+    private static final int PERMIT_SIZE = 1024;
+
+    private final List<Job<?>> jobs = new ArrayList<>();
+
+    /**
+     * Add a file to the batch.
+     *
+     * @param original           original file
+     * @param sorted             destination file (sorted)
+     * @param serializationType  serialization type
+     * @param klass              class of objects in the file
+     * @return this batch file sorter
+     */
+    public <T> BatchFileSorter add(File original, File sorted, SerializationType serializationType, Class<T> klass) {
+        jobs.add(new Job<>(original, sorted, serializationType, klass));
+        return this;
+    }
+
+    /**
+     * Add a text file to the batch.
+     *
+     * @param original  original file
+     * @param sorted    destination file (sorted)
+     * @return this batch file sorter
+     */
+    public BatchFileSorter add(File original, File sorted) {
+        return add(original, sorted, SerializationType.STRING, String.class);
+    }
+
+    /**
+     * Make sure the object is locked, and then sort all files. If some files fail to be sorted, the other files
+     * are still sorted, and then the first failure is re-thrown.
+     */
+    public void sort() {
+        requireLock();
+        List<Job<?>> jobs = new ArrayList<>(this.jobs);
+        Collections.sort(jobs, Comparator.comparingLong((Job<?> job) -> job.original.length()).reversed());
+        int numThreads = Math.max(1, get(parallelism));
+        long budget = Math.max(MIN_MEMORY, get(memoryBudgetBytes));
+        long maxShare = Math.max(MIN_MEMORY, budget / numThreads);
+        Semaphore memory = new Semaphore(permits(budget), true);
+        Progress progress = new Progress(jobs.size(), jobs.stream().mapToLong(job -> job.original.length()).sum());
+        Optional<Consumer<Progress>> listener = get(progressListener);
+
+        ExecutorService pool = newThreadPool(numThreads, "fs-batch-");
+        try {
+            List<Future<?>> futures = new ArrayList<>();
+            for (Job<?> job : jobs) {
+                long share = Math.min(maxShare, Math.max(MIN_MEMORY, job.original.length() * MEMORY_PER_INPUT_BYTE));
+                futures.add(pool.submit(() -> {
+                    uncheck(() -> memory.acquire(permits(share)));
+                    try {
+                        job.newFileSorter(this, share).sort();
+                    } finally {
+                        memory.release(permits(share));
+                    }
+                    Progress p = progress.fileSorted(job.original.length());
+                    listener.ifPresent(l -> l.accept(p));
+                }));
+            }
+            RuntimeException failure = null;
+            for (Future<?> future : futures) {
+                try {
+                    await(future);
+                } catch (RuntimeException e) {
+                    if (failure == null) failure = e; else failure.addSuppressed(e);
+                }
+            }
+            if (failure != null) {
+                throw failure;
+            }
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private static int permits(long bytes) {
+        return (int)Math.min(Integer.MAX_VALUE, bytes / PERMIT_SIZE);
+    }
+
+    /**
+     * Progress of a batch, which is passed to {@link BatchFileSorter#progressListener}.
+     */
+    public static final class Progress {
+        private final int numFiles;
+        private final long numBytes;
+        private int numFilesSorted;
+        private long numBytesSorted;
+
+        private Progress(int numFiles, long numBytes) {
+            this.numFiles = numFiles;
+            this.numBytes = numBytes;
+        }
+
+        private Progress(Progress other) {
+            this(other.numFiles, other.numBytes);
+            numFilesSorted = other.numFilesSorted;
+            numBytesSorted = other.numBytesSorted;
+        }
+
+        /*
+         * Count a sorted file, and return a snapshot of the progress.
+         */
+        private synchronized Progress fileSorted(long fileSize) {
+            numFilesSorted++;
+            numBytesSorted += fileSize;
+            return new Progress(this);
+        }
+
+        /** Number of files in the batch. */
+        public int getNumFiles() {
+            return numFiles;
+        }
+
+        /** Total size of the files in the batch. */
+        public long getNumBytes() {
+            return numBytes;
+        }
+
+        /** Number of files sorted so far. */
+        public int getNumFilesSorted() {
+            return numFilesSorted;
+        }
+
+        /** Total size of the files sorted so far. */
+        public long getNumBytesSorted() {
+            return numBytesSorted;
+        }
+
+        @Override
+        public String toString() {
+            return numFilesSorted + "/" + numFiles + " files, " + numBytesSorted + "/" + numBytes + " bytes";
+        }
+    }
+
+    private static final class Job<T> {
+        final File original;
+        final File sorted;
+        final SerializationType serializationType;
+        final Class<T> klass;
+
+        Job(File original, File sorted, SerializationType serializationType, Class<T> klass) {
+            this.original = original;
+            this.sorted = sorted;
+            this.serializationType = serializationType;
+            this.klass = klass;
+        }
+
+        /*
+         * Text files are sorted by the UTF-8 file sorter, which holds the file's bytes in memory.
+         */
+        FileSorter<?> newFileSorter(BatchFileSorter batch, long memoryBudget) {
+            FileSorter<?> fs = serializationType == SerializationType.STRING && klass == String.class ?
+                    new Utf8StringFileSorter(original, sorted, 0)
+                        .withConfigurationFrom(batch)
+                        .with(FileSorter.inMemorySizeThreshold, memoryBudget / MEMORY_PER_INPUT_BYTE) :
+                    FileSorter.getFileSorter(original, sorted, serializationType, klass, false)
+                        .withConfigurationFrom(batch);
+            return fs.with(FileSorter.memoryBudgetBytes, Optional.of(memoryBudget)).locked();
+        }
+    }
+
+}
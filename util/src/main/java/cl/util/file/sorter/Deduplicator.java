@@ -0,0 +1,275 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static cl.util.file.sorter.FileSorterUtils.*;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.ToLongFunction;
+
+import cl.core.configurable.ConfigurableObject;
+import cl.core.configurable.Key;
+import cl.core.util.FileUtils;
+import cl.serializers.Serializer;
+import cl.serializers.writers.ObjectWriter;
+import cl.util.file.sorter.RunFormat.RunReader;
+import cl.util.file.sorter.RunFormat.RunWriter;
+
+/**
+ * Removes duplicates from a sequence of objects without sorting it, and keeps the order of the objects.
+ * Objects are compared by their 64-bit fingerprints, which are kept in a compact hash set; the first object
+ * with a fingerprint is kept, and the later ones are removed. Two different objects with the same fingerprint are
+ * taken for duplicates, which for a good 64-bit hash function is very unlikely to happen.
+ *
+ * <p>A deduplicator is a {@code Predicate}, which is true for the first occurrence of an object, so it may be
+ * passed to {@code Serializer.filter()}, {@code Stream.filter()}, or {@link FileSorter#inputFilter}. Used this way,
+ * it keeps all fingerprints in memory. The {@code removeDuplicates()} methods hold at most
+ * {@link Deduplicator#maxFingerprints} fingerprints in memory instead. When the set is full, the objects which are
+ * not in it yet are split into {@link Deduplicator#numPartitions} temporary files by their fingerprints, each file is
+ * deduplicated on its own, and the results are merged back in the order of the input.
+ *
+ * <p>Deduplicator is a configurable object, which accepts the following configuration keys:
+ * <ul>
+ *   <li>{@link Deduplicator#maxFingerprints}. Maximum number of fingerprints held in memory by
+ *       the {@code removeDuplicates()} methods. The default value is 10,000,000.</li>
+ *   <li>{@link Deduplicator#numPartitions}. Number of temporary files. The default value is 16.</li>
+ *   <li>{@link Deduplicator#bloomFilter}. Check a bloom filter before the set of fingerprints, which makes lookups of
+ *       new objects cheaper at the cost of a byte of memory per fingerprint. The default value is {@code false}.</li>
+ *   <li>{@link Deduplicator#runCodec} and {@link Deduplicator#runCompression}. Format of temporary files,
+ *       as in {@link FileSorter}.</li>
+ * </ul>
+ */
+public class Deduplicator<T> extends ConfigurableObject<Deduplicator<T>> implements Predicate<T> {
+
+    /**
+     * Maximum number of fingerprints held in memory by the {@code removeDuplicates()} methods.
+     * The default value is 10,000,000.
+     */
+    public static final Key<Integer> maxFingerprints = new Key<>(() -> 10_000_000);
+
+    /**
+     * Number of temporary files, into which objects are split when the fingerprints don't fit in memory.
+     * The default value is 16.
+     */
+    public static final Key<Integer> numPartitions = new Key<>(() -> 16);
+
+    /**
+     * Check a bloom filter before the set of fingerprints. The default value is false.
+     */
+    public static final Key<Boolean> bloomFilter = new Key<>(() -> false);
+
+    /**
+     * Codec for the temporary files. The same key as {@link FileSorter#runCodec}.
+     */
+    public static final Key<Optional<RunCodec<?>>> runCodec = FileSorter.runCodec;
+
+    /**
+     * Compression of the temporary files. The same key as {@link FileSorter#runCompression}.
+     */
+    public static final Key<RunCompression> runCompression = FileSorter.runCompression;
+
+    private final ToLongFunction<? super T> fingerprint;
+    private FingerprintSet seen;
+
+    /**
+     * Create a deduplicator.
+     *
+     * @param fingerprint  function, which returns a 64-bit fingerprint of an object
+     */
+    public Deduplicator(ToLongFunction<? super T> fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /**
+     * Create a deduplicator of strings. The configuration is not locked.
+     */
+    public static Deduplicator<String> strings() {
+        return new Deduplicator<>(Deduplicator::fingerprint);
+    }
+
+    /**
+     * Return a 64-bit fingerprint of a string. This is the FNV-1a hash of the string's characters, followed by
+     * a mixing step, which spreads the bits of short strings.
+     */
+    public static long fingerprint(String s) {
+        long h = 0xCBF29CE484222325L;
+        for (int i = 0; i < s.length(); i++) {
+            h = (h ^ s.charAt(i)) * 0x100000001B3L;
+        }
+        return mix(h);
+    }
+
+    /**
+     * Return true, if no object with the same fingerprint has been tested by this deduplicator before.
+     */
+    @Override
+    public boolean test(T t) {
+        requireLock();
+        if (seen == null) {
+            seen = new FingerprintSet(get(maxFingerprints), get(bloomFilter));
+        }
+        return seen.add(fingerprint.applyAsLong(t));
+    }
+
+    /**
+     * Copy the serializer's input to its output without duplicates, and close the serializer.
+     */
+    public void removeDuplicates(Serializer<T,T> serializer) {
+        uncheck(() -> {
+            try (Serializer<T,T> s = serializer) {
+                removeDuplicates(s.getIterator(), s.getWriter());
+            }
+        });
+    }
+
+    /**
+     * Write objects without duplicates to the writer, which is left open.
+     */
+    public void removeDuplicates(Iterator<T> iterator, ObjectWriter<T> writer) {
+        requireLock();
+        if (!iterator.hasNext()) {
+            return;
+        }
+        Deque<T> first = new ArrayDeque<>(Collections.singleton(iterator.next()));
+        RunFormat<Numbered<T>> runFormat = RunFormat.binary(
+                new NumberedCodec<>(RunFormat.codec(get(runCodec), first.peek())), get(runCompression));
+        Iterator<T> objects = concat(first, iterator);
+        Iterator<Numbered<T>> numbered = new Iterator<Numbered<T>>() {
+            private long number;
+
+            @Override
+            public boolean hasNext() {
+                return objects.hasNext();
+            }
+
+            @Override
+            public Numbered<T> next() {
+                return new Numbered<>(objects.next(), number++);
+            }
+        };
+        uncheck(() -> {
+            Path inprocessDir = Files.createTempDirectory("dd_");
+            try {
+                removeDuplicates(numbered, 0, runFormat, inprocessDir, n -> writer.write(n.object));
+            } finally {
+                inprocessDir.toFile().delete();
+            }
+        });
+    }
+
+    /*
+     * Pass objects through while the set of fingerprints has room. After that, drop the objects which are in
+     * the set, and spill the rest to partitions. Each partition is deduplicated the same way at the next level,
+     * and the partitions' results are merged by the objects' numbers, which restores the input order.
+     */
+    private void removeDuplicates(Iterator<Numbered<T>> objects, int level, RunFormat<Numbered<T>> runFormat,
+            Path inprocessDir, Consumer<Numbered<T>> out) throws IOException {
+        int max = Math.max(1, get(maxFingerprints));
+        int numPartitions = Math.max(2, get(Deduplicator.numPartitions));
+        FingerprintSet set = new FingerprintSet(max, get(bloomFilter));
+        File[] files = new File[numPartitions];
+        @SuppressWarnings("unchecked")
+        RunWriter<Numbered<T>>[] partitions = (RunWriter<Numbered<T>>[])new RunWriter<?>[numPartitions];
+        List<File> deduplicated = new ArrayList<>();
+        try {
+            boolean spilling = false;
+            try {
+                while (objects.hasNext()) {
+                    Numbered<T> next = objects.next();
+                    long fp = fingerprint.applyAsLong(next.object);
+                    if (!spilling) {
+                        if (set.add(fp)) {
+                            out.accept(next);
+                            spilling = set.size() >= max;
+                        }
+                    } else if (!set.contains(fp)) {
+                        int p = partition(fp, level, numPartitions);
+                        if (partitions[p] == null) {
+                            files[p] = Files.createTempFile(inprocessDir, "dd_", "_" + level + "_" + p).toFile();
+                            partitions[p] = runFormat.newWriter(files[p]);
+                        }
+                        partitions[p].write(next);
+                    }
+                }
+            } finally {
+                FileUtils.close(partitions);
+            }
+            set = null;
+
+            List<RunReader<Numbered<T>>> readers = new ArrayList<>();
+            try {
+                for (int p = 0; p < numPartitions; p++) {
+                    if (files[p] == null) continue;
+                    File result = Files.createTempFile(inprocessDir, "dd_", "_" + level + "_" + p + "_result").toFile();
+                    deduplicated.add(result);
+                    try (RunReader<Numbered<T>> reader = runFormat.newReader(files[p]);
+                         RunWriter<Numbered<T>> writer = runFormat.newWriter(result)) {
+                        removeDuplicates(reader, level + 1, runFormat, inprocessDir, writer::write);
+                    }
+                    files[p].delete();
+                    readers.add(runFormat.newReader(result));
+                }
+                Comparator<Numbered<T>> byNumber = Comparator.comparingLong(n -> n.number);
+                new RunMerger<>(readers, byNumber).forEachRemaining(out);
+            } finally {
+                FileUtils.close(readers.toArray(new RunReader<?>[readers.size()]));
+            }
+        } finally {
+            for (File file : files) {
+                if (file != null) file.delete();
+            }
+            deduplicated.forEach(File::delete);
+        }
+    }
+
+    /*
+     * An object with its number in the input.
+     */
+    private static final class Numbered<T> {
+        final T object;
+        final long number;
+
+        Numbered(T object, long number) {
+            this.object = object;
+            this.number = number;
+        }
+    }
+
+    /*
+     * Writes the number before the object.
+     */
+    private static final class NumberedCodec<T> implements RunCodec<Numbered<T>> {
+        private final RunCodec<T> codec;
+
+        NumberedCodec(RunCodec<T> codec) {
+            this.codec = codec;
+        }
+
+        @Override
+        public void encode(Numbered<T> n, DataOutputStream out) throws IOException {
+            out.writeLong(n.number);
+            codec.encode(n.object, out);
+        }
+
+        @Override
+        public Numbered<T> decode(DataInputStream in) throws IOException {
+            long number = in.readLong();
+            return new Numbered<>(codec.decode(in), number);
+        }
+    }
+
+}
@@ -1,5 +1,14 @@
 package cl.util.file.sorter;
 
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static cl.util.file.sorter.FileSorterUtils.concat;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+
 import cl.serializers.Serializer;
 import cl.serializers.iterators.ObjectIterator;
 import cl.serializers.writers.ObjectWriter;
@@ -8,30 +17,93 @@ import cl.serializers.writers.ObjectWriter;
  * The default implementation of the {@link FileSorter} interface.
  * <p>This class make use of {@code FileSorter.inMemorySizeThreshold} configuration value
  * in order to switch between in-memory sorting for smaller files and external merge sorting
- * for large files. 
+ * for large files.
+ * <p>When {@code FileSorter.checkSorted} is set, and the input file is known, the file is checked first, and
+ * if it is sorted, it is copied by {@link PresortedFileSorter}.
+ * <p>When {@code FileSorter.limit} is set, the work is delegated to {@link TopKFileSorter}.
+ * <p>When {@code FileSorter.memoryBudgetBytes} is set, the decision is made by the estimated size of
+ * the objects instead. The input is read until the objects don't fit into the budget; if the whole
+ * input fits, it is sorted in memory, otherwise the objects read so far, followed by the rest of the input,
+ * are passed to the external merge sorter.
+ * <p>When {@code FileSorter.sampleSort} is set, {@link SampleSortFileSorter} is used instead of the
+ * external merge sorter, unless {@code FileSorter.checkpointDir} is set.
  */
 final class DefaultFileSorter<T> extends FileSorterSupport<T> {
-    
+
     private final long inputSize;
-    
+    private final File original;
+
     public DefaultFileSorter(Serializer<T,T> serializer, long inputSize) {
         super(serializer);
         this.inputSize = inputSize;
+        this.original = null;
+    }
+
+    /**
+     * Create a file sorter, which knows its input file, and can check if it is sorted already.
+     */
+    DefaultFileSorter(Serializer<T,T> serializer, File original) {
+        super(serializer);
+        this.inputSize = original.length();
+        this.original = original;
     }
 
     @Override
     public void sort() {
         requireLock();
-        if (inputSize <= get(FileSorter.inMemorySizeThreshold)) {
+        if (isPresorted()) {
+            new PresortedFileSorter<>(getSerializer()).withConfigurationFrom(this).locked().sort();
+        } else if (get(FileSorter.limit).isPresent()) {
+            new TopKFileSorter<>(getSerializer()).withConfigurationFrom(this).locked().sort();
+        } else if (get(FileSorter.memoryBudgetBytes).isPresent()) {
+            super.sort();
+        } else if (inputSize <= get(FileSorter.inMemorySizeThreshold)) {
             new InMemoryFileSorter<>(getSerializer()).withConfigurationFrom(this).locked().sort();
         } else {
-            new ExternalMergeFileSorter<>(getSerializer()).withConfigurationFrom(this).locked().sort();
+            newLargeFileSorter().withConfigurationFrom(this).locked().sort();
         }
     }
 
+    /**
+     * Sort within the memory budget.
+     */
     @Override
-    protected void sort(ObjectIterator<T> iterator, ObjectWriter<T> writer) {
-        throw new UnsupportedOperationException("default file sorter does not sort by itself, it delegates");
+    protected void sort(Iterator<T> iterator, ObjectWriter<T> writer) throws IOException {
+        long memoryBudget = get(FileSorter.memoryBudgetBytes).get();
+        ObjectSizer<T> sizer = getObjectSizer();
+        Deque<T> buffer = new ArrayDeque<>();
+        long size = 0;
+        while (iterator.hasNext() && size <= memoryBudget) {
+            T next = iterator.next();
+            size += sizeInList(sizer, next);
+            buffer.add(next);
+        }
+
+        FileSorterSupport<T> sorter = size <= memoryBudget ?
+                new InMemoryFileSorter<>(getSerializer()) :
+                newLargeFileSorter();
+        sorter.withConfigurationFrom(this).locked();
+        sorter.sort(concat(buffer, iterator), writer);
+    }
+
+    /*
+     * The input file is read once more by a copy of the serializer's iterator.
+     */
+    private boolean isPresorted() {
+        if (original == null || !get(FileSorter.checkSorted)) {
+            return false;
+        }
+        return uncheck(() -> {
+            try (ObjectIterator<T> objects = getSerializer().getIterator().clone(original)) {
+                return SortedFiles.isSorted(objects, getComparator());
+            }
+        });
     }
-    
+
+    private FileSorterSupport<T> newLargeFileSorter() {
+        return get(FileSorter.sampleSort) && !get(FileSorter.checkpointDir).isPresent() ?
+                new SampleSortFileSorter<>(getSerializer(), original) :
+                new ExternalMergeFileSorter<>(getSerializer(), original);
+    }
+
 }
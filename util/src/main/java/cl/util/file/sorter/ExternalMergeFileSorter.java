@@ -1,136 +1,583 @@
 package cl.util.file.sorter;
 
 import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static cl.util.file.sorter.FileSorterUtils.*;
 
+import java.io.Closeable;
 import java.io.File;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Objects;
-import java.util.stream.Stream;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
 
 import cl.core.ds.Counter;
 import cl.core.util.FileUtils;
 import cl.serializers.Serializer;
-import cl.serializers.iterators.ObjectIterator;
 import cl.serializers.writers.ObjectWriter;
+import cl.util.file.sorter.RunFormat.RunReader;
+import cl.util.file.sorter.RunFormat.RunWriter;
 
 /**
  * Implementation of the {@link FileSorter} interface which sorts data by splitting it into
  * multiple intermediary files of manageable size, sorting them one at a time in memory, and them
  * merging sorted files into one result file.
+ * 
+ * <p>When {@link FileSorter#parallelism} is larger than one, the intermediary files are sorted and written
+ * by a pool of threads, while the calling thread keeps reading the input.
+ * 
+ * <p>The sorted files are merged with a tournament tree (see {@code RunMerger}), so the cost of the merge
+ * grows with the logarithm of the number of files, not linearly. At most {@link FileSorter#maxMergeFanIn} files
+ * are merged at once; when there are more files, they are merged in several passes. With
+ * {@link FileSorter#readAheadObjects} set, the files are read and decoded in blocks by background threads during the merge.
+ * 
+ * <p>When {@link FileSorter#memoryBudgetBytes} is set, the intermediary files are cut by the estimated size
+ * of their objects instead of by {@link FileSorter#numObjectsPerFile}.
+ * 
+ * <p>The intermediary files are written in the format defined by {@link FileSorter#runCodec} and
+ * {@link FileSorter#runCompression}; the serializer is then used to read the input and to write the result only.
+ * 
+ * <p>When {@link FileSorter#detectRuns} is set, chunks which are sorted already, and follow each other in order,
+ * are appended to one intermediary file without sorting, so sorted or nearly sorted input makes few long files.
+ * 
+ * <p>When {@link FileSorter#spillDirectories} are set, the intermediary files are spread over them round-robin, and
+ * during the merge they are read ahead by at least as many threads as there are directories.
+ * 
+ * <p>When {@link FileSorter#checkpointDir} is set, the intermediary files are kept in that directory together with
+ * a manifest of the sort's progress. A sort which was interrupted, and is started again with the same input and
+ * configuration, skips the input objects which are already in the intermediary files, and the merge passes
+ * which are complete. The manifest records the input file, if the sorter knows it, and the comparator; progress of
+ * a different or changed input, or of another comparator, is discarded, and the sort starts from the beginning.
  */
 public class ExternalMergeFileSorter<T> extends FileSorterSupport<T> {
     
+    private static final int DEFAULT_READ_AHEAD_OBJECTS = 1024;
+    
+    private final File original;
+    
     public ExternalMergeFileSorter(Serializer<T,T> serializer) {
+        this(serializer, null);
+    }
+    
+    /**
+     * Create a file sorter, which knows its input file, so that a checkpoint of another input file, or of
+     * a version of the file which has changed since, is not resumed.
+     */
+    public ExternalMergeFileSorter(Serializer<T,T> serializer, File original) {
         super(serializer);
+        this.original = original;
     }
 
     @Override
-    protected void sort(ObjectIterator<T> iterator, ObjectWriter<T> writer) throws IOException {
-        List<File> inprocessFiles = null;
+    protected void sort(Iterator<T> iterator, ObjectWriter<T> writer) throws IOException {
+        if (!iterator.hasNext()) {
+            return;
+        }
+        Deque<T> first = new ArrayDeque<>(Collections.singleton(iterator.next()));
+        RunFormat<T> runFormat = getRunFormat(first.peek());
+        Optional<File> checkpointDir = get(FileSorter.checkpointDir);
+        if (checkpointDir.isPresent()) {
+            sort(concat(first, iterator), runFormat, SortCheckpoint.open(checkpointDir.get(), original, get(FileSorter.comparator)), writer::write);
+        } else {
+            sort(concat(first, iterator), runFormat, writer::write);
+        }
+    }
+    
+    /**
+     * Sort objects and pass them to the consumer in the sorted order, using temporary files of the given format.
+     */
+    void sort(Iterator<T> iterator, RunFormat<T> runFormat, Consumer<T> out) throws IOException {
+        List<Path> inprocessDirs = getInprocessDirs();
+        List<File> inprocessFiles = new ArrayList<>();
+        SortMetrics metrics = getMetrics();
         try {
-            inprocessFiles = splitIntoSortedFiles(iterator);
-            if (!inprocessFiles.isEmpty()) {
-                mergeFiles(inprocessFiles, writer);
+            long started = metrics.phaseStarted();
+            splitIntoSortedFiles(iterator, runFormat, inprocessDirs, inprocessFiles, null);
+            metrics.phaseFinished(SortMetrics.Phase.SPLIT, started);
+            started = metrics.phaseStarted();
+            mergeFiles(inprocessFiles, runFormat, inprocessDirs, out, null);
+            metrics.phaseFinished(SortMetrics.Phase.MERGE, started);
+        } finally {
+            inprocessFiles.forEach(File::delete);
+            inprocessDirs.forEach(dir -> dir.toFile().delete());
+        }
+    }
+    
+    /*
+     * Sort with the temporary files kept in the checkpoint's directory. The objects which are already in
+     * the checkpoint's files are skipped, and the phases which are complete are not repeated. The files are
+     * left in place when the sort fails, and deleted when it succeeds.
+     */
+    private void sort(Iterator<T> iterator, RunFormat<T> runFormat, SortCheckpoint checkpoint, Consumer<T> out)
+            throws IOException {
+        List<Path> inprocessDirs = Collections.singletonList(checkpoint.getDir());
+        List<File> inprocessFiles = checkpoint.getRuns();
+        SortMetrics metrics = getMetrics();
+        if (!checkpoint.isSplitDone()) {
+            long started = metrics.phaseStarted();
+            for (long i = checkpoint.getConsumed(); i > 0 && iterator.hasNext(); i--) {
+                iterator.next();
             }
+            splitIntoSortedFiles(iterator, runFormat, inprocessDirs, inprocessFiles, checkpoint);
+            checkpoint.splitDone();
+            metrics.phaseFinished(SortMetrics.Phase.SPLIT, started);
+        }
+        long started = metrics.phaseStarted();
+        mergeFiles(inprocessFiles, runFormat, inprocessDirs, out, checkpoint);
+        metrics.phaseFinished(SortMetrics.Phase.MERGE, started);
+        checkpoint.delete();
+    }
+    
+    private void splitIntoSortedFiles(Iterator<T> iterator, RunFormat<T> runFormat, List<Path> inprocessDirs,
+            List<File> inprocessFiles, SortCheckpoint checkpoint) {
+        int parallelism = get(FileSorter.parallelism);
+        if (parallelism > 1) {
+            splitIntoSortedFilesInParallel(iterator, runFormat, inprocessDirs, inprocessFiles, checkpoint, parallelism);
+        } else {
+            Counter c = new Counter(inprocessFiles.size());
+            BiConsumer<File, Integer> written = (file, numObjects) -> {
+                inprocessFiles.add(file);
+                if (checkpoint != null) checkpoint.runWritten(file, numObjects);
+            };
+            NaturalRun naturalRun = get(FileSorter.detectRuns) ? new NaturalRun(runFormat, inprocessDirs, c, written) : null;
+            try {
+                forEachChunk(iterator, 1, batch -> {
+                    if (naturalRun != null && naturalRun.append(batch)) {
+                        return;
+                    }
+                    uncheck(() -> written.accept(
+                            writeNextInprocessFile(batch, runFormat, inprocessDirs, c.getAndIncrement()), batch.size()));
+                });
+                if (naturalRun != null) naturalRun.close();
+            } finally {
+                if (naturalRun != null) naturalRun.abort();
+            }
+        }
+    }
+    
+    /*
+     * The calling thread reads batches and hands them over to a thread pool, which sorts and writes them.
+     * The semaphore makes the reader wait whenever all threads are busy, so at most 'parallelism' batches
+     * are being sorted, plus one batch being read. Temporary files are collected in the order of batches,
+     * so the merge phase sees exactly the same files as it would with sequential splitting. With a checkpoint,
+     * a file is recorded once it and all the files before it are written.
+     */
+    private void splitIntoSortedFilesInParallel(Iterator<T> iterator, RunFormat<T> runFormat, List<Path> inprocessDirs,
+            List<File> inprocessFiles, SortCheckpoint checkpoint, int parallelism) {
+        ExecutorService pool = newThreadPool(parallelism, "fs-split-");
+        Semaphore permits = new Semaphore(parallelism);
+        List<Future<File>> futures = new ArrayList<>();
+        List<Integer> batchSizes = new ArrayList<>();
+        Counter done = new Counter();
+        Counter c = new Counter(inprocessFiles.size());
+        // a natural run is written by the calling thread, and takes its place among the tasks when it is closed
+        NaturalRun naturalRun = get(FileSorter.detectRuns) ? new NaturalRun(runFormat, inprocessDirs, c, (file, numObjects) -> {
+            futures.add(CompletableFuture.completedFuture(file));
+            batchSizes.add(numObjects);
+        }) : null;
+        try {
+            forEachChunk(iterator, parallelism + 1, batch -> {
+                if (naturalRun != null && naturalRun.append(batch)) {
+                    collectFiles(futures, batchSizes, done, inprocessFiles, checkpoint, false);
+                    return;
+                }
+                uncheck(() -> permits.acquire());
+                int fileNum = c.getAndIncrement();
+                batchSizes.add(batch.size());
+                futures.add(pool.submit(() -> {
+                    try {
+                        return writeNextInprocessFile(batch, runFormat, inprocessDirs, fileNum);
+                    } finally {
+                        permits.release();
+                    }
+                }));
+                collectFiles(futures, batchSizes, done, inprocessFiles, checkpoint, false);
+            });
+            if (naturalRun != null) naturalRun.close();
+            collectFiles(futures, batchSizes, done, inprocessFiles, checkpoint, true);
         } finally {
-            if (inprocessFiles != null) {
-                inprocessFiles.forEach(File::delete);
+            if (naturalRun != null) naturalRun.abort();
+            pool.shutdown();
+            uncheck(() -> pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS));
+            // on failure, make sure the files written by the other tasks get deleted, too
+            for (int i = done.get(); i < futures.size(); i++) {
+                Future<File> future = futures.get(i);
+                File file = safely(() -> future.get());
+                if (file != null) inprocessFiles.add(file);
             }
         }
     }
     
-    private List<File> splitIntoSortedFiles(ObjectIterator<T> iterator) {
-        Path inprocessDir = getInprocessDir();
-        int numObjectsPerFile = get(FileSorter.numObjectsPerFile);
-        List<File> inprocessFiles = new ArrayList<>(); 
-        Counter c = new Counter();
-        iterator.forEachBatch(numObjectsPerFile, batch -> {
-            uncheck(() ->
-                inprocessFiles.add(writeNextInprocessFile(batch, inprocessDir, c.getAndIncrement()))
-            );
-        });
-        return inprocessFiles;
+    /*
+     * Collect the files of the tasks which are done, in the order of the tasks, stopping at the first task which
+     * is still running, unless told to wait.
+     */
+    private static void collectFiles(List<Future<File>> futures, List<Integer> batchSizes, Counter done,
+            List<File> inprocessFiles, SortCheckpoint checkpoint, boolean wait) {
+        while (done.get() < futures.size() && (wait || futures.get(done.get()).isDone())) {
+            File file = await(futures.get(done.get()));
+            inprocessFiles.add(file);
+            if (checkpoint != null) checkpoint.runWritten(file, batchSizes.get(done.get()));
+            done.increment();
+        }
+    }
+    
+    /*
+     * Chunks which are sorted as they are read, and continue each other, are appended to one temporary file
+     * without sorting. A chunk which is not sorted, or starts below the end of the open run, closes the run;
+     * a sorted chunk then starts a new one, and an unsorted chunk is left to the caller. Equal objects are
+     * appended in the input order, so the sort stays stable.
+     */
+    private final class NaturalRun {
+        private final RunFormat<T> runFormat;
+        private final List<Path> inprocessDirs;
+        private final Counter fileNums;
+        private final BiConsumer<File, Integer> written;
+        private final Comparator<T> comparator = getComparator();
+        private File file;
+        private RunWriter<T> writer;
+        private T last;
+        private int numObjects;
+        
+        NaturalRun(RunFormat<T> runFormat, List<Path> inprocessDirs, Counter fileNums,
+                BiConsumer<File, Integer> written) {
+            this.runFormat = runFormat;
+            this.inprocessDirs = inprocessDirs;
+            this.fileNums = fileNums;
+            this.written = written;
+        }
+        
+        /*
+         * Return true if the chunk is taken by a natural run.
+         */
+        boolean append(List<T> chunk) {
+            if (!isSorted(chunk)) {
+                close();
+                return false;
+            }
+            if (writer != null && comparator.compare(last, chunk.get(0)) > 0) {
+                close();
+            }
+            uncheck(() -> {
+                if (writer == null) {
+                    file = getNextInprocessFile(inprocessDirs, fileNums.getAndIncrement()).toFile();
+                    writer = runFormat.newWriter(file);
+                }
+                writer.write(chunk);
+            });
+            last = chunk.get(chunk.size() - 1);
+            numObjects += chunk.size();
+            return true;
+        }
+        
+        void close() {
+            if (writer != null) {
+                FileUtils.close(writer);
+                writer = null;
+                last = null;
+                getMetrics().runWritten(file);
+                written.accept(file, numObjects);
+                numObjects = 0;
+            }
+        }
+        
+        /*
+         * Close and delete an unfinished run after a failure.
+         */
+        void abort() {
+            if (writer != null) {
+                FileUtils.close(writer);
+                writer = null;
+                file.delete();
+            }
+        }
+        
+        private boolean isSorted(List<T> chunk) {
+            for (int i = 1; i < chunk.size(); i++) {
+                if (comparator.compare(chunk.get(i - 1), chunk.get(i)) > 0) return false;
+            }
+            return !chunk.isEmpty();
+        }
     }
     
-    private File writeNextInprocessFile(List<T> objects, Path inprocessDir, int fileNum) throws IOException {
+    /**
+     * Sort the objects, and write them to the next temporary file.
+     */
+    File writeNextInprocessFile(List<T> objects, RunFormat<T> runFormat, List<Path> inprocessDirs, int fileNum)
+            throws IOException {
         Collections.sort(objects, getComparator());
-        File file = getNextInprocessFile(inprocessDir, fileNum).toFile();
-        try (ObjectWriter<T> writer = getSerializer().getWriter().clone(file)) {
+        File file = getNextInprocessFile(inprocessDirs, fileNum).toFile();
+        try (RunWriter<T> writer = runFormat.newWriter(file)) {
             writer.write(objects);
         }
+        getMetrics().runWritten(file);
         return file;
     }
     
-    private static Path getInprocessDir() {
-        return uncheck(() -> Files.createTempDirectory("fs_"));
+    /**
+     * Create a temporary directory in each of the spill directories, or in the default temporary directory
+     * if there are none.
+     */
+    List<Path> getInprocessDirs() {
+        List<File> spillDirectories = get(FileSorter.spillDirectories);
+        List<Path> inprocessDirs = new ArrayList<>();
+        try {
+            if (spillDirectories.isEmpty()) {
+                inprocessDirs.add(uncheck(() -> Files.createTempDirectory("fs_")));
+            }
+            for (File dir : spillDirectories) {
+                inprocessDirs.add(uncheck(() -> Files.createTempDirectory(dir.toPath(), "fs_")));
+            }
+            return inprocessDirs;
+        } catch (RuntimeException e) {
+            inprocessDirs.forEach(dir -> dir.toFile().delete());
+            throw e;
+        }
     }
     
-    private static Path getNextInprocessFile(Path inprocessDir, int fileNum) throws IOException {
-        return Files.createTempFile(inprocessDir, "fs_", "_" + fileNum);
+    /*
+     * Files are placed in the directories round-robin, so that consecutive files, which are written at the same
+     * time by parallel threads and are merged together, are on different devices.
+     */
+    private static Path getNextInprocessFile(List<Path> inprocessDirs, int fileNum) throws IOException {
+        Path inprocessDir = inprocessDirs.get(fileNum % inprocessDirs.size());
+        return Files.createTempFile(inprocessDir, SortCheckpoint.RUN_PREFIX, "_" + fileNum);
     }
     
-    private void mergeFiles(List<File> inprocessFiles, ObjectWriter<T> writer) {
-        @SuppressWarnings("unchecked")
-        T[] objects = (T[])new Object[inprocessFiles.size()];
-        
-        @SuppressWarnings("unchecked")
-        ObjectIterator<T>[] iterators = inprocessFiles.stream()
-                .map(f -> getSerializer().getIterator().clone(f)).toArray(ObjectIterator[]::new);
-        
-        Comparator<T> comparator = getComparator();
-        boolean removeDuplicates = get(FileSorter.removeDuplicates);
-        
-        T prev = null;
-        
+    /*
+     * When there are more files than the maximum merge fan-in, merge groups of adjacent files into
+     * intermediate files until the number of files drops to the maximum fan-in, and then merge the rest into the
+     * destination. Only adjacent files are merged together, so that equal objects keep their order.
+     * 
+     * The first intermediate merge takes just enough files to make every later merge a full one, and each merge
+     * picks the group of adjacent files with the smallest total size. This is the Huffman-like optimal merge
+     * pattern, restricted to adjacent files, and it keeps the number of bytes which are read more than once low.
+     */
+    private void mergeFiles(List<File> inprocessFiles, RunFormat<T> runFormat, List<Path> inprocessDirs, Consumer<T> out,
+            SortCheckpoint checkpoint) throws IOException {
+        ExecutorService readAheadPool = newReadAheadPool(inprocessDirs);
         try {
-            while (Stream.of(iterators).anyMatch(Objects::nonNull)) {
-                uncheck(() -> {
-                    for (int i = 0; i < iterators.length; i++) {
-                        ObjectIterator<T> iter = iterators[i];
-                        if (iter != null && objects[i] == null) {
-                            if (iter.hasNext()) {
-                                objects[i] = iter.next();
-                            } else {
-                                iterators[i].close();
-                                iterators[i] = null;
-                            }
-                        }
-                    }
-                });
+            reduceFiles(inprocessFiles, runFormat, inprocessDirs, readAheadPool, checkpoint);
+            try (SortedIterator<T> merged = openMerge(inprocessFiles, runFormat, inprocessDirs, readAheadPool)) {
+                merged.forEachRemaining(out);
+            }
+        } finally {
+            if (readAheadPool != null) {
+                readAheadPool.shutdown();
+            }
+        }
+    }
     
-                T min = null;
-                int minIndex = -1;
-                for(int i = 0; i < objects.length; i++) {
-                    T obj = objects[i];
-                    if(obj != null) {
-                        if(min == null || comparator.compare(obj, min) < 0) {
-                            min = obj;
-                            minIndex = i;
-                        }
-                    }
+    /*
+     * Merge groups of files into intermediate files, until there are at most the maximum merge fan-in files left.
+     */
+    private void reduceFiles(List<File> inprocessFiles, RunFormat<T> runFormat, List<Path> inprocessDirs,
+            ExecutorService readAheadPool, SortCheckpoint checkpoint) throws IOException {
+        int maxFanIn = Math.max(2, get(FileSorter.maxMergeFanIn));
+        int numFiles = inprocessFiles.size();
+        int numToMerge = numFiles > maxFanIn ? (numFiles - 2) % (maxFanIn - 1) + 2 : 0;
+        Counter c = new Counter(numFiles);
+        while (inprocessFiles.size() > maxFanIn) {
+            int from = smallestGroup(inprocessFiles, numToMerge);
+            List<File> group = new ArrayList<>(inprocessFiles.subList(from, from + numToMerge));
+            File merged = getNextInprocessFile(inprocessDirs, c.getAndIncrement()).toFile();
+            inprocessFiles.add(from, merged);
+            try (RunWriter<T> intermediateWriter = runFormat.newWriter(merged);
+                 SortedIterator<T> objects = openMerge(group, runFormat, inprocessDirs, readAheadPool)) {
+                objects.forEachRemaining(intermediateWriter::write);
+            }
+            getMetrics().intermediateFileWritten(merged);
+            inprocessFiles.subList(from + 1, from + 1 + numToMerge).clear();
+            if (checkpoint != null) checkpoint.merged(inprocessFiles);
+            group.forEach(File::delete);
+            numToMerge = maxFanIn;
+        }
+    }
+    
+    /**
+     * Merge sorted files lazily. The files are merged into at most {@link FileSorter#maxMergeFanIn} files first,
+     * and the returned iterator merges the rest as it is read. Closing the iterator deletes the files
+     * and the directories.
+     */
+    SortedIterator<T> mergeLazily(List<File> inprocessFiles, RunFormat<T> runFormat, List<Path> inprocessDirs) {
+        ExecutorService readAheadPool = newReadAheadPool(inprocessDirs);
+        Runnable cleanUp = () -> {
+            if (readAheadPool != null) {
+                readAheadPool.shutdown();
+            }
+            inprocessFiles.forEach(File::delete);
+            inprocessDirs.forEach(dir -> dir.toFile().delete());
+        };
+        try {
+            reduceFiles(inprocessFiles, runFormat, inprocessDirs, readAheadPool, null);
+            SortedIterator<T> merged = openMerge(inprocessFiles, runFormat, inprocessDirs, readAheadPool);
+            return new SortedIterator<T>() {
+                @Override
+                public boolean hasNext() {
+                    return merged.hasNext();
+                }
+
+                @Override
+                public T next() {
+                    return merged.next();
                 }
-                
-                if(min != null) {
-                    objects[minIndex] = null;
-                    if(removeDuplicates) {
-                        if(prev == null || comparator.compare(min, prev) != 0) {
-                            prev = min;
-                            writer.write(min);
-                        }
-                    } else {
-                        writer.write(min);
+
+                @Override
+                public void close() {
+                    try {
+                        merged.close();
+                    } finally {
+                        cleanUp.run();
                     }
                 }
+            };
+        } catch (IOException e) {
+            cleanUp.run();
+            throw new UncheckedIOException(e);
+        } catch (RuntimeException | Error e) {
+            cleanUp.run();
+            throw e;
+        }
+    }
+    
+    /**
+     * Sort objects, and return an iterator, which merges the sorted temporary files as it is read. Closing
+     * the iterator deletes the files. If all objects fit into one chunk, they are sorted in memory.
+     */
+    SortedIterator<T> sortLazily(Iterator<T> input) {
+        Iterator<T> iterator = getMetrics().countReads(input);
+        List<T> chunk = nextChunk(iterator, numChunksInMemory(), getObjectSizer());
+        if (!iterator.hasNext()) {
+            sortInMemory(chunk);
+            return SortedIterator.of(chunk);
+        }
+        RunFormat<T> runFormat = getRunFormat(chunk.get(0));
+        List<Path> inprocessDirs = getInprocessDirs();
+        List<File> inprocessFiles = new ArrayList<>();
+        try {
+            long started = getMetrics().phaseStarted();
+            splitIntoSortedFiles(concat(new ArrayDeque<>(chunk), iterator), runFormat, inprocessDirs, inprocessFiles, null);
+            getMetrics().phaseFinished(SortMetrics.Phase.SPLIT, started);
+        } catch (RuntimeException | Error e) {
+            inprocessFiles.forEach(File::delete);
+            inprocessDirs.forEach(dir -> dir.toFile().delete());
+            throw e;
+        }
+        return mergeLazily(inprocessFiles, runFormat, inprocessDirs);
+    }
+    
+    private int numChunksInMemory() {
+        int parallelism = get(FileSorter.parallelism);
+        return parallelism > 1 ? parallelism + 1 : 1;
+    }
+    
+    private ExecutorService newReadAheadPool(List<Path> inprocessDirs) {
+        return getReadAheadObjects(inprocessDirs) > 0 ?
+                newThreadPool(Math.max(inprocessDirs.size(), get(FileSorter.parallelism)), "fs-read-") : null;
+    }
+    
+    /*
+     * With several spill directories, files are read ahead even if it's not configured, so that the files on
+     * different devices are read at the same time.
+     */
+    private int getReadAheadObjects(List<Path> inprocessDirs) {
+        int readAheadObjects = get(FileSorter.readAheadObjects);
+        return readAheadObjects == 0 && inprocessDirs.size() > 1 ? DEFAULT_READ_AHEAD_OBJECTS : readAheadObjects;
+    }
+    
+    /*
+     * Find a group of adjacent files with the smallest total size, and return the index of its first file.
+     */
+    private static int smallestGroup(List<File> files, int groupSize) {
+        long[] sizes = files.stream().mapToLong(File::length).toArray();
+        long size = 0;
+        for (int i = 0; i < groupSize; i++) {
+            size += sizes[i];
+        }
+        long minSize = size;
+        int minFrom = 0;
+        for (int i = groupSize; i < sizes.length; i++) {
+            size += sizes[i] - sizes[i - groupSize];
+            if (size < minSize) {
+                minSize = size;
+                minFrom = i - groupSize + 1;
             }
-        } finally {
-            FileUtils.close(iterators);
         }
+        return minFrom;
+    }
+    
+    /*
+     * Open the files, and return an iterator, which merges them, and removes duplicates if required. Closing
+     * the iterator closes the files, and counts the merged objects. With a read-ahead pool, the files are read in
+     * blocks on the pool's threads.
+     */
+    private SortedIterator<T> openMerge(List<File> inprocessFiles, RunFormat<T> runFormat, List<Path> inprocessDirs,
+            ExecutorService readAheadPool) throws IOException {
+        int readAheadObjects = getReadAheadObjects(inprocessDirs);
+        List<RunReader<T>> iterators = new ArrayList<>(inprocessFiles.size());
+        Runnable close = () -> FileUtils.close(iterators.toArray(new Closeable[iterators.size()]));
+        try {
+            for (File file : inprocessFiles) {
+                RunReader<T> reader = runFormat.newReader(file);
+                iterators.add(readAheadPool == null ? reader : new ReadAheadRunReader<>(reader, readAheadPool, readAheadObjects));
+            }
+        } catch (IOException | RuntimeException e) {
+            close.run();
+            throw e;
+        }
+        
+        Comparator<T> comparator = getComparator();
+        boolean removeDuplicates = get(FileSorter.removeDuplicates);
+        RunMerger<T> merger = new RunMerger<>(iterators, comparator);
+        return new SortedIterator<T>() {
+            private T prev;
+            private T next;
+            private long numMerged;
+            
+            @Override
+            public boolean hasNext() {
+                while (next == null && merger.hasNext()) {
+                    T t = merger.next();
+                    if (!removeDuplicates || prev == null || comparator.compare(t, prev) != 0) {
+                        next = t;
+                    }
+                }
+                return next != null;
+            }
+            
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                prev = next;
+                next = null;
+                numMerged++;
+                return prev;
+            }
+            
+            @Override
+            public void close() {
+                getMetrics().objectsMerged(numMerged);
+                numMerged = 0;
+                close.run();
+            }
+        };
     }
 
 }
@@ -0,0 +1,110 @@
+package cl.util.file.sorter;
+
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.stream.Collector;
+
+import cl.core.configurable.Configurable;
+import cl.core.configurable.Key;
+import cl.serializers.Serializer;
+
+/**
+ * A file aggregator groups objects of a file by a key, and writes one result per group, without sorting the file.
+ * This replaces sorting a file only to group its objects afterwards.
+ *
+ * <p>Groups are collected in a hash table. When the table holds {@link FileAggregator#maxGroupsInMemory} groups,
+ * objects of new keys are written to {@link FileAggregator#numPartitions} temporary files by the hash of their keys.
+ * After the input is read, the groups in memory are written to the result, and each temporary file is aggregated
+ * the same way, with a different hash function. Every key ends up in exactly one of these passes, so each group
+ * is written once. The results are written in no particular order.
+ *
+ * <p>File aggregator is a {@link Configurable} object, which accepts the following configuration keys:
+ *
+ * <ul>
+ *   <li>{@link FileAggregator#maxGroupsInMemory}. Maximum number of groups which are held in memory.
+ *       The default value is 100,000.
+ *   </li>
+ *   <li>{@link FileAggregator#numPartitions}. Number of temporary files into which objects are split when
+ *       the groups don't fit in memory. The default value is 16.
+ *   </li>
+ *   <li>{@link FileAggregator#runCodec}. Optional {@link RunCodec}, which is used to write the temporary files.
+ *       If it is not set, strings are written as UTF-8, and other objects with Java serialization.
+ *   </li>
+ *   <li>{@link FileAggregator#runCompression}. Compression of the temporary files.
+ *       The default value is {@link RunCompression#NONE}.
+ *   </li>
+ * </ul>
+ *
+ * @param <T> type of objects in the input file
+ * @param <R> type of results
+ */
+public interface FileAggregator<T,R> extends Configurable<FileAggregator<T,R>> {
+
+    /**
+     * Maximum number of groups held in memory at a time. The default value is 100,000.
+     */
+    static Key<Integer> maxGroupsInMemory = new Key<>(() -> 100_000);
+
+    /**
+     * Number of temporary files into which objects are split when the groups don't fit in memory.
+     * The default value is 16.
+     */
+    static Key<Integer> numPartitions = new Key<>(() -> 16);
+
+    /**
+     * Codec for the temporary files. The same key as {@link FileSorter#runCodec}.
+     */
+    static Key<Optional<RunCodec<?>>> runCodec = FileSorter.runCodec;
+
+    /**
+     * Compression of the temporary files. The same key as {@link FileSorter#runCompression}.
+     */
+    static Key<RunCompression> runCompression = FileSorter.runCompression;
+
+    /**
+     * Aggregate the input file.
+     */
+    void aggregate();
+
+    /**
+     * Create a file aggregator.
+     *
+     * @param serializer   serializer, which reads objects and writes results
+     * @param keyFunction  function which returns the key of an object
+     * @param collector    collector which aggregates the objects of a group
+     * @param result       function which makes a result of a key and the aggregate of its group
+     * @param lockConfiguration  lock configuration or not
+     * @return a file aggregator instance
+     */
+    static <T,K,A,V,R> FileAggregator<T,R> getFileAggregator(
+            Serializer<T,R> serializer,
+            Function<T,K> keyFunction,
+            Collector<T,A,V> collector,
+            BiFunction<K,V,R> result,
+            boolean lockConfiguration) {
+        FileAggregator<T,R> fa = new HashFileAggregator<>(serializer, keyFunction, collector, result);
+        if (lockConfiguration) {
+            fa.locked();
+        }
+        return fa;
+    }
+
+    /**
+     * Create a file aggregator with locked configuration.
+     *
+     * @param serializer   serializer, which reads objects and writes results
+     * @param keyFunction  function which returns the key of an object
+     * @param collector    collector which aggregates the objects of a group
+     * @param result       function which makes a result of a key and the aggregate of its group
+     * @return a file aggregator instance
+     */
+    static <T,K,A,V,R> FileAggregator<T,R> getFileAggregator(
+            Serializer<T,R> serializer,
+            Function<T,K> keyFunction,
+            Collector<T,A,V> collector,
+            BiFunction<K,V,R> result) {
+        return getFileAggregator(serializer, keyFunction, collector, result, true);
+    }
+
+}
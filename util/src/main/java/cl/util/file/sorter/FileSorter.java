@@ -1,16 +1,18 @@
 package cl.util.file.sorter;
 
 import static cl.util.file.sorter.FileSorterUtils.withTempFile;
-import static cl.serializers.Serializer.*;
 
 import java.io.File;
+import java.util.Collections;
 import java.util.Comparator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
 
 import cl.core.configurable.Configurable;
 import cl.core.configurable.Key;
 import cl.serializers.SerializationType;
 import cl.serializers.Serializer;
-import cl.serializers.SerializerConfiguration;
 
 /**
  * A file sorter is an object which sorts files, from small to large possibly without loading them
@@ -40,6 +42,77 @@ import cl.serializers.SerializerConfiguration;
  *       (External merge sort splits an input file into smaller temporary files, and sort each of them independently in memory.)
  *       The default value is 100,000. 
  *   </li>
+ *   <li>{@link FileSorter#parallelism}. Number of threads used by the 'external merge sort' algorithm to sort
+ *       and write chunks, while the calling thread keeps reading the input. The default value is 1, which
+ *       does all the work on the calling thread. The result does not depend on this setting.
+ *   </li>
+ *   <li>{@link FileSorter#maxMergeFanIn}. Maximum number of temporary files which the 'external merge sort'
+ *       algorithm opens and merges at once. If there are more files, they are merged in several passes.
+ *       The default value is 512.
+ *   </li>
+ *   <li>{@link FileSorter#readAheadObjects}. Number of objects which the 'external merge sort' algorithm reads ahead
+ *       from every temporary file on background threads during the merge. The default value is 0, which reads
+ *       temporary files on the merging thread.
+ *   </li>
+ *   <li>{@link FileSorter#spillDirectories}. Directories, over which the 'external merge sort' algorithm spreads its
+ *       temporary files, preferably one per device. With more than one directory, the files are read ahead during
+ *       the merge by at least one thread per directory. The default value is an empty list, which means the default
+ *       temporary directory.
+ *   </li>
+ *   <li>{@link FileSorter#memoryBudgetBytes}. Optional limit of the memory, in bytes, which may be taken by the objects
+ *       held in memory. When set, the default implementation reads the input until the objects don't fit into the
+ *       budget, and only then switches to 'external merge sort', which cuts its chunks by size rather than by count.
+ *       The value replaces both {@code inMemorySizeThreshold} and {@code numObjectsPerFile}. Not set by default.
+ *   </li>
+ *   <li>{@link FileSorter#objectSizer}. An {@link ObjectSizer}, which estimates memory taken by an object, when
+ *       {@code memoryBudgetBytes} is set. The default value is {@link ObjectSizer#defaultSizer()}.
+ *   </li>
+ *   <li>{@link FileSorter#runCodec}. Optional {@link RunCodec}, which the 'external merge sort' algorithm uses to write
+ *       objects to temporary files in a compact binary form. If not set, strings are written as UTF-8 records, and
+ *       other objects are written with the file sorter's serializer.
+ *   </li>
+ *   <li>{@link FileSorter#runCompression}. Compression of temporary files, created by the 'external merge sort' algorithm.
+ *       The default value is {@link RunCompression#NONE}.
+ *   </li>
+ *   <li>{@link FileSorter#limit}. Optional maximum number of objects in the result. When set, only the first
+ *       {@code limit} objects of the sorted file are written, and the input is sorted in one pass while holding
+ *       at most {@code limit} objects in memory. Not set by default.
+ *   </li>
+ *   <li>{@link FileSorter#indexFile}. Optional file to which a sparse index of the sorted file is written. The index
+ *       lets {@link SortedFileReader} find objects by binary search instead of reading the whole file. Only text
+ *       serializers support it. Not set by default.
+ *   </li>
+ *   <li>{@link FileSorter#indexInterval}. Number of objects between the entries of the index.
+ *       The default value is 1024.
+ *   </li>
+ *   <li>{@link FileSorter#sampleSort}. Sort large files with the 'sample sort' algorithm instead of the 'external
+ *       merge sort' algorithm. The input is split into ranges of values by a sample of its first objects, and
+ *       the ranges are sorted by {@link FileSorter#parallelism} threads at once. The default value is {@code false}.
+ *   </li>
+ *   <li>{@link FileSorter#checkSorted}. Check whether the input file is sorted already before sorting it, and if it
+ *       is, copy it to the result. The check stops at the first object out of order, so it is cheap for unsorted
+ *       files. It applies to file sorters which are created for an input file. The default value is {@code false}.
+ *   </li>
+ *   <li>{@link FileSorter#detectRuns}. Make the 'external merge sort' algorithm write chunks which are sorted
+ *       already, and follow each other in order, to one temporary file without sorting them, like the natural
+ *       merge sort does. Input which is sorted, or nearly sorted, then makes fewer and longer temporary files.
+ *       The default value is {@code false}.
+ *   </li>
+ *   <li>{@link FileSorter#checkpointDir}. Optional work directory, in which the 'external merge sort' algorithm keeps
+ *       its temporary files and a manifest of its progress, so that a sort which was interrupted resumes from
+ *       the last completed step when it is started again with the same input and comparator (progress of
+ *       another input, or of a file which has changed since, is discarded). When set, large files are always sorted by
+ *       the 'external merge sort' algorithm. The default value is empty, which means temporary files are deleted
+ *       when the sort fails.
+ *   </li>
+ *   <li>{@link FileSorter#inputFilter}. Optional predicate, which objects of the source file must satisfy to be
+ *       sorted; the others are dropped before sorting. A {@link Deduplicator} may be used here to remove duplicates
+ *       while keeping the first occurrence of each object, as it is in the source file.
+ *   </li>
+ *   <li>{@link FileSorter#metrics}. Optional {@link SortMetrics}, which file sorter updates while it works: objects
+ *       read, temporary files and bytes written, comparator calls, merge throughput, and time spent in each phase.
+ *       The metrics may be read by another thread, or passed to a progress listener. The default value is empty.
+ *   </li>
  *   <li>{@link FileSorter#removeDuplicates}. Instruct file sorter to remove duplicates from the result.
  *       The default value is {@code false}, which retains duplicates. Since the sorting algorithm is stable,
  *       the duplicates will be put in the result in the same order as they are in the source file. 
@@ -52,7 +125,8 @@ import cl.serializers.SerializerConfiguration;
  * 
  * <p>This interface defines a number of factory methods returning file sorter instance, as well as
  * number of static {@code sort()} methods which could be used to sort files more easily in typical
- * cases (for example, sorting a text file).
+ * cases (for example, sorting a text file). Text files are sorted by {@link Utf8StringFileSorter}, which
+ * sorts lines as UTF-8 bytes, unless a custom comparator is given.
  * 
  * @param T type of objects which file sorter operates on
  */
@@ -77,6 +151,122 @@ public interface FileSorter<T> extends Configurable<FileSorter<T>> {
      */
     static Key<Integer> numObjectsPerFile = new Key<>(() -> 100_000);
     
+    /**
+     * Number of threads which sort chunks and write them to temporary files, created by external merge file sorting
+     * algorithm. The input is still read by one thread. Note, that with the value larger than one, up to
+     * {@code parallelism + 1} chunks of {@code numObjectsPerFile} objects may be held in memory at the same time,
+     * and the comparator must be safe to use from multiple threads. The default value is 1.
+     */
+    static Key<Integer> parallelism = new Key<>(() -> 1);
+    
+    /**
+     * Maximum number of temporary files, created by external merge file sorting algorithm, which are merged
+     * at once. Whenever there are more temporary files, groups of them are merged into intermediate files first,
+     * which keeps the number of open files and the number of small reads bounded. The smallest allowed value is 2.
+     * The default value is 512.
+     */
+    static Key<Integer> maxMergeFanIn = new Key<>(() -> 512);
+    
+    /**
+     * Size of the blocks of objects, which external merge file sorting algorithm reads ahead from every temporary file
+     * while merging. Blocks are read and decoded by {@code parallelism} background threads, so that the merging thread
+     * only compares objects, which are already in memory. Up to two blocks per file are held in memory at once.
+     * The default value is 0, which disables read-ahead.
+     */
+    static Key<Integer> readAheadObjects = new Key<>(() -> 0);
+    
+    /**
+     * Directories, over which external merge file sorting algorithm spreads its temporary files round-robin.
+     * The default value is an empty list, which means the temporary files are created in the default temporary
+     * directory. Not used when {@link FileSorter#checkpointDir} is set.
+     */
+    static Key<List<File>> spillDirectories = new Key<>(() -> Collections.emptyList());
+    
+    /**
+     * Maximum memory in bytes, which may be taken by the objects being sorted, as estimated by {@link FileSorter#objectSizer}.
+     * When set, the file is sorted in memory if all its objects fit into the budget, and the external merge sort
+     * algorithm cuts chunks when their size reaches the budget divided by {@code parallelism + 1}, regardless of
+     * {@code inMemorySizeThreshold} and {@code numObjectsPerFile}. The budget should leave some room for the rest of
+     * the application, since the estimates are approximate. Not set by default.
+     */
+    static Key<Optional<Long>> memoryBudgetBytes = new Key<>(() -> Optional.empty());
+    
+    /**
+     * Object sizer, which estimates the memory taken by the objects being sorted when {@link FileSorter#memoryBudgetBytes}
+     * is set. The default value is {@link ObjectSizer#defaultSizer()}.
+     */
+    static Key<ObjectSizer<?>> objectSizer = new Key<>(() -> ObjectSizer.defaultSizer());
+    
+    /**
+     * Codec for temporary files, created by external merge file sorting algorithm. With a codec, temporary files
+     * hold length-prefixed binary records, and the serializer is used only to read the input and to write the result,
+     * which saves the cost of formatting and parsing every object in formats like JSON on every pass.
+     * If not set, strings are written with {@link RunCodec#strings()}, and other objects are written with the serializer.
+     * Java serialization is used only if it is set here as {@link RunCodec#javaSerialization()}, which is a convenience
+     * rather than a compact codec; a codec which writes the fields of the objects is smaller and faster.
+     */
+    static Key<Optional<RunCodec<?>>> runCodec = new Key<>(() -> Optional.empty());
+    
+    /**
+     * Compression of temporary files, created by external merge file sorting algorithm. The default value
+     * is {@link RunCompression#NONE}.
+     */
+    static Key<RunCompression> runCompression = new Key<>(() -> RunCompression.NONE);
+    
+    /**
+     * Maximum number of objects to write. When set, the result is the first {@code limit} objects of the sorted input
+     * (after duplicates are removed, if they should be), which are found in one pass over the input with memory
+     * proportional to the limit; the other size-related settings are then ignored. Not set by default.
+     */
+    static Key<Optional<Integer>> limit = new Key<>(() -> Optional.empty());
+    
+    /**
+     * File to which the positions of every {@link FileSorter#indexInterval}-th object of the sorted file are written,
+     * so that the sorted file can be searched with {@link SortedFileReader}. The serializer's writer must support
+     * {@link cl.serializers.writers.ObjectWriter#position()}, as text writers do. Not set by default.
+     */
+    static Key<Optional<File>> indexFile = new Key<>(() -> Optional.empty());
+    
+    /**
+     * Number of objects between the entries of the index, written when {@link FileSorter#indexFile} is set.
+     * The default value is 1024.
+     */
+    static Key<Integer> indexInterval = new Key<>(() -> 1024);
+    
+    /**
+     * Use the 'sample sort' algorithm (see {@link SampleSortFileSorter}) for files which are too large to be sorted
+     * in memory. The default value is false, which means the 'external merge sort' algorithm is used.
+     */
+    static Key<Boolean> sampleSort = new Key<>(() -> false);
+    
+    /**
+     * Check whether the input file is sorted before sorting it, and copy it if it is. The default value is false.
+     */
+    static Key<Boolean> checkSorted = new Key<>(() -> false);
+    
+    /**
+     * Write chunks, which are sorted as they are read and continue each other, to the same temporary file
+     * of the 'external merge sort' algorithm. The default value is false.
+     */
+    static Key<Boolean> detectRuns = new Key<>(() -> false);
+    
+    /**
+     * Optional directory, where the 'external merge sort' algorithm keeps its temporary files and progress,
+     * so that an interrupted sort may be resumed (see {@link ExternalMergeFileSorter}). The default value is empty.
+     */
+    static Key<Optional<File>> checkpointDir = new Key<>(() -> Optional.empty());
+    
+    /**
+     * Optional predicate, which filters objects of the source file before they are sorted. The default value
+     * is empty, which means all objects are sorted.
+     */
+    static Key<Optional<Predicate<?>>> inputFilter = new Key<>(() -> Optional.empty());
+    
+    /**
+     * Optional metrics, which are updated while the file is sorted. The default value is empty.
+     */
+    static Key<Optional<SortMetrics>> metrics = new Key<>(() -> Optional.empty());
+    
     /**
      * Instructs file sorter to remove or keep duplicates in the result. The default value is
      * false, which means 'keep duplicates'.
@@ -139,7 +329,11 @@ public interface FileSorter<T> extends Configurable<FileSorter<T>> {
             Class<T> klass,
             boolean lockConfiguration) {
         Serializer<T,T> serializer = Serializer.serializer(original, sorted, serializationType, klass);
-        return getFileSorter(serializer, original.length(), lockConfiguration);
+        FileSorter<T> fs = new DefaultFileSorter<>(serializer, original);
+        if (lockConfiguration) {
+            fs.locked();
+        }
+        return fs;
     }
     
     /**
@@ -189,7 +383,7 @@ public interface FileSorter<T> extends Configurable<FileSorter<T>> {
      * @param sorted   destination file (sorted)
      */
     static void sort(File original, File sorted) {
-        getFileSorter(stringSerializer(original, sorted), original.length()).sort();
+        new Utf8StringFileSorter(original, sorted, 0).locked().sort();
     }    
     
     /**
@@ -214,9 +408,7 @@ public interface FileSorter<T> extends Configurable<FileSorter<T>> {
             boolean removeDuplicates,
             int numHeaderLines,
             Comparator<String> comparator) {
-        Serializer<String, String> serializer = Serializer.<String, String>stringSerializer(
-                original, sorted, Configurable.empty().with(SerializerConfiguration.numHeaderLines, numHeaderLines).locked());
-        FileSorter<String> fs = getFileSorter(serializer, original.length(), false)
+        FileSorter<String> fs = new Utf8StringFileSorter(original, sorted, numHeaderLines)
                 .with(FileSorter.removeDuplicates, removeDuplicates)
                 .with(FileSorter.comparator, comparator)
                 .locked();
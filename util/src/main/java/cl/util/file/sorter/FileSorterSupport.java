@@ -1,9 +1,18 @@
 package cl.util.file.sorter;
 
 import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static cl.util.file.sorter.FileSorterUtils.filter;
 
+import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import cl.core.configurable.ConfigurableObject;
 import cl.serializers.Serializer;
@@ -14,36 +23,175 @@ import cl.serializers.writers.ObjectWriter;
  * Super class for {@link FileSorter} implementations, which contains some common logic.
  */
 abstract class FileSorterSupport<T> extends ConfigurableObject<FileSorter<T>> implements FileSorter<T> {
-    
+
+    /*
+     * Memory taken by a reference to an object held in a list, including some slack for the list's growth.
+     */
+    private static final long REFERENCE_OVERHEAD = 8;
+
     private final Serializer<T,T> serializer;
-    
+    private SortMetrics metrics;
+
     protected FileSorterSupport(Serializer<T,T> serializer) {
         this.serializer = serializer;
     }
-    
+
     /**
-     * Make sure the object is locked, and then sort the file.
+     * Make sure the object is locked, and then sort the file. If {@link FileSorter#inputFilter} is set,
+     * only the objects which satisfy it are sorted. If {@link FileSorter#indexFile} is set,
+     * the index is written along with the sorted file.
      */
     @Override
     public void sort() {
         requireLock();
         uncheck(() -> {
             try (ObjectIterator<T> iterator = serializer.getIterator();
-                 ObjectWriter<T> writer = serializer.getWriter()) {
-                sort(iterator, writer);
+                 ObjectWriter<T> writer = getWriter()) {
+                sort(getMetrics().countReads(getInput(iterator)), writer);
             }
         });
     }
-    
+
+    /**
+     * Return the objects of the input, which satisfy the {@link FileSorter#inputFilter}, if it is set.
+     */
+    @SuppressWarnings("unchecked")
+    Iterator<T> getInput(Iterator<T> iterator) {
+        Optional<Predicate<?>> inputFilter = get(FileSorter.inputFilter);
+        return inputFilter.isPresent() ? filter(iterator, (Predicate<T>)inputFilter.get()) : iterator;
+    }
+
+    private ObjectWriter<T> getWriter() {
+        Optional<File> indexFile = get(FileSorter.indexFile);
+        return indexFile.isPresent() ?
+                new IndexingObjectWriter<>(serializer.getWriter(), indexFile.get(), get(FileSorter.indexInterval)).locked() :
+                serializer.getWriter();
+    }
+
     protected Serializer<T,T> getSerializer() {
         return serializer;
     }
-    
+
+    /**
+     * Return the comparator, which counts its calls in the metrics, if they count comparisons.
+     */
     @SuppressWarnings("unchecked")
     protected Comparator<T> getComparator() {
-        return (Comparator<T>)get(FileSorter.comparator);
-    }    
-    
-    protected abstract void sort(ObjectIterator<T> iterator, ObjectWriter<T> writer) throws IOException;
+        return getMetrics().countComparisons((Comparator<T>)get(FileSorter.comparator));
+    }
+
+    /**
+     * Return the configured {@link FileSorter#metrics}, or metrics of this file sorter only, if there are none.
+     */
+    SortMetrics getMetrics() {
+        if (metrics == null) {
+            metrics = get(FileSorter.metrics).orElseGet(SortMetrics::new);
+        }
+        return metrics;
+    }
+
+    @SuppressWarnings("unchecked")
+    protected ObjectSizer<T> getObjectSizer() {
+        return (ObjectSizer<T>)get(FileSorter.objectSizer);
+    }
+
+    /**
+     * Return the format of temporary files. They are written with the configured {@link FileSorter#runCodec}.
+     * If there is none, strings are written as UTF-8 records, and other objects are written with the serializer,
+     * or with Java serialization, if there is no serializer.
+     * 
+     * @param sample  an object from the input
+     */
+    @SuppressWarnings("unchecked")
+    RunFormat<T> getRunFormat(T sample) {
+        RunCompression compression = get(FileSorter.runCompression);
+        Optional<RunCodec<?>> codec = get(FileSorter.runCodec);
+        if (codec.isPresent()) {
+            return RunFormat.binary((RunCodec<T>)codec.get(), compression);
+        }
+        if (sample instanceof String) {
+            return RunFormat.binary((RunCodec<T>)RunCodec.strings(), compression);
+        }
+        return serializer != null ?
+                RunFormat.serialized(serializer, compression) :
+                RunFormat.binary(RunFormat.codec(codec, sample), compression);
+    }
     
+    /**
+     * Stable sort, and removal of the duplicates, which follow the first of the equal objects, if
+     * {@link FileSorter#removeDuplicates} is set.
+     */
+    @SuppressWarnings("unchecked")
+    void sortInMemory(List<T> objects) {
+        T[] array = (T[])objects.toArray();
+        int size = sortInMemory(array);
+        for (int i = 0; i < size; i++) {
+            objects.set(i, array[i]);
+        }
+        objects.subList(size, objects.size()).clear();
+    }
+
+    /**
+     * Stable sort of the array, and removal of the duplicates, which follow the first of the equal objects, if
+     * {@link FileSorter#removeDuplicates} is set. Large arrays are sorted by the threads of the common fork-join pool
+     * ({@code Arrays.parallelSort()}), and duplicates are removed in one pass over the sorted array.
+     * 
+     * @return the number of objects at the beginning of the array, which make the result
+     */
+    int sortInMemory(T[] objects) {
+        Comparator<T> comparator = getComparator();
+        Arrays.parallelSort(objects, comparator);
+        if (!get(FileSorter.removeDuplicates) || objects.length == 0) {
+            return objects.length;
+        }
+        int size = 1;
+        for (int i = 1; i < objects.length; i++) {
+            if (comparator.compare(objects[size - 1], objects[i]) != 0) {
+                objects[size++] = objects[i];
+            }
+        }
+        Arrays.fill(objects, size, objects.length, null);
+        return size;
+    }
+
+    /**
+     * Return the estimated memory taken by an object, which is held in a list.
+     */
+    protected static <T> long sizeInList(ObjectSizer<T> sizer, T object) {
+        return sizer.sizeOf(object) + REFERENCE_OVERHEAD;
+    }
+
+    /**
+     * Read objects in chunks and execute a function on each chunk. If {@link FileSorter#memoryBudgetBytes}
+     * is set, a chunk is cut when its estimated size reaches the budget divided by the number of chunks
+     * which are held in memory at the same time. Otherwise chunks have {@link FileSorter#numObjectsPerFile} objects.
+     */
+    protected void forEachChunk(Iterator<T> iterator, int numChunksInMemory, Consumer<List<T>> f) {
+        ObjectSizer<T> sizer = getObjectSizer();
+        while (iterator.hasNext()) {
+            f.accept(nextChunk(iterator, numChunksInMemory, sizer));
+        }
+    }
+
+    /**
+     * Read the next chunk of objects, as defined by {@link FileSorterSupport#forEachChunk(Iterator, int, Consumer)}.
+     */
+    protected List<T> nextChunk(Iterator<T> iterator, int numChunksInMemory, ObjectSizer<T> sizer) {
+        Optional<Long> memoryBudget = get(FileSorter.memoryBudgetBytes);
+        long maxChunkSize = memoryBudget.map(budget -> budget / numChunksInMemory).orElse(Long.MAX_VALUE);
+        int maxChunkObjects = memoryBudget.isPresent() ? Integer.MAX_VALUE : get(FileSorter.numObjectsPerFile);
+        List<T> chunk = new ArrayList<>(memoryBudget.isPresent() ? 16 : maxChunkObjects);
+        long chunkSize = 0;
+        while (iterator.hasNext() && chunk.size() < maxChunkObjects && chunkSize < maxChunkSize) {
+            T next = iterator.next();
+            if (memoryBudget.isPresent()) {
+                chunkSize += sizeInList(sizer, next);
+            }
+            chunk.add(next);
+        }
+        return chunk;
+    }
+
+    protected abstract void sort(Iterator<T> iterator, ObjectWriter<T> writer) throws IOException;
+
 }
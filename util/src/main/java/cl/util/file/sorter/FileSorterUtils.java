@@ -3,8 +3,19 @@ package cl.util.file.sorter;
 import static cl.core.decorator.exception.ExceptionDecorators.*;
 
 import java.io.File;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.BiConsumer;
+import java.util.function.Predicate;
 
+import cl.core.util.Exceptions;
 import cl.core.util.FileUtils;
 
 class FileSorterUtils {
@@ -14,5 +25,111 @@ class FileSorterUtils {
         f.accept(original, sortedFile);
         FileUtils.moveFile(sortedFile, original);
     }
-    
+
+    /**
+     * Create a fixed thread pool of daemon threads, so that a sorter which fails to shut its pool down
+     * does not prevent the JVM from exiting.
+     */
+    static ExecutorService newThreadPool(int numThreads, String namePrefix) {
+        AtomicInteger threadNum = new AtomicInteger();
+        ThreadFactory threadFactory = r -> {
+            Thread t = new Thread(r, namePrefix + threadNum.getAndIncrement());
+            t.setDaemon(true);
+            return t;
+        };
+        return Executors.newFixedThreadPool(numThreads, threadFactory);
+    }
+
+    /**
+     * Return an iterator over the objects in the deque followed by the objects of the other iterator. The objects
+     * are removed from the deque as they are returned, so that the memory they take is released as soon as possible.
+     */
+    static <T> Iterator<T> concat(Deque<T> head, Iterator<T> tail) {
+        return new Iterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return !head.isEmpty() || tail.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return head.isEmpty() ? tail.next() : head.poll();
+            }
+        };
+    }
+
+    /**
+     * Return an iterator over the objects which satisfy the predicate.
+     */
+    static <T> Iterator<T> filter(Iterator<T> iterator, Predicate<? super T> predicate) {
+        return new Iterator<T>() {
+            private T next;
+            private boolean ready;
+
+            @Override
+            public boolean hasNext() {
+                while (!ready && iterator.hasNext()) {
+                    T t = iterator.next();
+                    if (predicate.test(t)) {
+                        next = t;
+                        ready = true;
+                    }
+                }
+                return ready;
+            }
+
+            @Override
+            public T next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                ready = false;
+                T t = next;
+                next = null;
+                return t;
+            }
+        };
+    }
+
+    /**
+     * Return the partition of a hash at the given level of recursive partitioning, where objects which don't fit
+     * into memory are spilled to partitions by their hashes, and each partition is processed the same way at
+     * the next level. Each level mixes the hash with a different seed, so that hashes which share a partition
+     * at one level are spread over the partitions at the next one.
+     */
+    static int partition(long hash, int level, int numPartitions) {
+        return Math.floorMod(Long.hashCode(mix(hash + level * 0x9E3779B97F4A7C15L)), numPartitions);
+    }
+
+    /**
+     * Mix the bits of a 64-bit hash (the finalizer of MurmurHash3), so that every bit of the input affects
+     * every bit of the result.
+     */
+    static long mix(long h) {
+        h ^= h >>> 33;
+        h *= 0xFF51AFD7ED558CCDL;
+        h ^= h >>> 33;
+        h *= 0xC4CEB9FE1A85EC53L;
+        h ^= h >>> 33;
+        return h;
+    }
+
+    /**
+     * Wait for the future's result. If the task failed, re-throw its exception as unchecked exception.
+     */
+    static <R> R await(Future<R> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new RuntimeException(e);
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof Error) {
+                throw (Error)cause;
+            }
+            throw Exceptions.toUnchecked((Exception)cause);
+        }
+    }
+
 }
@@ -0,0 +1,149 @@
+package cl.util.file.sorter;
+
+/**
+ * Compact set of 64-bit fingerprints, which is an open addressing hash table over a {@code long} array.
+ * It takes 16 to 32 bytes per fingerprint, instead of about 50 bytes per {@code Long} in a {@code HashSet}.
+ *
+ * <p>The set may be preceded by a bloom filter, which answers most lookups of new fingerprints without touching
+ * the table. Fingerprints are expected to be well mixed hash values, so their bits are used as they are.
+ */
+final class FingerprintSet {
+
+    private static final int MIN_CAPACITY = 16;
+    private static final int MAX_INITIAL_SIZE = 1 << 16;
+    private static final int BLOOM_BITS_PER_FINGERPRINT = 8;
+    private static final int BLOOM_HASHES = 3;
+    // zero marks an empty slot, so it is stored as another value
+    private static final long ZERO = 0x9E3779B97F4A7C15L;
+
+    private long[] table;
+    private int size;
+    private final long[] bloom;
+
+    /**
+     * Create a set.
+     *
+     * @param expectedSize  expected number of fingerprints, which defines the size of the bloom filter; the table
+     *                      starts smaller, and grows as needed
+     * @param bloomFilter   check a bloom filter before the table
+     */
+    FingerprintSet(int expectedSize, boolean bloomFilter) {
+        table = new long[tableSize(Math.min(expectedSize, MAX_INITIAL_SIZE))];
+        bloom = bloomFilter ?
+                new long[(int)Math.min(1 << 30, Math.max(1, ceilingPowerOfTwo((long)expectedSize * BLOOM_BITS_PER_FINGERPRINT) / 64))] :
+                null;
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * Add a fingerprint, and return true if it was not in the set.
+     */
+    boolean add(long fingerprint) {
+        long fp = fingerprint == 0 ? ZERO : fingerprint;
+        if (bloom != null && !bloomContains(fp)) {
+            bloomAdd(fp);
+            insert(fp);
+            return true;
+        }
+        int mask = table.length - 1;
+        for (int i = index(fp, mask); ; i = (i + 1) & mask) {
+            if (table[i] == fp) {
+                return false;
+            }
+            if (table[i] == 0) {
+                if (bloom != null) bloomAdd(fp);
+                table[i] = fp;
+                grow();
+                return true;
+            }
+        }
+    }
+
+    /**
+     * Check if a fingerprint is in the set.
+     */
+    boolean contains(long fingerprint) {
+        long fp = fingerprint == 0 ? ZERO : fingerprint;
+        if (bloom != null && !bloomContains(fp)) {
+            return false;
+        }
+        int mask = table.length - 1;
+        for (int i = index(fp, mask); table[i] != 0; i = (i + 1) & mask) {
+            if (table[i] == fp) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /*
+     * Put a fingerprint, which is known not to be in the set, into the table.
+     */
+    private void insert(long fp) {
+        int mask = table.length - 1;
+        int i = index(fp, mask);
+        while (table[i] != 0) {
+            i = (i + 1) & mask;
+        }
+        table[i] = fp;
+        grow();
+    }
+
+    /*
+     * Keep the table at most half full.
+     */
+    private void grow() {
+        if (++size <= table.length / 2) {
+            return;
+        }
+        long[] old = table;
+        table = new long[old.length * 2];
+        int mask = table.length - 1;
+        for (long fp : old) {
+            if (fp != 0) {
+                int i = index(fp, mask);
+                while (table[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                table[i] = fp;
+            }
+        }
+    }
+
+    private boolean bloomContains(long fp) {
+        long mask = bloom.length * 64L - 1;
+        long h = fp;
+        for (int i = 0; i < BLOOM_HASHES; i++, h = Long.rotateLeft(h, 21)) {
+            long bit = h & mask;
+            if ((bloom[(int)(bit >>> 6)] & (1L << bit)) == 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void bloomAdd(long fp) {
+        long mask = bloom.length * 64L - 1;
+        long h = fp;
+        for (int i = 0; i < BLOOM_HASHES; i++, h = Long.rotateLeft(h, 21)) {
+            long bit = h & mask;
+            bloom[(int)(bit >>> 6)] |= 1L << bit;
+        }
+    }
+
+    private static int index(long fp, int mask) {
+        return (int)(fp ^ (fp >>> 32)) & mask;
+    }
+
+    private static int tableSize(int expectedSize) {
+        return (int)Math.min(1 << 30, Math.max(MIN_CAPACITY, ceilingPowerOfTwo(expectedSize * 2L)));
+    }
+
+    private static long ceilingPowerOfTwo(long n) {
+        return n <= 1 ? 1 : Long.highestOneBit(n - 1) << 1;
+    }
+
+}
@@ -0,0 +1,143 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static cl.util.file.sorter.FileSorterUtils.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+import java.util.function.Supplier;
+import java.util.stream.Collector;
+
+import cl.core.configurable.ConfigurableObject;
+import cl.core.util.FileUtils;
+import cl.serializers.Serializer;
+import cl.serializers.iterators.ObjectIterator;
+import cl.serializers.writers.ObjectWriter;
+import cl.util.file.sorter.RunFormat.RunReader;
+import cl.util.file.sorter.RunFormat.RunWriter;
+
+/**
+ * Implementation of the {@link FileAggregator} interface with a hash table, which spills objects to hash partitions
+ * when it is full.
+ */
+final class HashFileAggregator<T,K,A,V,R> extends ConfigurableObject<FileAggregator<T,R>>
+        implements FileAggregator<T,R> {
+
+    private final Serializer<T,R> serializer;
+    private final Function<T,K> keyFunction;
+    private final Collector<T,A,V> collector;
+    private final BiFunction<K,V,R> result;
+
+    HashFileAggregator(Serializer<T,R> serializer, Function<T,K> keyFunction, Collector<T,A,V> collector,
+            BiFunction<K,V,R> result) {
+        this.serializer = serializer;
+        this.keyFunction = keyFunction;
+        this.collector = collector;
+        this.result = result;
+    }
+
+    /**
+     * Make sure the object is locked, and then aggregate the file.
+     */
+    @Override
+    public void aggregate() {
+        requireLock();
+        uncheck(() -> {
+            try (ObjectIterator<T> iterator = serializer.getIterator();
+                 ObjectWriter<R> writer = serializer.getWriter()) {
+                if (!iterator.hasNext()) {
+                    return;
+                }
+                Deque<T> first = new ArrayDeque<>(Collections.singleton(iterator.next()));
+                RunFormat<T> runFormat = getRunFormat(first.peek());
+                Path inprocessDir = Files.createTempDirectory("fa_");
+                try {
+                    aggregate(concat(first, iterator), 0, runFormat, inprocessDir, writer);
+                } finally {
+                    inprocessDir.toFile().delete();
+                }
+            }
+        });
+    }
+
+    /*
+     * Aggregate objects into the groups which fit in memory, and spill the other objects to partitions, which are
+     * then aggregated one by one at the next level.
+     */
+    private void aggregate(Iterator<T> objects, int level, RunFormat<T> runFormat, Path inprocessDir,
+            ObjectWriter<R> writer) throws IOException {
+        int maxGroups = Math.max(1, get(FileAggregator.maxGroupsInMemory));
+        int numPartitions = Math.max(2, get(FileAggregator.numPartitions));
+        Supplier<A> supplier = collector.supplier();
+        BiConsumer<A,T> accumulator = collector.accumulator();
+
+        Map<K,A> groups = new HashMap<>();
+        File[] files = new File[numPartitions];
+        @SuppressWarnings("unchecked")
+        RunWriter<T>[] partitions = (RunWriter<T>[])new RunWriter<?>[numPartitions];
+        try {
+            try {
+                while (objects.hasNext()) {
+                    T next = objects.next();
+                    K key = keyFunction.apply(next);
+                    A group = groups.get(key);
+                    if (group == null) {
+                        if (groups.size() >= maxGroups) {
+                            int p = partition(key == null ? 0 : key.hashCode(), level, numPartitions);
+                            if (partitions[p] == null) {
+                                files[p] = Files.createTempFile(inprocessDir, "fa_", "_" + level + "_" + p).toFile();
+                                partitions[p] = runFormat.newWriter(files[p]);
+                            }
+                            partitions[p].write(next);
+                            continue;
+                        }
+                        group = supplier.get();
+                        groups.put(key, group);
+                    }
+                    accumulator.accept(group, next);
+                }
+            } finally {
+                FileUtils.close(partitions);
+            }
+
+            groups.forEach((key, group) -> writer.write(result.apply(key, finish(group))));
+            groups = null;
+
+            for (int p = 0; p < numPartitions; p++) {
+                if (files[p] != null) {
+                    try (RunReader<T> reader = runFormat.newReader(files[p])) {
+                        aggregate(reader, level + 1, runFormat, inprocessDir, writer);
+                    }
+                    files[p].delete();
+                }
+            }
+        } finally {
+            for (File file : files) {
+                if (file != null) file.delete();
+            }
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    private V finish(A group) {
+        return collector.characteristics().contains(Collector.Characteristics.IDENTITY_FINISH) ?
+                (V)group : collector.finisher().apply(group);
+    }
+
+    private RunFormat<T> getRunFormat(T sample) {
+        return RunFormat.binary(RunFormat.codec(get(FileAggregator.runCodec), sample), get(FileAggregator.runCompression));
+    }
+
+}
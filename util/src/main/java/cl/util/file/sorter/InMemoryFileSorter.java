@@ -1,14 +1,11 @@
 package cl.util.file.sorter;
 
-import static java.util.stream.Collectors.*;
-
-import java.util.Collection;
-import java.util.Collections;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Iterator;
 import java.util.List;
-import java.util.TreeSet;
 
 import cl.serializers.Serializer;
-import cl.serializers.iterators.ObjectIterator;
 import cl.serializers.writers.ObjectWriter;
 
 /**
@@ -21,31 +18,23 @@ public class InMemoryFileSorter<T> extends FileSorterSupport<T> {
     }
     
     /**
-     * Sort data.
+     * Sort data. The objects are read into an array, which is sorted with {@code Arrays.parallelSort()}. This sort
+     * is stable, and uses all processors for large arrays. Duplicates are removed in one pass over the sorted
+     * array, which keeps the first of the equal objects. The whole sort counts as the in-memory phase
+     * in the {@link FileSorter#metrics}.
      */
     @Override
-    protected void sort(ObjectIterator<T> iterator, ObjectWriter<T> writer) {
-        Collection<T> sorted = get(FileSorter.removeDuplicates) ?
-                sortWithoutDuplicates(iterator) :
-                sortWithDuplicates(iterator);
-        writer.write(sorted);
-    }
-    
-    /*
-     * Sorting with duplicate removal is done via loading data into a tree set. We're not concerned 
-     * about sort stability, because duplicates get removed anyways.
-     */
-    private Collection<T> sortWithoutDuplicates(ObjectIterator<T> iterator) {
-        return iterator.stream().collect(toCollection(() -> new TreeSet<>(getComparator())));
-    }
-    
-    /*
-     * Sorting with retaining duplicates is done via Collections.sort(), which uses stable sorting algorithm.
-     */
-    private Collection<T> sortWithDuplicates(ObjectIterator<T> iterator) {
-        List<T> objects = iterator.stream().collect(toList());
-        Collections.sort(objects, getComparator());
-        return objects;
+    @SuppressWarnings("unchecked")
+    protected void sort(Iterator<T> iterator, ObjectWriter<T> writer) {
+        SortMetrics metrics = getMetrics();
+        long started = metrics.phaseStarted();
+        List<T> objects = new ArrayList<>();
+        iterator.forEachRemaining(objects::add);
+        T[] array = (T[])objects.toArray();
+        objects = null;
+        int size = sortInMemory(array);
+        writer.write(Arrays.asList(array).subList(0, size));
+        metrics.phaseFinished(SortMetrics.Phase.IN_MEMORY, started);
     }
     
 }
@@ -0,0 +1,69 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import cl.core.util.FileUtils;
+import cl.serializers.writers.ObjectWriter;
+
+/**
+ * Object writer which passes objects to another writer, and writes the position of every n-th object
+ * to an index file. The index file is a sequence of longs, which {@link SortedFileReader} reads.
+ */
+final class IndexingObjectWriter<T> extends ObjectWriter<T> {
+
+    private final ObjectWriter<T> writer;
+    private final int interval;
+    private final DataOutputStream index;
+    private long count;
+
+    IndexingObjectWriter(ObjectWriter<T> writer, File indexFile, int interval) {
+        if (interval < 1) {
+            throw new IllegalArgumentException("index interval must be positive: " + interval);
+        }
+        // fail before sorting, if the writer can't tell positions
+        writer.position();
+        this.writer = writer;
+        this.interval = interval;
+        this.index = uncheck(() -> new DataOutputStream(new BufferedOutputStream(new FileOutputStream(indexFile))));
+    }
+
+    @Override
+    public void write(T x) {
+        if (count++ % interval == 0) {
+            long position = writer.position();
+            uncheck(() -> index.writeLong(position));
+        }
+        writer.write(x);
+    }
+
+    @Override
+    public long position() {
+        return writer.position();
+    }
+
+    /**
+     * Close both the index and the wrapped writer.
+     */
+    @Override
+    public void close() throws IOException {
+        FileUtils.close(index, writer);
+    }
+
+    @Override
+    public ObjectWriter<T> clone(File file) {
+        throw new UnsupportedOperationException();
+    }
+
+    @Override
+    public ObjectWriter<T> clone(OutputStream outputStream) {
+        throw new UnsupportedOperationException();
+    }
+
+}
@@ -0,0 +1,151 @@
+package cl.util.file.sorter;
+
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * Input stream which decompresses data written by {@link LzOutputStream}.
+ */
+final class LzInputStream extends FilterInputStream {
+
+    private final byte[] block = new byte[RunCompression.BLOCK_SIZE];
+    private final byte[] compressed = new byte[LzOutputStream.maxCompressedLength(RunCompression.BLOCK_SIZE)];
+    private final DataInputStream dataIn;
+    private int blockLength;
+    private int pos;
+
+    LzInputStream(InputStream in) {
+        super(in);
+        dataIn = new DataInputStream(in);
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos == blockLength && !readBlock()) {
+            return -1;
+        }
+        return block[pos++] & 0xFF;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos == blockLength && !readBlock()) {
+            return -1;
+        }
+        int n = Math.min(len, blockLength - pos);
+        System.arraycopy(block, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && (pos < blockLength || readBlock())) {
+            int k = (int)Math.min(n - skipped, blockLength - pos);
+            pos += k;
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public int available() {
+        return blockLength - pos;
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public synchronized void mark(int readlimit) {
+    }
+
+    @Override
+    public synchronized void reset() throws IOException {
+        throw new IOException("mark/reset not supported");
+    }
+
+    /*
+     * Read and decompress the next block. Return false at the end of the stream.
+     */
+    private boolean readBlock() throws IOException {
+        int b = dataIn.read();
+        if (b < 0) {
+            return false;
+        }
+        int rawLength = b << 24 | dataIn.readUnsignedByte() << 16 | dataIn.readUnsignedByte() << 8 | dataIn.readUnsignedByte();
+        int compressedLength = dataIn.readInt();
+        if (rawLength < 0 || rawLength > block.length || compressedLength > compressed.length) {
+            throw new IOException("corrupted compressed block");
+        }
+        if (compressedLength < 0) {
+            dataIn.readFully(block, 0, rawLength);
+        } else {
+            dataIn.readFully(compressed, 0, compressedLength);
+            decompress(compressed, compressedLength, block, rawLength);
+        }
+        blockLength = rawLength;
+        pos = 0;
+        return true;
+    }
+
+    /*
+     * Decompress src[0..length) into dest[0..rawLength).
+     */
+    static void decompress(byte[] src, int length, byte[] dest, int rawLength) throws IOException {
+        try {
+            int in = 0;
+            int out = 0;
+            while (out < rawLength) {
+                int token = src[in++] & 0xFF;
+                int numLiterals = token >>> 4;
+                if (numLiterals == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        numLiterals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, in, dest, out, numLiterals);
+                in += numLiterals;
+                out += numLiterals;
+                if (out == rawLength) {
+                    break;
+                }
+                int offset = (src[in++] & 0xFF) | (src[in++] & 0xFF) << 8;
+                int matchLength = token & 0x0F;
+                if (matchLength == 15) {
+                    int b;
+                    do {
+                        b = src[in++] & 0xFF;
+                        matchLength += b;
+                    } while (b == 255);
+                }
+                matchLength += LzOutputStream.MIN_MATCH;
+                int ref = out - offset;
+                if (offset == 0 || ref < 0 || out + matchLength > rawLength) {
+                    throw new IOException("corrupted compressed block");
+                }
+                // copy byte by byte, since the match may overlap the bytes it produces
+                for (int i = 0; i < matchLength; i++) {
+                    dest[out++] = dest[ref++];
+                }
+            }
+            if (in != length) {
+                throw new IOException("corrupted compressed block");
+            }
+        } catch (ArrayIndexOutOfBoundsException e) {
+            throw new EOFException("truncated compressed block");
+        }
+    }
+
+}
@@ -0,0 +1,150 @@
+package cl.util.file.sorter;
+
+import java.io.DataOutputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Output stream which compresses data with a simple LZ77-style algorithm (similar to LZ4), used by
+ * {@link RunCompression#LZ}.
+ *
+ * <p>Data is compressed in blocks of {@code RunCompression.BLOCK_SIZE} bytes. Every block starts with its
+ * uncompressed length and its compressed length; a negative compressed length means that the block did not
+ * compress and is stored as is. A compressed block is a sequence of tokens. The high four bits of a token
+ * give the number of literal bytes and the low four bits give the length of a match minus four; the value 15
+ * means that more length bytes follow, each adding up to 255. Literals follow the token, and then the match's
+ * two-byte offset back into the block. The last token of a block has literals only.
+ */
+final class LzOutputStream extends FilterOutputStream {
+
+    static final int MIN_MATCH = 4;
+    private static final int HASH_BITS = 14;
+
+    private final byte[] block = new byte[RunCompression.BLOCK_SIZE];
+    private final byte[] compressed = new byte[maxCompressedLength(RunCompression.BLOCK_SIZE)];
+    private final int[] hashTable = new int[1 << HASH_BITS];
+    private final DataOutputStream dataOut;
+    private int blockLength;
+
+    LzOutputStream(OutputStream out) {
+        super(out);
+        dataOut = new DataOutputStream(out);
+    }
+
+    @Override
+    public void write(int b) throws IOException {
+        if (blockLength == block.length) {
+            writeBlock();
+        }
+        block[blockLength++] = (byte)b;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) throws IOException {
+        while (len > 0) {
+            if (blockLength == block.length) {
+                writeBlock();
+            }
+            int n = Math.min(len, block.length - blockLength);
+            System.arraycopy(b, off, block, blockLength, n);
+            blockLength += n;
+            off += n;
+            len -= n;
+        }
+    }
+
+    /**
+     * Write the current block out. Flushing before the block is full makes compression worse, so
+     * it should be done only when the data is really needed downstream.
+     */
+    @Override
+    public void flush() throws IOException {
+        if (blockLength > 0) {
+            writeBlock();
+        }
+        dataOut.flush();
+    }
+
+    private void writeBlock() throws IOException {
+        int compressedLength = compress(block, blockLength, compressed, hashTable);
+        dataOut.writeInt(blockLength);
+        if (compressedLength < blockLength) {
+            dataOut.writeInt(compressedLength);
+            dataOut.write(compressed, 0, compressedLength);
+        } else {
+            dataOut.writeInt(-1);
+            dataOut.write(block, 0, blockLength);
+        }
+        blockLength = 0;
+    }
+
+    static int maxCompressedLength(int length) {
+        return length + length / 255 + 16;
+    }
+
+    /*
+     * Compress src[0..length) into dest, and return the compressed length.
+     */
+    static int compress(byte[] src, int length, byte[] dest, int[] hashTable) {
+        Arrays.fill(hashTable, -1);
+        int anchor = 0;
+        int pos = 0;
+        int out = 0;
+        while (pos + MIN_MATCH <= length) {
+            int sequence = readInt(src, pos);
+            int hash = (sequence * -1640531535) >>> (32 - HASH_BITS);
+            int ref = hashTable[hash];
+            hashTable[hash] = pos;
+            if (ref < 0 || pos - ref > 0xFFFF || readInt(src, ref) != sequence) {
+                pos++;
+                continue;
+            }
+            int matchLength = MIN_MATCH;
+            while (pos + matchLength < length && src[ref + matchLength] == src[pos + matchLength]) {
+                matchLength++;
+            }
+            out = writeSequence(src, anchor, pos - anchor, dest, out, matchLength - MIN_MATCH);
+            dest[out++] = (byte)(pos - ref);
+            dest[out++] = (byte)((pos - ref) >>> 8);
+            out = writeLength(dest, out, matchLength - MIN_MATCH);
+            pos += matchLength;
+            anchor = pos;
+        }
+        if (anchor < length) {
+            out = writeSequence(src, anchor, length - anchor, dest, out, 0);
+        }
+        return out;
+    }
+
+    /*
+     * Write the token and the literals of a sequence.
+     */
+    private static int writeSequence(byte[] src, int literalsFrom, int numLiterals, byte[] dest, int out, int matchLength) {
+        dest[out++] = (byte)((Math.min(numLiterals, 15) << 4) | Math.min(matchLength, 15));
+        out = writeLength(dest, out, numLiterals);
+        System.arraycopy(src, literalsFrom, dest, out, numLiterals);
+        return out + numLiterals;
+    }
+
+    /*
+     * Write the rest of a length, which does not fit into the token's four bits.
+     */
+    private static int writeLength(byte[] dest, int out, int length) {
+        if (length >= 15) {
+            length -= 15;
+            while (length >= 255) {
+                dest[out++] = (byte)255;
+                length -= 255;
+            }
+            dest[out++] = (byte)length;
+        }
+        return out;
+    }
+
+    private static int readInt(byte[] b, int pos) {
+        return (b[pos] & 0xFF) | (b[pos + 1] & 0xFF) << 8 | (b[pos + 2] & 0xFF) << 16 | (b[pos + 3] & 0xFF) << 24;
+    }
+
+}
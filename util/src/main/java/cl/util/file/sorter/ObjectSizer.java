@@ -0,0 +1,59 @@
+package cl.util.file.sorter;
+
+/**
+ * An object sizer estimates how much heap memory an object retains. File sorters use object sizers
+ * when they are configured with {@link FileSorter#memoryBudgetBytes}, in order to decide how many objects
+ * fit in memory.
+ *
+ * <p>The estimates don't have to be exact, but they should not be too low, since the sorter relies
+ * on them to stay within its memory budget.
+ *
+ * @param <T> type of objects which the sizer measures
+ */
+@FunctionalInterface
+public interface ObjectSizer<T> {
+
+    /**
+     * Return the estimated number of bytes retained by the given object.
+     */
+    long sizeOf(T object);
+
+    /**
+     * Return a sizer for strings. It assumes a 64-bit JVM with compressed references, and two bytes per character.
+     */
+    static ObjectSizer<String> strings() {
+        return s -> 24 + ReflectiveObjectSizer.align(16 + 2L * s.length());
+    }
+
+    /**
+     * Return a sizer which walks the object graph with reflection and adds up the sizes of all
+     * reachable objects. This is accurate, but too slow to be used on every object, so it is normally
+     * combined with {@link ObjectSizer#sampling(ObjectSizer, int)}.
+     */
+    static <T> ObjectSizer<T> reflective() {
+        return new ReflectiveObjectSizer<>();
+    }
+
+    /**
+     * Return a sizer which measures every {@code sampleRate}-th object with the given sizer, and estimates
+     * the size of all other objects as the average of the measured sizes. The returned sizer is not thread-safe.
+     *
+     * @param sizer       sizer which measures the samples
+     * @param sampleRate  how often to take a sample; 1 means measure every object
+     */
+    static <T> ObjectSizer<T> sampling(ObjectSizer<T> sizer, int sampleRate) {
+        return new SamplingObjectSizer<>(sizer, sampleRate);
+    }
+
+    /**
+     * Return the default sizer. It measures strings exactly with {@link ObjectSizer#strings()}, and other
+     * objects with the {@link ObjectSizer#reflective()} sizer sampling every 100th object.
+     */
+    @SuppressWarnings("unchecked")
+    static <T> ObjectSizer<T> defaultSizer() {
+        ObjectSizer<String> strings = strings();
+        ObjectSizer<T> sampled = sampling(reflective(), 100);
+        return t -> t instanceof String ? strings.sizeOf((String)t) : sampled.sizeOf(t);
+    }
+
+}
@@ -0,0 +1,36 @@
+package cl.util.file.sorter;
+
+import java.util.Comparator;
+import java.util.Iterator;
+
+import cl.serializers.Serializer;
+import cl.serializers.writers.ObjectWriter;
+
+/**
+ * Implementation of the {@link FileSorter} interface for input which is sorted already. The objects are copied
+ * to the result, without the duplicates, if {@link FileSorter#removeDuplicates} is set, and up to
+ * {@link FileSorter#limit} objects, if it is set.
+ */
+final class PresortedFileSorter<T> extends FileSorterSupport<T> {
+
+    PresortedFileSorter(Serializer<T,T> serializer) {
+        super(serializer);
+    }
+
+    @Override
+    protected void sort(Iterator<T> iterator, ObjectWriter<T> writer) {
+        Comparator<T> comparator = getComparator();
+        boolean removeDuplicates = get(FileSorter.removeDuplicates);
+        int limit = get(FileSorter.limit).orElse(Integer.MAX_VALUE);
+        T prev = null;
+        for (int n = 0; n < limit && iterator.hasNext(); ) {
+            T next = iterator.next();
+            if (!removeDuplicates || prev == null || comparator.compare(prev, next) != 0) {
+                writer.write(next);
+                prev = next;
+                n++;
+            }
+        }
+    }
+
+}
@@ -0,0 +1,81 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static cl.util.file.sorter.FileSorterUtils.await;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+
+import cl.util.file.sorter.RunFormat.RunReader;
+
+/**
+ * A run reader which reads objects from another run reader in blocks on a thread pool, so that the next block
+ * of a run is read and decoded while the merge works on the current one.
+ *
+ * <p>At most one block of a run is being read at any time, so the underlying reader is never used by two
+ * threads at once. Together with the block being consumed, a run holds up to twice the block size of objects
+ * in memory.
+ */
+final class ReadAheadRunReader<T> implements RunReader<T> {
+
+    private final RunReader<T> reader;
+    private final ExecutorService pool;
+    private final int blockSize;
+
+    private Iterator<T> block = Collections.emptyIterator();
+    private Future<List<T>> nextBlock;
+
+    ReadAheadRunReader(RunReader<T> reader, ExecutorService pool, int blockSize) {
+        this.reader = reader;
+        this.pool = pool;
+        this.blockSize = blockSize;
+        nextBlock = pool.submit(this::readBlock);
+    }
+
+    @Override
+    public boolean hasNext() {
+        while (!block.hasNext()) {
+            if (nextBlock == null) {
+                return false;
+            }
+            List<T> objects = await(nextBlock);
+            // a short block means that the run is exhausted
+            nextBlock = objects.size() < blockSize ? null : pool.submit(this::readBlock);
+            block = objects.iterator();
+        }
+        return true;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        return block.next();
+    }
+
+    /**
+     * Wait for the block which is being read, and then close the underlying reader.
+     */
+    @Override
+    public void close() throws IOException {
+        if (nextBlock != null) {
+            safely(() -> nextBlock.get());
+            nextBlock = null;
+        }
+        reader.close();
+    }
+
+    private List<T> readBlock() {
+        List<T> objects = new ArrayList<>(blockSize);
+        while (objects.size() < blockSize && reader.hasNext()) {
+            objects.add(reader.next());
+        }
+        return objects;
+    }
+
+}
@@ -0,0 +1,136 @@
+package cl.util.file.sorter;
+
+import java.lang.reflect.Array;
+import java.lang.reflect.Field;
+import java.lang.reflect.Modifier;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Implementation of {@link ObjectSizer#reflective()}.
+ *
+ * <p>The sizer assumes a 64-bit JVM with compressed references: object headers take 12 bytes, array headers
+ * take 16 bytes, references take 4 bytes, and objects are aligned by 8 bytes. Class objects and enum
+ * constants are shared by all objects, so they are not counted.
+ *
+ * <p>Strings are sized as by {@link ObjectSizer#strings()}, and boxed primitives by their known sizes, without
+ * reflection, since fields of JDK classes cannot be made accessible on newer JVMs. Other fields which cannot be made
+ * accessible are counted, but the objects they point to are not.
+ */
+final class ReflectiveObjectSizer<T> implements ObjectSizer<T> {
+
+    private static final int OBJECT_HEADER = 12;
+    private static final int ARRAY_HEADER = 16;
+    private static final int REFERENCE = 4;
+
+    private static final ObjectSizer<String> strings = ObjectSizer.strings();
+    private static final Map<Class<?>, Long> boxedSizes = new HashMap<>();
+    static {
+        for (Class<?> c : Arrays.asList(Boolean.class, Byte.class, Short.class, Character.class, Integer.class,
+                Float.class)) {
+            boxedSizes.put(c, align(OBJECT_HEADER + 4));
+        }
+        boxedSizes.put(Long.class, align(OBJECT_HEADER + 8));
+        boxedSizes.put(Double.class, align(OBJECT_HEADER + 8));
+    }
+
+    private static final Map<Class<?>, ClassLayout> layouts = new ConcurrentHashMap<>();
+
+    @Override
+    public long sizeOf(T object) {
+        Set<Object> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+        Deque<Object> toVisit = new ArrayDeque<>();
+        toVisit.push(object);
+        long size = 0;
+        while (!toVisit.isEmpty()) {
+            Object o = toVisit.pop();
+            if (o == null || o instanceof Class || o instanceof Enum || !visited.add(o)) {
+                continue;
+            }
+            Class<?> klass = o.getClass();
+            Long boxedSize;
+            if (klass == String.class) {
+                size += strings.sizeOf((String)o);
+            } else if ((boxedSize = boxedSizes.get(klass)) != null) {
+                size += boxedSize;
+            } else if (klass.isArray()) {
+                size += sizeOfArray(o, toVisit);
+            } else {
+                ClassLayout layout = layouts.computeIfAbsent(klass, ClassLayout::new);
+                size += layout.size;
+                for (Field f : layout.references) {
+                    try {
+                        toVisit.push(f.get(o));
+                    } catch (IllegalAccessException e) {
+                        // the field could not be made accessible, don't follow it
+                    }
+                }
+            }
+        }
+        return size;
+    }
+
+    static long align(long size) {
+        return (size + 7) & ~7L;
+    }
+
+    private static long sizeOfArray(Object array, Deque<Object> toVisit) {
+        Class<?> componentType = array.getClass().getComponentType();
+        int length = Array.getLength(array);
+        if (componentType.isPrimitive()) {
+            return align(ARRAY_HEADER + (long)length * primitiveSize(componentType));
+        }
+        for (Object element : (Object[])array) {
+            toVisit.push(element);
+        }
+        return align(ARRAY_HEADER + (long)length * REFERENCE);
+    }
+
+    private static int primitiveSize(Class<?> type) {
+        if (type == long.class || type == double.class) return 8;
+        if (type == int.class || type == float.class) return 4;
+        if (type == short.class || type == char.class) return 2;
+        return 1;
+    }
+
+    /*
+     * Shallow size of instances of a class and its reference fields, which are accessible.
+     */
+    private static final class ClassLayout {
+
+        final long size;
+        final List<Field> references = new ArrayList<>();
+
+        ClassLayout(Class<?> klass) {
+            long fieldsSize = 0;
+            for (Class<?> c = klass; c != null; c = c.getSuperclass()) {
+                for (Field f : c.getDeclaredFields()) {
+                    if (Modifier.isStatic(f.getModifiers())) continue;
+                    Class<?> type = f.getType();
+                    if (type.isPrimitive()) {
+                        fieldsSize += primitiveSize(type);
+                    } else {
+                        fieldsSize += REFERENCE;
+                        try {
+                            f.setAccessible(true);
+                            references.add(f);
+                        } catch (RuntimeException e) {
+                            // inaccessible field, count the reference only
+                        }
+                    }
+                }
+            }
+            size = align(OBJECT_HEADER + fieldsSize);
+        }
+    }
+
+}
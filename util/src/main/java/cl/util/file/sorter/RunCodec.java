@@ -0,0 +1,83 @@
+package cl.util.file.sorter;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * A run codec converts objects to and from a compact binary form, in which the external merge sort
+ * algorithm keeps its temporary files (runs). Without a codec, temporary files are written and read with the
+ * file sorter's own serializer, which may be costly for formats like JSON.
+ *
+ * <p>Each encoded object is stored as a length-prefixed record, so the codec does not need to mark where
+ * an object ends. A codec only has to read back exactly what it has written; the format of the records
+ * is never seen outside of the file sorter.
+ *
+ * @param <T> type of objects which the codec encodes
+ */
+public interface RunCodec<T> {
+
+    /**
+     * Write an object to the given stream.
+     */
+    void encode(T object, DataOutputStream out) throws IOException;
+
+    /**
+     * Read an object, previously written by {@link RunCodec#encode(Object, DataOutputStream)}, from the given stream.
+     * The stream holds exactly one record, so its {@code available()} method returns the number of the record's
+     * bytes which are not read yet.
+     */
+    T decode(DataInputStream in) throws IOException;
+
+    /**
+     * Return a codec which stores strings as UTF-8 bytes.
+     */
+    static RunCodec<String> strings() {
+        return new RunCodec<String>() {
+            @Override
+            public void encode(String s, DataOutputStream out) throws IOException {
+                out.write(s.getBytes(StandardCharsets.UTF_8));
+            }
+
+            @Override
+            public String decode(DataInputStream in) throws IOException {
+                byte[] bytes = new byte[in.available()];
+                in.readFully(bytes);
+                return new String(bytes, StandardCharsets.UTF_8);
+            }
+        };
+    }
+
+    /**
+     * Return a codec which uses Java serialization. This is a convenience codec for objects which implement
+     * {@code Serializable}, not a compact one: every record is written with its own object stream, so it carries
+     * the stream header and the descriptors of the object's classes, and for small objects it may be larger and
+     * slower than the serializer's own format. The objects' transient fields are not kept, and every field
+     * must be serializable. A codec which writes the fields of the objects is usually the better choice.
+     */
+    static <T extends Serializable> RunCodec<T> javaSerialization() {
+        return new RunCodec<T>() {
+            @Override
+            public void encode(T object, DataOutputStream out) throws IOException {
+                ObjectOutputStream oos = new ObjectOutputStream(out);
+                oos.writeObject(object);
+                oos.flush();
+            }
+
+            @Override
+            @SuppressWarnings("unchecked")
+            public T decode(DataInputStream in) throws IOException {
+                try {
+                    return (T)new ObjectInputStream(in).readObject();
+                } catch (ClassNotFoundException e) {
+                    throw new IOException(e);
+                }
+            }
+        };
+    }
+
+}
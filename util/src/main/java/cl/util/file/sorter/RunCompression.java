@@ -0,0 +1,95 @@
+package cl.util.file.sorter;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * Compression of temporary files (runs), created by the external merge sort algorithm.
+ */
+public enum RunCompression {
+
+    /**
+     * Temporary files are not compressed.
+     */
+    NONE {
+        @Override
+        OutputStream compress(OutputStream out) {
+            return out;
+        }
+
+        @Override
+        InputStream decompress(InputStream in) {
+            return in;
+        }
+    },
+
+    /**
+     * Temporary files are compressed with the JDK's {@code Deflater} at its fastest level. This saves the most
+     * disk space, but costs noticeable CPU time.
+     */
+    DEFLATE {
+        @Override
+        OutputStream compress(OutputStream out) {
+            Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+            return new DeflaterOutputStream(out, deflater, BLOCK_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        deflater.end();
+                    }
+                }
+            };
+        }
+
+        @Override
+        InputStream decompress(InputStream in) {
+            Inflater inflater = new Inflater();
+            return new InflaterInputStream(in, inflater, BLOCK_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+    },
+
+    /**
+     * Temporary files are compressed with a simple and fast LZ77-style codec. It compresses less than
+     * {@code DEFLATE}, but is cheap enough to pay off whenever the disk is slower than the CPU.
+     */
+    LZ {
+        @Override
+        OutputStream compress(OutputStream out) {
+            return new LzOutputStream(out);
+        }
+
+        @Override
+        InputStream decompress(InputStream in) {
+            return new LzInputStream(in);
+        }
+    };
+
+    static final int BLOCK_SIZE = 64 * 1024;
+
+    /**
+     * Wrap a stream, so that the data written to it is compressed.
+     */
+    abstract OutputStream compress(OutputStream out);
+
+    /**
+     * Wrap a stream, so that the data read from it is decompressed.
+     */
+    abstract InputStream decompress(InputStream in);
+
+}
@@ -0,0 +1,273 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.Serializable;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import cl.serializers.Serializer;
+import cl.serializers.iterators.ObjectIterator;
+import cl.serializers.writers.ObjectWriter;
+
+/**
+ * Format of temporary files (runs), created by the external merge sort algorithm. Runs are either written
+ * with the file sorter's serializer, or as length-prefixed records encoded with a {@link RunCodec}. In both cases
+ * they may be compressed, as defined by {@link RunCompression}.
+ */
+abstract class RunFormat<T> {
+
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * Writes objects to a run.
+     */
+    interface RunWriter<T> extends Closeable {
+
+        void write(T object);
+
+        default void write(Collection<T> objects) {
+            objects.forEach(this::write);
+        }
+    }
+
+    /**
+     * Reads objects from a run.
+     */
+    interface RunReader<T> extends Iterator<T>, Closeable {
+    }
+
+    abstract RunWriter<T> newWriter(File file) throws IOException;
+
+    abstract RunReader<T> newReader(File file) throws IOException;
+
+    /**
+     * Return the given codec, if it is present, or a default codec for objects like the sample: UTF-8 for strings,
+     * and Java serialization for other objects.
+     */
+    @SuppressWarnings({ "unchecked", "rawtypes" })
+    static <T> RunCodec<T> codec(Optional<RunCodec<?>> codec, T sample) {
+        if (codec.isPresent()) {
+            return (RunCodec<T>)codec.get();
+        }
+        return sample instanceof String ?
+                (RunCodec<T>)RunCodec.strings() :
+                (RunCodec)RunCodec.<Serializable>javaSerialization();
+    }
+
+    /**
+     * Return a format, which writes and reads runs with the given serializer's writer and iterator.
+     */
+    static <T> RunFormat<T> serialized(Serializer<T,T> serializer, RunCompression compression) {
+        return new RunFormat<T>() {
+            @Override
+            RunWriter<T> newWriter(File file) throws IOException {
+                ObjectWriter<T> writer = compression == RunCompression.NONE ?
+                        serializer.getWriter().clone(file) :
+                        serializer.getWriter().clone(openOutput(file, compression));
+                return new RunWriter<T>() {
+                    @Override
+                    public void write(T object) {
+                        writer.write(object);
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        writer.close();
+                    }
+                };
+            }
+
+            @Override
+            RunReader<T> newReader(File file) throws IOException {
+                ObjectIterator<T> iterator = compression == RunCompression.NONE ?
+                        serializer.getIterator().clone(file) :
+                        serializer.getIterator().clone(openInput(file, compression));
+                return new RunReader<T>() {
+                    @Override
+                    public boolean hasNext() {
+                        return iterator.hasNext();
+                    }
+
+                    @Override
+                    public T next() {
+                        return iterator.next();
+                    }
+
+                    @Override
+                    public void close() throws IOException {
+                        iterator.close();
+                    }
+                };
+            }
+        };
+    }
+
+    /**
+     * Return a format, which writes and reads runs as length-prefixed records encoded with the given codec.
+     */
+    static <T> RunFormat<T> binary(RunCodec<T> codec, RunCompression compression) {
+        return new RunFormat<T>() {
+            @Override
+            RunWriter<T> newWriter(File file) throws IOException {
+                return new BinaryRunWriter<>(codec, new DataOutputStream(openOutput(file, compression)));
+            }
+
+            @Override
+            RunReader<T> newReader(File file) throws IOException {
+                return new BinaryRunReader<>(codec, new DataInputStream(openInput(file, compression)));
+            }
+        };
+    }
+
+    private static OutputStream openOutput(File file, RunCompression compression) throws IOException {
+        OutputStream out = new FileOutputStream(file);
+        if (compression != RunCompression.NONE) {
+            out = compression.compress(out);
+        }
+        return new BufferedOutputStream(out, BUFFER_SIZE);
+    }
+
+    private static InputStream openInput(File file, RunCompression compression) throws IOException {
+        InputStream in = new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE);
+        if (compression != RunCompression.NONE) {
+            in = new BufferedInputStream(compression.decompress(in), BUFFER_SIZE);
+        }
+        return in;
+    }
+
+    /*
+     * Every record is the length of the encoded object as a variable-length integer (seven bits per byte,
+     * the high bit set on all bytes but the last one), followed by the encoded object.
+     */
+    private static final class BinaryRunWriter<T> implements RunWriter<T> {
+
+        private final RunCodec<T> codec;
+        private final DataOutputStream out;
+        private final RecordBuffer record = new RecordBuffer();
+        private final DataOutputStream recordOut = new DataOutputStream(record);
+
+        BinaryRunWriter(RunCodec<T> codec, DataOutputStream out) {
+            this.codec = codec;
+            this.out = out;
+        }
+
+        @Override
+        public void write(T object) {
+            uncheck(() -> {
+                record.reset();
+                codec.encode(object, recordOut);
+                recordOut.flush();
+                int length = record.size();
+                while ((length & ~0x7F) != 0) {
+                    out.write((length & 0x7F) | 0x80);
+                    length >>>= 7;
+                }
+                out.write(length);
+                out.write(record.bytes(), 0, record.size());
+            });
+        }
+
+        @Override
+        public void close() throws IOException {
+            out.close();
+        }
+    }
+
+    private static final class BinaryRunReader<T> implements RunReader<T> {
+
+        private final RunCodec<T> codec;
+        private final DataInputStream in;
+        private final RecordInput record = new RecordInput();
+        private final DataInputStream recordIn = new DataInputStream(record);
+        private byte[] bytes = new byte[256];
+        private T next;
+
+        BinaryRunReader(RunCodec<T> codec, DataInputStream in) {
+            this.codec = codec;
+            this.in = in;
+            next = readNext();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public T next() {
+            if (next == null) throw new NoSuchElementException();
+            T n = next;
+            next = readNext();
+            return n;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private T readNext() {
+            return uncheck(() -> {
+                int b = in.read();
+                if (b < 0) {
+                    return null;
+                }
+                int length = 0;
+                for (int shift = 0; ; shift += 7) {
+                    length |= (b & 0x7F) << shift;
+                    if ((b & 0x80) == 0) break;
+                    if (shift >= 28) throw new IOException("corrupted record length");
+                    b = in.readUnsignedByte();
+                }
+                if (bytes.length < length) {
+                    bytes = new byte[Math.max(length, bytes.length * 2)];
+                }
+                in.readFully(bytes, 0, length);
+                record.reset(bytes, length);
+                return codec.decode(recordIn);
+            });
+        }
+    }
+
+    /*
+     * Byte array output stream, which exposes its buffer, so that records are not copied.
+     */
+    private static final class RecordBuffer extends ByteArrayOutputStream {
+        byte[] bytes() {
+            return buf;
+        }
+    }
+
+    /*
+     * Byte array input stream, which can be pointed to another record.
+     */
+    private static final class RecordInput extends ByteArrayInputStream {
+        RecordInput() {
+            super(new byte[0]);
+        }
+
+        void reset(byte[] bytes, int length) {
+            buf = bytes;
+            pos = 0;
+            count = length;
+            mark = 0;
+        }
+    }
+
+}
@@ -0,0 +1,108 @@
+package cl.util.file.sorter;
+
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+/**
+ * An iterator which merges a number of sorted iterators (runs) into one sorted sequence.
+ *
+ * <p>The merge is done with a tournament (loser) tree, so producing every object takes about
+ * {@code log2(k)} comparisons, where {@code k} is the number of runs. Objects which are equal according to
+ * the comparator are returned in the order of their runs, that is an object from the run with the lower
+ * index comes first. Since runs are created from consecutive portions of the input, this keeps the
+ * merge stable.
+ */
+final class RunMerger<T> implements Iterator<T> {
+
+    private final Iterator<T>[] runs;
+    private final T[] heads;
+    private final Comparator<T> comparator;
+
+    /*
+     * tree[0] holds the index of the run with the smallest head, tree[1..k-1] hold the indexes
+     * of the runs which lost the match at that node. Leaves (positions k..2k-1) are implicit.
+     */
+    private final int[] tree;
+
+    @SuppressWarnings("unchecked")
+    RunMerger(List<? extends Iterator<T>> runs, Comparator<T> comparator) {
+        this.runs = runs.toArray((Iterator<T>[])new Iterator<?>[runs.size()]);
+        this.heads = (T[])new Object[runs.size()];
+        this.comparator = comparator;
+        this.tree = new int[Math.max(runs.size(), 1)];
+        for (int i = 0; i < heads.length; i++) {
+            advance(i);
+        }
+        build();
+    }
+
+    @Override
+    public boolean hasNext() {
+        return heads.length > 0 && heads[tree[0]] != null;
+    }
+
+    @Override
+    public T next() {
+        if (!hasNext()) throw new NoSuchElementException();
+        int winner = tree[0];
+        T next = heads[winner];
+        advance(winner);
+        replay(winner);
+        return next;
+    }
+
+    private void advance(int run) {
+        heads[run] = runs[run].hasNext() ? runs[run].next() : null;
+    }
+
+    private void build() {
+        int k = heads.length;
+        if (k == 0) return;
+        int[] winners = new int[2 * k];
+        for (int i = 0; i < k; i++) {
+            winners[k + i] = i;
+        }
+        for (int n = k - 1; n >= 1; n--) {
+            int a = winners[2 * n];
+            int b = winners[2 * n + 1];
+            if (less(a, b)) {
+                winners[n] = a;
+                tree[n] = b;
+            } else {
+                winners[n] = b;
+                tree[n] = a;
+            }
+        }
+        tree[0] = winners[1];
+    }
+
+    /*
+     * Replay the matches on the path from the given run's leaf to the root.
+     */
+    private void replay(int run) {
+        int winner = run;
+        for (int n = (heads.length + run) >> 1; n >= 1; n >>= 1) {
+            if (less(tree[n], winner)) {
+                int loser = winner;
+                winner = tree[n];
+                tree[n] = loser;
+            }
+        }
+        tree[0] = winner;
+    }
+
+    /*
+     * Exhausted runs lose every match. Ties are resolved by the run index.
+     */
+    private boolean less(int a, int b) {
+        T x = heads[a];
+        T y = heads[b];
+        if (x == null) return false;
+        if (y == null) return true;
+        int c = comparator.compare(x, y);
+        return c < 0 || c == 0 && a < b;
+    }
+
+}
@@ -0,0 +1,274 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static cl.util.file.sorter.FileSorterUtils.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import cl.core.util.FileUtils;
+import cl.serializers.Serializer;
+import cl.serializers.iterators.ObjectIterator;
+import cl.serializers.writers.ObjectWriter;
+import cl.util.file.sorter.RunFormat.RunReader;
+import cl.util.file.sorter.RunFormat.RunWriter;
+
+/**
+ * Implementation of the {@link FileSorter} interface which sorts data with the sample sort algorithm. A random sample
+ * of the input is used to choose splitters, which divide the range of objects into buckets. All objects are then
+ * written to temporary files by their buckets, the buckets are sorted independently by {@link FileSorter#parallelism}
+ * threads, and the sorted buckets are written to the destination one after another. Unlike external merge sort,
+ * there is no merge of all data on one thread, so the sorting scales with the number of threads.
+ *
+ * <p>When the input file is known, the sample is taken from the whole file, which is read once more for that;
+ * otherwise it is taken from the first chunk of the input, which makes buckets uneven when the input is sorted,
+ * or nearly so. Buckets which have more objects than the first chunk are partitioned again by a sample of their own,
+ * until they fit into memory.
+ *
+ * <p>Objects which are equal according to the comparator always go to the same bucket, in the order of the input,
+ * so the sorting is stable. Buckets which fit into memory are sorted in memory; buckets which can't be partitioned
+ * any further (for example, when many objects are equal) are sorted by the external merge sort algorithm with
+ * {@code parallelism} threads.
+ *
+ * <p>In the {@link FileSorter#metrics}, bucket files count as runs, partitioning counts as the split phase,
+ * and sorting the buckets and writing them to the destination counts as the merge phase.
+ */
+public class SampleSortFileSorter<T> extends FileSorterSupport<T> {
+
+    private static final int BUCKETS_PER_THREAD = 4;
+    private static final int SAMPLES_PER_BUCKET = 64;
+
+    private final File original;
+
+    public SampleSortFileSorter(Serializer<T,T> serializer) {
+        this(serializer, null);
+    }
+
+    /**
+     * Create a file sorter, which knows its input file, and samples the whole file to choose splitters.
+     */
+    SampleSortFileSorter(Serializer<T,T> serializer, File original) {
+        super(serializer);
+        this.original = original;
+    }
+
+    @Override
+    protected void sort(Iterator<T> iterator, ObjectWriter<T> writer) throws IOException {
+        int parallelism = Math.max(1, get(FileSorter.parallelism));
+        List<T> chunk = nextChunk(iterator, parallelism + 1, getObjectSizer());
+        if (!iterator.hasNext()) {
+            // the whole input is in the first chunk
+            sortInMemory(chunk);
+            writer.write(chunk);
+            return;
+        }
+
+        RunFormat<T> runFormat = getRunFormat(chunk.get(0));
+        int numBuckets = parallelism * BUCKETS_PER_THREAD;
+        int maxObjectsInMemory = chunk.size();
+        int sampleSize = Math.min(maxObjectsInMemory, numBuckets * SAMPLES_PER_BUCKET);
+        List<T> splitters = chooseSplitters(original != null ? sampleFile(sampleSize) : chunk, numBuckets);
+        Path inprocessDir = Files.createTempDirectory("fs_");
+        ExecutorService pool = newThreadPool(parallelism, "fs-bucket-");
+        SortMetrics metrics = getMetrics();
+        try {
+            long started = metrics.phaseStarted();
+            List<Bucket> buckets = new ArrayList<>();
+            List<Bucket> partitions = partition(chunk, iterator, splitters, runFormat, inprocessDir);
+            chunk = null;
+            for (Bucket bucket : partitions) {
+                metrics.runWritten(bucket.file);
+                rebalance(bucket, numBuckets, maxObjectsInMemory, runFormat, inprocessDir, buckets);
+            }
+            metrics.phaseFinished(SortMetrics.Phase.SPLIT, started);
+            started = metrics.phaseStarted();
+
+            List<Future<File>> sortedBuckets = new ArrayList<>(buckets.size());
+            for (Bucket bucket : buckets) {
+                sortedBuckets.add(pool.submit(() -> sortBucket(bucket, maxObjectsInMemory, runFormat, inprocessDir)));
+            }
+            for (Future<File> sortedBucket : sortedBuckets) {
+                File file = await(sortedBucket);
+                metrics.intermediateFileWritten(file);
+                try (RunReader<T> reader = runFormat.newReader(file)) {
+                    reader.forEachRemaining(writer::write);
+                }
+                file.delete();
+            }
+            metrics.objectsMerged(buckets.stream().mapToLong(bucket -> bucket.numObjects).sum());
+            metrics.phaseFinished(SortMetrics.Phase.MERGE, started);
+        } finally {
+            pool.shutdown();
+            uncheck(() -> pool.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS));
+            File[] files = inprocessDir.toFile().listFiles();
+            if (files != null) {
+                for (File file : files) file.delete();
+            }
+            inprocessDir.toFile().delete();
+        }
+    }
+
+    /*
+     * Take a random sample of the whole input file, which is read by a copy of the serializer's iterator.
+     */
+    private List<T> sampleFile(int sampleSize) {
+        return uncheck(() -> {
+            try (ObjectIterator<T> objects = getSerializer().getIterator().clone(original)) {
+                return sample(getInput(objects), sampleSize);
+            }
+        });
+    }
+
+    /*
+     * Reservoir sampling; the random numbers are seeded, so that sorting is repeatable.
+     */
+    private static <T> List<T> sample(Iterator<T> objects, int sampleSize) {
+        Random random = new Random(sampleSize);
+        List<T> sample = new ArrayList<>(sampleSize);
+        long n = 0;
+        while (objects.hasNext()) {
+            T next = objects.next();
+            n++;
+            if (sample.size() < sampleSize) {
+                sample.add(next);
+            } else {
+                long i = (long)(random.nextDouble() * n);
+                if (i < sampleSize) sample.set((int)i, next);
+            }
+        }
+        return sample;
+    }
+
+    /*
+     * Add the bucket to the list, if it fits into memory. Otherwise, partition it by splitters sampled from the bucket
+     * itself, and rebalance the parts in its place, so the buckets stay in order. Parts which are as large as
+     * the bucket can't be partitioned any further, and are added as they are.
+     */
+    private void rebalance(Bucket bucket, int numBuckets, int maxObjectsInMemory, RunFormat<T> runFormat,
+            Path inprocessDir, List<Bucket> buckets) throws IOException {
+        if (bucket.numObjects <= maxObjectsInMemory) {
+            buckets.add(bucket);
+            return;
+        }
+        List<T> splitters;
+        try (RunReader<T> reader = runFormat.newReader(bucket.file)) {
+            splitters = chooseSplitters(
+                    sample(reader, Math.min(maxObjectsInMemory, numBuckets * SAMPLES_PER_BUCKET)), numBuckets);
+        }
+        if (splitters.isEmpty()) {
+            buckets.add(bucket);
+            return;
+        }
+        List<Bucket> parts;
+        try (RunReader<T> reader = runFormat.newReader(bucket.file)) {
+            parts = partition(Collections.emptyList(), reader, splitters, runFormat, inprocessDir);
+        }
+        bucket.file.delete();
+        for (Bucket part : parts) {
+            getMetrics().runWritten(part.file);
+            if (part.numObjects == 0) {
+                part.file.delete();
+            } else if (part.numObjects == bucket.numObjects) {
+                buckets.add(part);
+            } else {
+                rebalance(part, numBuckets, maxObjectsInMemory, runFormat, inprocessDir, buckets);
+            }
+        }
+    }
+
+    /*
+     * Splitters are evenly spaced objects of the sorted sample. Equal splitters are skipped, since they would
+     * only make empty buckets.
+     */
+    private List<T> chooseSplitters(List<T> sample, int numBuckets) {
+        if (sample.isEmpty()) {
+            return Collections.emptyList();
+        }
+        Comparator<T> comparator = getComparator();
+        List<T> sorted = new ArrayList<>(sample);
+        Collections.sort(sorted, comparator);
+        List<T> splitters = new ArrayList<>(numBuckets - 1);
+        for (int i = 1; i < numBuckets; i++) {
+            T splitter = sorted.get((int)((long)i * sorted.size() / numBuckets));
+            if (splitters.isEmpty() || comparator.compare(splitters.get(splitters.size() - 1), splitter) < 0) {
+                splitters.add(splitter);
+            }
+        }
+        return splitters;
+    }
+
+    /*
+     * An object goes to the first bucket whose splitter is not less than the object, or to the last bucket.
+     */
+    private List<Bucket> partition(List<T> head, Iterator<T> iterator, List<T> splitters, RunFormat<T> runFormat,
+            Path inprocessDir) throws IOException {
+        Comparator<T> comparator = getComparator();
+        List<Bucket> buckets = new ArrayList<>(splitters.size() + 1);
+        List<RunWriter<T>> writers = new ArrayList<>(splitters.size() + 1);
+        try {
+            for (int i = 0; i <= splitters.size(); i++) {
+                Bucket bucket = new Bucket(Files.createTempFile(inprocessDir, "fs_", "_" + i).toFile());
+                buckets.add(bucket);
+                writers.add(runFormat.newWriter(bucket.file));
+            }
+            Iterator<T> objects = head.iterator();
+            while (objects.hasNext() || iterator.hasNext()) {
+                T next = objects.hasNext() ? objects.next() : iterator.next();
+                int from = 0, to = splitters.size();
+                while (from < to) {
+                    int mid = (from + to) >>> 1;
+                    if (comparator.compare(next, splitters.get(mid)) <= 0) to = mid;
+                    else from = mid + 1;
+                }
+                writers.get(from).write(next);
+                buckets.get(from).numObjects++;
+            }
+        } finally {
+            FileUtils.close(writers.toArray(new Closeable[writers.size()]));
+        }
+        return buckets;
+    }
+
+    private File sortBucket(Bucket bucket, int maxObjectsInMemory, RunFormat<T> runFormat, Path inprocessDir)
+            throws IOException {
+        File sorted = Files.createTempFile(inprocessDir, "fs_", "_sorted").toFile();
+        try (RunReader<T> reader = runFormat.newReader(bucket.file);
+             RunWriter<T> writer = runFormat.newWriter(sorted)) {
+            if (bucket.numObjects <= maxObjectsInMemory) {
+                List<T> objects = new ArrayList<>((int)bucket.numObjects);
+                reader.forEachRemaining(objects::add);
+                sortInMemory(objects);
+                writer.write(objects);
+            } else {
+                // the bucket can't be partitioned any further, so it is sorted with all threads
+                ExternalMergeFileSorter<T> sorter = new ExternalMergeFileSorter<>(getSerializer());
+                sorter.withConfigurationFrom(this).locked();
+                sorter.sort(reader, runFormat, writer::write);
+            }
+        }
+        bucket.file.delete();
+        return sorted;
+    }
+
+    private static final class Bucket {
+        final File file;
+        long numObjects;
+
+        Bucket(File file) {
+            this.file = file;
+        }
+    }
+
+}
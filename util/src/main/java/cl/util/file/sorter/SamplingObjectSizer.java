@@ -0,0 +1,31 @@
+package cl.util.file.sorter;
+
+/**
+ * Implementation of {@link ObjectSizer#sampling(ObjectSizer, int)}.
+ */
+final class SamplingObjectSizer<T> implements ObjectSizer<T> {
+
+    private final ObjectSizer<T> sizer;
+    private final int sampleRate;
+
+    private long count;
+    private long numSamples;
+    private long totalSampledSize;
+
+    SamplingObjectSizer(ObjectSizer<T> sizer, int sampleRate) {
+        this.sizer = sizer;
+        this.sampleRate = Math.max(1, sampleRate);
+    }
+
+    @Override
+    public long sizeOf(T object) {
+        if (count++ % sampleRate == 0) {
+            long size = sizer.sizeOf(object);
+            numSamples++;
+            totalSampledSize += size;
+            return size;
+        }
+        return totalSampledSize / numSamples;
+    }
+
+}
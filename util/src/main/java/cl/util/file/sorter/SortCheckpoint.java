@@ -0,0 +1,193 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Progress of an external merge sort, which is kept in a work directory, so that a sort which was interrupted
+ * can be resumed from its last completed step (see {@link FileSorter#checkpointDir}).
+ *
+ * <p>The directory holds the sorted temporary files and a manifest, which lists the files that are complete,
+ * the number of input objects written to them, and whether the input has been read to the end. The manifest is
+ * replaced atomically after each step, so it always describes complete files. Files which are not in
+ * the manifest were being written when the sort was interrupted, and are deleted when the checkpoint is opened.
+ * Other files in the directory are left alone.
+ *
+ * <p>The manifest also records the input of the sort (its path, length, and time of the last modification, when
+ * the file is known) and the class of the comparator. If they don't match the sort which opens the checkpoint,
+ * the progress belongs to another input or order, so it is discarded, and the sort starts from the beginning.
+ */
+final class SortCheckpoint {
+
+    static final String RUN_PREFIX = "fs_";
+    private static final String MANIFEST = "manifest";
+    private static final String CONSUMED = "consumed";
+    private static final String SPLIT_DONE = "splitDone";
+    private static final String RUNS = "runs";
+    private static final String INPUT = "input";
+    private static final String INPUT_LENGTH = "inputLength";
+    private static final String INPUT_LAST_MODIFIED = "inputLastModified";
+    private static final String COMPARATOR = "comparator";
+
+    private final Path dir;
+    private final Properties identity;
+    private long consumed;
+    private boolean splitDone;
+    private List<File> runs;
+
+    private SortCheckpoint(Path dir, Properties identity) {
+        this.dir = dir;
+        this.identity = identity;
+    }
+
+    /**
+     * Open the checkpoint in the directory, which is created if it doesn't exist. If the directory has
+     * a manifest of the same input and comparator, the progress is read from it.
+     *
+     * @param input       the input file, or null, if it is not known
+     * @param comparator  the comparator of the sort
+     */
+    static SortCheckpoint open(File dir, File input, Comparator<?> comparator) {
+        return uncheck(() -> {
+            SortCheckpoint checkpoint = new SortCheckpoint(Files.createDirectories(dir.toPath()),
+                    identify(input, comparator));
+            checkpoint.read();
+            return checkpoint;
+        });
+    }
+
+    Path getDir() {
+        return dir;
+    }
+
+    /**
+     * Number of input objects which are in the files of the checkpoint.
+     */
+    long getConsumed() {
+        return consumed;
+    }
+
+    boolean isSplitDone() {
+        return splitDone;
+    }
+
+    /**
+     * Complete sorted files, in the order of the input.
+     */
+    List<File> getRuns() {
+        return new ArrayList<>(runs);
+    }
+
+    /**
+     * Record a sorted file of the given number of input objects.
+     */
+    void runWritten(File run, int numObjects) {
+        runs.add(run);
+        consumed += numObjects;
+        write();
+    }
+
+    /**
+     * Record that the input has been read to the end.
+     */
+    void splitDone() {
+        splitDone = true;
+        write();
+    }
+
+    /**
+     * Record the files after a merge pass, which replaced some of the files with their merge.
+     */
+    void merged(List<File> runs) {
+        this.runs = new ArrayList<>(runs);
+        write();
+    }
+
+    /**
+     * Delete the manifest and the files of the checkpoint. The directory itself is left in place.
+     */
+    void delete() {
+        runs.forEach(File::delete);
+        dir.resolve(MANIFEST).toFile().delete();
+    }
+
+    private void read() throws IOException {
+        Path manifest = dir.resolve(MANIFEST);
+        Properties p = new Properties();
+        if (Files.exists(manifest)) {
+            try (InputStream in = Files.newInputStream(manifest)) {
+                p.load(in);
+            }
+        }
+        if (!Stream.of(INPUT, INPUT_LENGTH, INPUT_LAST_MODIFIED, COMPARATOR)
+                .allMatch(key -> identity.getProperty(key, "").equals(p.getProperty(key, "")))) {
+            // the progress of another sort
+            p.clear();
+        }
+        consumed = Long.parseLong(p.getProperty(CONSUMED, "0"));
+        splitDone = Boolean.parseBoolean(p.getProperty(SPLIT_DONE, "false"));
+        String names = p.getProperty(RUNS, "");
+        runs = names.isEmpty() ? new ArrayList<>() :
+            Arrays.stream(names.split(",")).map(name -> dir.resolve(name).toFile()).collect(Collectors.toList());
+
+        Set<File> keep = new HashSet<>(runs);
+        keep.add(manifest.toFile());
+        File[] files = dir.toFile().listFiles();
+        for (File file : files == null ? Collections.<File>emptyList() : Arrays.asList(files)) {
+            boolean ours = file.getName().startsWith(RUN_PREFIX) || file.getName().equals(MANIFEST + ".tmp");
+            if (file.isFile() && ours && !keep.contains(file)) {
+                file.delete();
+            }
+        }
+    }
+
+    private void write() {
+        uncheck(() -> {
+            Properties p = new Properties();
+            p.putAll(identity);
+            p.setProperty(CONSUMED, String.valueOf(consumed));
+            p.setProperty(SPLIT_DONE, String.valueOf(splitDone));
+            p.setProperty(RUNS, runs.stream().map(File::getName).collect(Collectors.joining(",")));
+            Path tmp = dir.resolve(MANIFEST + ".tmp");
+            try (OutputStream out = Files.newOutputStream(tmp)) {
+                p.store(out, null);
+            }
+            Files.move(tmp, dir.resolve(MANIFEST), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        });
+    }
+
+    /*
+     * Properties which identify the input and the comparator. Lambdas are identified by the class which defines them,
+     * since the names of their own classes change from run to run.
+     */
+    private static Properties identify(File input, Comparator<?> comparator) {
+        Properties identity = new Properties();
+        if (input != null) {
+            identity.setProperty(INPUT, input.getAbsolutePath());
+            identity.setProperty(INPUT_LENGTH, String.valueOf(input.length()));
+            identity.setProperty(INPUT_LAST_MODIFIED, String.valueOf(input.lastModified()));
+        }
+        String name = comparator.getClass().getName();
+        int lambda = name.indexOf("$$Lambda");
+        identity.setProperty(COMPARATOR, lambda < 0 ? name : name.substring(0, lambda));
+        return identity;
+    }
+
+}
@@ -0,0 +1,205 @@
+package cl.util.file.sorter;
+
+import java.io.File;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Counters of a file sort, which are updated by file sorters while they work (see {@link FileSorter#metrics}).
+ * The counters may be read at any time from any thread, for example, by a monitoring thread, or by
+ * the progress listener, which is called every {@code progressInterval} objects read, and at the end of each phase.
+ *
+ * <p>Counters are updated in batches, or once per temporary file, so they are cheap enough to be left on.
+ * The exception is counting comparator calls, which adds to each comparison, and is off by default.
+ *
+ * <p>Phases are: {@link Phase#SPLIT}, which reads the input and writes sorted temporary files,
+ * {@link Phase#MERGE}, which merges temporary files into the result, and {@link Phase#IN_MEMORY}, which sorts
+ * the input in memory. A metrics object may be shared by several sorts, and then it adds up their counters.
+ */
+public class SortMetrics {
+
+    /**
+     * Phases of a sort.
+     */
+    public enum Phase { SPLIT, MERGE, IN_MEMORY }
+
+    private static final int FLUSH_INTERVAL = 1024;
+
+    private final boolean countComparisons;
+    private final long progressInterval;
+    private final Consumer<SortMetrics> listener;
+
+    private final AtomicLong objectsRead = new AtomicLong();
+    private final AtomicLong runsWritten = new AtomicLong();
+    private final AtomicLong intermediateFilesWritten = new AtomicLong();
+    private final AtomicLong bytesSpilled = new AtomicLong();
+    private final AtomicLong objectsMerged = new AtomicLong();
+    private final LongAdder comparisons = new LongAdder();
+    private final AtomicLong[] phaseNanos = new AtomicLong[Phase.values().length];
+
+    /**
+     * Create metrics without a progress listener, which don't count comparator calls.
+     */
+    public SortMetrics() {
+        this(false, 0, null);
+    }
+
+    /**
+     * Create metrics.
+     *
+     * @param countComparisons  count comparator calls
+     * @param progressInterval  number of objects read between calls to the listener; zero means the listener is
+     *                          called at the end of each phase only
+     * @param listener          progress listener, or {@code null}
+     */
+    public SortMetrics(boolean countComparisons, long progressInterval, Consumer<SortMetrics> listener) {
+        this.countComparisons = countComparisons;
+        this.progressInterval = progressInterval;
+        this.listener = listener;
+        for (int i = 0; i < phaseNanos.length; i++) {
+            phaseNanos[i] = new AtomicLong();
+        }
+    }
+
+    /** Number of input objects read. */
+    public long getObjectsRead() {
+        return objectsRead.get();
+    }
+
+    /** Number of sorted temporary files written while splitting the input. */
+    public long getRunsWritten() {
+        return runsWritten.get();
+    }
+
+    /** Number of temporary files written by intermediate merge passes. */
+    public long getIntermediateFilesWritten() {
+        return intermediateFilesWritten.get();
+    }
+
+    /** Number of bytes written to temporary files. */
+    public long getBytesSpilled() {
+        return bytesSpilled.get();
+    }
+
+    /** Number of objects which came out of merges, including intermediate merge passes. */
+    public long getObjectsMerged() {
+        return objectsMerged.get();
+    }
+
+    /** Number of comparator calls, if they are counted, or zero. */
+    public long getComparisons() {
+        return comparisons.sum();
+    }
+
+    /** Wall time spent in a phase. */
+    public long getPhaseTime(Phase phase, TimeUnit unit) {
+        return unit.convert(phaseNanos[phase.ordinal()].get(), TimeUnit.NANOSECONDS);
+    }
+
+    /** Objects merged per second of the merge phase. */
+    public double getMergeThroughput() {
+        long nanos = phaseNanos[Phase.MERGE.ordinal()].get();
+        return nanos == 0 ? 0 : getObjectsMerged() * 1e9 / nanos;
+    }
+
+    @Override
+    public String toString() {
+        return "read " + getObjectsRead() + " objects, wrote " + getRunsWritten() + " runs and "
+                + getIntermediateFilesWritten() + " intermediate files (" + getBytesSpilled() + " bytes), merged "
+                + getObjectsMerged() + " objects, " + getComparisons() + " comparisons; split "
+                + getPhaseTime(Phase.SPLIT, TimeUnit.MILLISECONDS) + " ms, merge "
+                + getPhaseTime(Phase.MERGE, TimeUnit.MILLISECONDS) + " ms, in memory "
+                + getPhaseTime(Phase.IN_MEMORY, TimeUnit.MILLISECONDS) + " ms";
+    }
+
+    /*
+     * The methods below are called by file sorters.
+     */
+
+    /**
+     * Return an iterator, which counts the objects read, and calls the listener every progress interval.
+     */
+    <T> Iterator<T> countReads(Iterator<T> iterator) {
+        return new Iterator<T>() {
+            private long unflushed;
+
+            @Override
+            public boolean hasNext() {
+                if (iterator.hasNext()) {
+                    return true;
+                }
+                flush();
+                return false;
+            }
+
+            @Override
+            public T next() {
+                T next = iterator.next();
+                if (++unflushed == FLUSH_INTERVAL) {
+                    flush();
+                }
+                return next;
+            }
+
+            private void flush() {
+                if (unflushed > 0) {
+                    objectsRead(unflushed);
+                    unflushed = 0;
+                }
+            }
+        };
+    }
+
+    void objectsRead(long n) {
+        long before = objectsRead.getAndAdd(n);
+        if (listener != null && progressInterval > 0 && (before + n) / progressInterval > before / progressInterval) {
+            listener.accept(this);
+        }
+    }
+
+    void runWritten(File run) {
+        runsWritten.incrementAndGet();
+        bytesSpilled.addAndGet(run.length());
+    }
+
+    void intermediateFileWritten(File file) {
+        intermediateFilesWritten.incrementAndGet();
+        bytesSpilled.addAndGet(file.length());
+    }
+
+    void objectsMerged(long n) {
+        objectsMerged.addAndGet(n);
+    }
+
+    /**
+     * Return a comparator, which counts its calls, if comparisons are counted, or the comparator itself.
+     */
+    <T> Comparator<T> countComparisons(Comparator<T> comparator) {
+        if (!countComparisons) {
+            return comparator;
+        }
+        return (a, b) -> {
+            comparisons.increment();
+            return comparator.compare(a, b);
+        };
+    }
+
+    /**
+     * Return the current time, which is passed to {@link SortMetrics#phaseFinished(Phase, long)} later.
+     */
+    long phaseStarted() {
+        return System.nanoTime();
+    }
+
+    void phaseFinished(Phase phase, long startNanos) {
+        phaseNanos[phase.ordinal()].addAndGet(System.nanoTime() - startNanos);
+        if (listener != null) {
+            listener.accept(this);
+        }
+    }
+
+}
@@ -0,0 +1,159 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static java.util.Spliterator.*;
+import static java.util.stream.Collectors.*;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Spliterators;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import cl.core.util.FileUtils;
+import cl.serializers.iterators.ObjectIterator;
+
+/**
+ * Reader which finds objects in a sorted file by the index, which a file sorter writes when
+ * {@link FileSorter#indexFile} is set. The index holds the positions of every n-th object of the file. A lookup
+ * finds the right part of the file by a binary search over the objects at these positions, and then reads the file
+ * from there, so only about {@link FileSorter#indexInterval} objects are read besides the ones which are found.
+ * The objects at the indexed positions are read once, when the binary search first needs them.
+ *
+ * <p>The objects are read with iterators which are cloned from the given iterator with
+ * {@link ObjectIterator#clone(java.io.InputStream)}, so the given iterator should be of the same type and
+ * configuration as the iterator which reads the sorted file, except that it must not skip header lines.
+ * The comparator must be the one the file is sorted by.
+ *
+ * <p>Instances of this class are not thread-safe.
+ */
+public class SortedFileReader<T> {
+
+    private final File file;
+    private final ObjectIterator<T> iterator;
+    private final Comparator<? super T> comparator;
+    private final long[] positions;
+    private final Object[] indexedObjects;
+
+    /**
+     * Create a reader.
+     *
+     * @param file        sorted file
+     * @param indexFile   index of the sorted file
+     * @param iterator    iterator, whose clones read the sorted file
+     * @param comparator  comparator, by which the file is sorted
+     */
+    public SortedFileReader(File file, File indexFile, ObjectIterator<T> iterator, Comparator<? super T> comparator) {
+        this.file = file;
+        this.iterator = iterator;
+        this.comparator = comparator;
+        this.positions = readIndex(indexFile);
+        this.indexedObjects = new Object[positions.length];
+    }
+
+    /**
+     * Return all objects which are equal to the given key according to the comparator, in the order of the file.
+     */
+    public List<T> get(T key) {
+        try (Stream<T> objects = find(key, o -> comparator.compare(o, key) == 0)) {
+            return objects.collect(toList());
+        }
+    }
+
+    /**
+     * Return a stream of objects, which are not less than {@code from}, and less than {@code to}, in the order
+     * of the file. The stream holds the file open, and should be closed.
+     */
+    public Stream<T> range(T from, T to) {
+        return find(from, o -> comparator.compare(o, to) < 0);
+    }
+
+    /*
+     * Objects equal to 'from' may start before the indexed object which equals to it, so the reading starts
+     * from the last indexed object which is less than 'from'.
+     */
+    private Stream<T> find(T from, Predicate<T> inRange) {
+        if (positions.length == 0) {
+            return Stream.empty();
+        }
+        int lo = 0, hi = positions.length - 1;
+        while (lo < hi) {
+            int mid = (lo + hi + 1) >>> 1;
+            if (comparator.compare(indexedObject(mid), from) < 0) lo = mid;
+            else hi = mid - 1;
+        }
+        ObjectIterator<T> objects = open(positions[lo]);
+        Iterator<T> found = new Iterator<T>() {
+            private T next = advance();
+
+            private T advance() {
+                while (objects.hasNext()) {
+                    T o = objects.next();
+                    if (comparator.compare(o, from) >= 0) {
+                        return inRange.test(o) ? o : null;
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next != null;
+            }
+
+            @Override
+            public T next() {
+                if (next == null) throw new NoSuchElementException();
+                T n = next;
+                next = objects.hasNext() ? objects.next() : null;
+                if (next != null && !inRange.test(next)) next = null;
+                return n;
+            }
+        };
+        return StreamSupport.stream(Spliterators.spliteratorUnknownSize(found, ORDERED | NONNULL), false)
+                .onClose(() -> FileUtils.close(objects));
+    }
+
+    @SuppressWarnings("unchecked")
+    private T indexedObject(int i) {
+        if (indexedObjects[i] == null) {
+            indexedObjects[i] = uncheck(() -> {
+                try (ObjectIterator<T> objects = open(positions[i])) {
+                    return objects.next();
+                }
+            });
+        }
+        return (T)indexedObjects[i];
+    }
+
+    private ObjectIterator<T> open(long position) {
+        FileInputStream in = uncheck(() -> new FileInputStream(file));
+        try {
+            uncheck(() -> in.getChannel().position(position));
+            return iterator.clone(new BufferedInputStream(in));
+        } catch (RuntimeException e) {
+            FileUtils.close(in);
+            throw e;
+        }
+    }
+
+    private static long[] readIndex(File indexFile) {
+        return uncheck(() -> {
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(indexFile)))) {
+                long[] positions = new long[(int)(indexFile.length() / Long.BYTES)];
+                for (int i = 0; i < positions.length; i++) {
+                    positions[i] = in.readLong();
+                }
+                return positions;
+            }
+        });
+    }
+
+}
@@ -0,0 +1,313 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+import java.util.function.BiFunction;
+import java.util.function.Function;
+
+import cl.serializers.SerializationType;
+import cl.serializers.Serializer;
+import cl.serializers.iterators.ObjectIterator;
+import cl.serializers.writers.ObjectWriter;
+
+/**
+ * Set operations and joins over sorted files. These are the streaming counterparts of the operations in
+ * {@link cl.core.util.Sets}: both inputs are read once, in lockstep, so memory use does not depend on the size of
+ * the inputs, and the results are written to an {@link ObjectWriter}.
+ *
+ * <p>Set operations treat objects which are equal according to the comparator as the same element, so their results
+ * have no duplicates. When an element is in both inputs, the object from the first input is written.
+ *
+ * <p>The methods which take iterators expect the inputs to be sorted by the given comparator, and throw
+ * {@code IllegalArgumentException} when they find an object out of order. The methods which take files check
+ * their inputs first, and sort the ones which are not sorted into temporary files with the default file sorter.
+ *
+ * <p>The {@code isSorted()} methods check whether iterators or files are sorted.
+ */
+public final class SortedFiles {
+
+    private SortedFiles() {}
+
+    /**
+     * Write the union of two sorted inputs.
+     *
+     * @param a           first sorted input
+     * @param b           second sorted input
+     * @param comparator  comparator, by which the inputs are sorted
+     * @param writer      destination of the result, which is left open
+     */
+    public static <T> void union(Iterator<T> a, Iterator<T> b, Comparator<? super T> comparator, ObjectWriter<T> writer) {
+        merge(a, b, comparator, writer, true, true, true);
+    }
+
+    /**
+     * Write the intersection of two sorted inputs.
+     *
+     * @param a           first sorted input
+     * @param b           second sorted input
+     * @param comparator  comparator, by which the inputs are sorted
+     * @param writer      destination of the result, which is left open
+     */
+    public static <T> void intersection(Iterator<T> a, Iterator<T> b, Comparator<? super T> comparator,
+            ObjectWriter<T> writer) {
+        merge(a, b, comparator, writer, false, true, false);
+    }
+
+    /**
+     * Write the elements of the first sorted input, which are not in the second one.
+     *
+     * @param a           first sorted input
+     * @param b           second sorted input
+     * @param comparator  comparator, by which the inputs are sorted
+     * @param writer      destination of the result, which is left open
+     */
+    public static <T> void difference(Iterator<T> a, Iterator<T> b, Comparator<? super T> comparator,
+            ObjectWriter<T> writer) {
+        merge(a, b, comparator, writer, true, false, false);
+    }
+
+    /**
+     * Write the elements, which are in exactly one of two sorted inputs.
+     *
+     * @param a           first sorted input
+     * @param b           second sorted input
+     * @param comparator  comparator, by which the inputs are sorted
+     * @param writer      destination of the result, which is left open
+     */
+    public static <T> void complement(Iterator<T> a, Iterator<T> b, Comparator<? super T> comparator,
+            ObjectWriter<T> writer) {
+        merge(a, b, comparator, writer, true, false, true);
+    }
+
+    /**
+     * Join two inputs sorted by their keys, and write the combinations of every pair of objects with equal keys
+     * (an inner join). The objects of the second input, which share one key, are held in memory while they are
+     * combined with the objects of the first input.
+     *
+     * @param a              first input, sorted by its key
+     * @param b              second input, sorted by its key
+     * @param keyA           key of an object of the first input
+     * @param keyB           key of an object of the second input
+     * @param keyComparator  comparator of keys, by which the inputs are sorted
+     * @param combiner       function which combines a pair of joined objects into a result
+     * @param writer         destination of the results, which is left open
+     */
+    public static <A,B,K,R> void join(Iterator<A> a, Iterator<B> b, Function<A,K> keyA, Function<B,K> keyB,
+            Comparator<? super K> keyComparator, BiFunction<A,B,R> combiner, ObjectWriter<R> writer) {
+        SortedInput<A> as = new SortedInput<>(a, Comparator.comparing(keyA, keyComparator));
+        SortedInput<B> bs = new SortedInput<>(b, Comparator.comparing(keyB, keyComparator));
+        List<B> group = new ArrayList<>();
+        while (as.hasNext() && bs.hasNext()) {
+            K key = keyB.apply(bs.peek());
+            int c = keyComparator.compare(keyA.apply(as.peek()), key);
+            if (c < 0) {
+                as.next();
+            } else if (c > 0) {
+                bs.next();
+            } else {
+                group.clear();
+                while (bs.hasNext() && keyComparator.compare(keyB.apply(bs.peek()), key) == 0) {
+                    group.add(bs.next());
+                }
+                while (as.hasNext() && keyComparator.compare(keyA.apply(as.peek()), key) == 0) {
+                    A x = as.next();
+                    group.forEach(y -> writer.write(combiner.apply(x, y)));
+                }
+            }
+        }
+    }
+
+    /**
+     * Write the union of two files into the result file. See {@link SortedFiles} for how the inputs are sorted.
+     */
+    public static <T> void union(File a, File b, File result, SerializationType serializationType, Class<T> klass,
+            Comparator<T> comparator) {
+        withSortedInputs(a, b, result, serializationType, klass, comparator,
+                (as, bs, writer) -> union(as, bs, comparator, writer));
+    }
+
+    /**
+     * Write the intersection of two files into the result file. See {@link SortedFiles} for how the inputs are sorted.
+     */
+    public static <T> void intersection(File a, File b, File result, SerializationType serializationType,
+            Class<T> klass, Comparator<T> comparator) {
+        withSortedInputs(a, b, result, serializationType, klass, comparator,
+                (as, bs, writer) -> intersection(as, bs, comparator, writer));
+    }
+
+    /**
+     * Write the elements of the first file, which are not in the second one, into the result file.
+     * See {@link SortedFiles} for how the inputs are sorted.
+     */
+    public static <T> void difference(File a, File b, File result, SerializationType serializationType,
+            Class<T> klass, Comparator<T> comparator) {
+        withSortedInputs(a, b, result, serializationType, klass, comparator,
+                (as, bs, writer) -> difference(as, bs, comparator, writer));
+    }
+
+    /**
+     * Write the elements, which are in exactly one of two files, into the result file.
+     * See {@link SortedFiles} for how the inputs are sorted.
+     */
+    public static <T> void complement(File a, File b, File result, SerializationType serializationType,
+            Class<T> klass, Comparator<T> comparator) {
+        withSortedInputs(a, b, result, serializationType, klass, comparator,
+                (as, bs, writer) -> complement(as, bs, comparator, writer));
+    }
+
+    /*
+     * Walk both inputs in lockstep, and for each element decide by where it is found whether to write it.
+     */
+    private static <T> void merge(Iterator<T> a, Iterator<T> b, Comparator<? super T> comparator,
+            ObjectWriter<T> writer, boolean onlyInA, boolean inBoth, boolean onlyInB) {
+        SortedInput<T> as = new SortedInput<>(a, comparator);
+        SortedInput<T> bs = new SortedInput<>(b, comparator);
+        while (as.hasNext() || bs.hasNext()) {
+            int c = !as.hasNext() ? 1 : !bs.hasNext() ? -1 : comparator.compare(as.peek(), bs.peek());
+            T element = c <= 0 ? as.peek() : bs.peek();
+            if (c < 0 ? onlyInA : c > 0 ? onlyInB : inBoth) {
+                writer.write(element);
+            }
+            if (c <= 0) as.skip(element);
+            if (c >= 0) bs.skip(element);
+        }
+    }
+
+    /*
+     * The serializer reads the first file and writes the result. Its iterator is cloned to check and read both
+     * inputs, so that they are read with the same configuration.
+     */
+    private static <T> void withSortedInputs(File a, File b, File result, SerializationType serializationType,
+            Class<T> klass, Comparator<T> comparator, Operation<T> operation) {
+        uncheck(() -> {
+            try (Serializer<T,T> serializer = Serializer.serializer(a, result, serializationType, klass)) {
+                ObjectIterator<T> iterator = serializer.getIterator();
+                File sortedA = sortIfNeeded(a, iterator, serializationType, klass, comparator);
+                File sortedB = a.equals(b) ? sortedA : sortIfNeeded(b, iterator, serializationType, klass, comparator);
+                try (ObjectIterator<T> as = iterator.clone(sortedA);
+                     ObjectIterator<T> bs = iterator.clone(sortedB)) {
+                    operation.apply(as, bs, serializer.getWriter());
+                } finally {
+                    if (sortedA != a) sortedA.delete();
+                    if (sortedB != b) sortedB.delete();
+                }
+            }
+        });
+    }
+
+    /*
+     * Return the file itself, if it is sorted, or a temporary sorted copy of it.
+     */
+    private static <T> File sortIfNeeded(File file, ObjectIterator<T> iterator, SerializationType serializationType,
+            Class<T> klass, Comparator<T> comparator) {
+        boolean sorted = uncheck(() -> {
+            try (ObjectIterator<T> objects = iterator.clone(file)) {
+                return isSorted(objects, comparator);
+            }
+        });
+        if (sorted) {
+            return file;
+        }
+        File tmp = uncheck(() -> File.createTempFile("fs_", ".sorted"));
+        FileSorter.getFileSorter(file, tmp, serializationType, klass, comparator, false).sort();
+        return tmp;
+    }
+
+    /**
+     * Check if the objects are sorted by the comparator. Objects are read until the first one which is out of order.
+     */
+    public static <T> boolean isSorted(Iterator<T> objects, Comparator<? super T> comparator) {
+        T prev = null;
+        while (objects.hasNext()) {
+            T next = objects.next();
+            if (prev != null && comparator.compare(prev, next) > 0) return false;
+            prev = next;
+        }
+        return true;
+    }
+
+    /**
+     * Check if a file is sorted by the comparator. The file is read until the first object which is out of order.
+     */
+    public static <T> boolean isSorted(File file, SerializationType serializationType, Class<T> klass,
+            Comparator<? super T> comparator) {
+        // the serializer writes nothing, but it can't be created without an output
+        return uncheck(() -> {
+            try (Serializer<T,T> serializer = Serializer.serializer(file, new ByteArrayOutputStream(),
+                    serializationType, serializationType, Optional.of(klass), Optional.empty())) {
+                return isSorted(serializer.getIterator(), comparator);
+            }
+        });
+    }
+
+    /**
+     * Check if a text file is sorted in the natural order of its lines.
+     */
+    public static boolean isSorted(File file) {
+        return isSorted(file, SerializationType.STRING, String.class, Comparator.naturalOrder());
+    }
+
+    @FunctionalInterface
+    private static interface Operation<T> {
+        void apply(Iterator<T> a, Iterator<T> b, ObjectWriter<T> writer);
+    }
+
+    /*
+     * Input which can peek at its next object, and checks that the objects come in order.
+     */
+    private static final class SortedInput<T> implements Iterator<T> {
+        private final Iterator<T> iterator;
+        private final Comparator<? super T> comparator;
+        private T next;
+        private boolean hasNext;
+
+        SortedInput(Iterator<T> iterator, Comparator<? super T> comparator) {
+            this.iterator = iterator;
+            this.comparator = comparator;
+            advance();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return hasNext;
+        }
+
+        T peek() {
+            if (!hasNext) throw new NoSuchElementException();
+            return next;
+        }
+
+        @Override
+        public T next() {
+            T n = peek();
+            advance();
+            if (hasNext && comparator.compare(n, next) > 0) {
+                throw new IllegalArgumentException("input is not sorted: " + next + " follows " + n);
+            }
+            return n;
+        }
+
+        /*
+         * Skip objects equal to the given one.
+         */
+        void skip(T element) {
+            while (hasNext && comparator.compare(next, element) == 0) {
+                next();
+            }
+        }
+
+        private void advance() {
+            hasNext = iterator.hasNext();
+            next = hasNext ? iterator.next() : null;
+        }
+    }
+
+}
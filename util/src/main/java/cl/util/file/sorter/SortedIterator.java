@@ -0,0 +1,58 @@
+package cl.util.file.sorter;
+
+import java.io.Closeable;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * Iterator over sorted objects, which are merged from temporary files as they are read (see {@link StreamSorter}).
+ * The iterator must be closed, which deletes the temporary files, even if it is not read to the end.
+ *
+ * @param <T> type of objects
+ */
+public interface SortedIterator<T> extends Iterator<T>, Closeable {
+
+    /**
+     * Close the iterator, and delete its temporary files.
+     *
+     * @throws java.io.UncheckedIOException if the files cannot be closed
+     */
+    @Override
+    void close();
+
+    /**
+     * Return a sequential stream of the remaining objects. Closing the stream closes this iterator.
+     */
+    default Stream<T> stream() {
+        return StreamSupport.stream(
+                Spliterators.spliteratorUnknownSize(this, Spliterator.ORDERED | Spliterator.NONNULL), false)
+                .onClose(this::close);
+    }
+
+    /**
+     * Return an iterator over the list, which is already sorted. Closing it does nothing.
+     */
+    static <T> SortedIterator<T> of(List<T> sorted) {
+        Iterator<T> iterator = sorted.iterator();
+        return new SortedIterator<T>() {
+            @Override
+            public boolean hasNext() {
+                return iterator.hasNext();
+            }
+
+            @Override
+            public T next() {
+                return iterator.next();
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+}
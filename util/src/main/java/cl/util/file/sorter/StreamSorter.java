@@ -0,0 +1,142 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Collector;
+import java.util.stream.Stream;
+
+import cl.core.configurable.ConfigurableObject;
+
+/**
+ * Sorts objects of a stream or an iterator, and returns them as a stream or an iterator, without writing
+ * the input to a file and reading the result back. This fits between two stages of an in-process pipeline.
+ *
+ * <p>Objects are sorted the same way as the 'external merge sort' algorithm sorts files: sorted chunks are written
+ * to temporary files, which are merged as the result is read. If all objects fit into one chunk, they are sorted
+ * in memory, and no files are written. The result must be closed (a stream with {@code close()}, or
+ * a {@link SortedIterator}), which deletes the temporary files.
+ *
+ * <p>Stream sorter is a configurable object, which accepts the following {@link FileSorter} keys:
+ * {@link FileSorter#comparator}, {@link FileSorter#numObjectsPerFile}, {@link FileSorter#memoryBudgetBytes},
+ * {@link FileSorter#objectSizer}, {@link FileSorter#parallelism}, {@link FileSorter#maxMergeFanIn},
+ * {@link FileSorter#readAheadObjects}, {@link FileSorter#spillDirectories}, {@link FileSorter#runCodec},
+ * {@link FileSorter#runCompression}, and {@link FileSorter#removeDuplicates}. There is no serializer, so objects
+ * other than strings are written to temporary files with Java serialization, unless a run codec is given.
+ *
+ * <pre>{@code
+ *    StreamSorter<String> sorter = new StreamSorter<String>()
+ *        .with(FileSorter.comparator, byLength).locked();
+ *    try (Stream<String> sorted = sorter.sort(lines)) {
+ *        sorted.forEach(...);
+ *    }
+ * }</pre>
+ *
+ * @param <T> type of objects
+ */
+public final class StreamSorter<T> extends ConfigurableObject<StreamSorter<T>> {
+
+    /**
+     * Sort the objects of the iterator. The returned iterator must be closed.
+     */
+    public SortedIterator<T> sort(Iterator<T> iterator) {
+        requireLock();
+        return newSorter().sortLazily(iterator);
+    }
+
+    /**
+     * Sort the objects of the stream. The returned stream must be closed, which closes the given stream, too.
+     */
+    public Stream<T> sort(Stream<T> stream) {
+        return sort(stream.iterator()).stream().onClose(stream::close);
+    }
+
+    /**
+     * Return a collector, which collects objects into sorted temporary files, and returns a stream, which merges
+     * them. Parallel streams are supported, and the order of equal objects is kept. The returned stream
+     * must be closed.
+     */
+    public Collector<T,?,Stream<T>> toSortedStream() {
+        requireLock();
+        return Collector.of(Runs::new, Runs::add, Runs::combine, Runs::finish);
+    }
+
+    private ExternalMergeFileSorter<T> newSorter() {
+        // the sorter reads and writes temporary files only, so it doesn't need a serializer
+        ExternalMergeFileSorter<T> sorter = new ExternalMergeFileSorter<>(null);
+        sorter.withConfigurationFrom(this).locked();
+        return sorter;
+    }
+
+    /*
+     * Objects of a part of the stream: a chunk in memory, preceded by sorted temporary files.
+     */
+    private final class Runs {
+        private final ExternalMergeFileSorter<T> sorter = newSorter();
+        private final ObjectSizer<T> sizer = sorter.getObjectSizer();
+        private final Optional<Long> memoryBudget = sorter.get(FileSorter.memoryBudgetBytes);
+        private final int maxChunkObjects = sorter.get(FileSorter.numObjectsPerFile);
+        private List<T> chunk = new ArrayList<>();
+        private long chunkSize;
+        private final List<File> files = new ArrayList<>();
+        private final List<Path> dirs = new ArrayList<>();
+        private RunFormat<T> runFormat;
+
+        void add(T object) {
+            chunk.add(object);
+            if (memoryBudget.isPresent()) {
+                chunkSize += FileSorterSupport.sizeInList(sizer, object);
+            }
+            if (memoryBudget.isPresent() ? chunkSize >= memoryBudget.get() : chunk.size() >= maxChunkObjects) {
+                flush();
+            }
+        }
+
+        /*
+         * The other part follows this one, so this part's chunk is written before the other part's files.
+         */
+        Runs combine(Runs other) {
+            if (other.files.isEmpty()) {
+                other.chunk.forEach(this::add);
+                return this;
+            }
+            flush();
+            files.addAll(other.files);
+            dirs.addAll(other.dirs);
+            if (runFormat == null) {
+                runFormat = other.runFormat;
+            }
+            chunk = other.chunk;
+            chunkSize = other.chunkSize;
+            return this;
+        }
+
+        Stream<T> finish() {
+            if (files.isEmpty()) {
+                sorter.sortInMemory(chunk);
+                return SortedIterator.of(chunk).stream();
+            }
+            flush();
+            return sorter.mergeLazily(files, runFormat, dirs).stream();
+        }
+
+        private void flush() {
+            if (chunk.isEmpty()) {
+                return;
+            }
+            if (runFormat == null) {
+                runFormat = sorter.getRunFormat(chunk.get(0));
+                dirs.addAll(sorter.getInprocessDirs());
+            }
+            files.add(uncheck(() -> sorter.writeNextInprocessFile(chunk, runFormat, dirs, files.size())));
+            chunk = new ArrayList<>();
+            chunkSize = 0;
+        }
+    }
+
+}
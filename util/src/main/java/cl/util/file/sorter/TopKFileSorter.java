@@ -0,0 +1,98 @@
+package cl.util.file.sorter;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.TreeSet;
+
+import cl.serializers.Serializer;
+import cl.serializers.writers.ObjectWriter;
+
+/**
+ * Implementation of the {@link FileSorter} interface which writes only the first {@link FileSorter#limit} objects
+ * of the sorted file. The input is read once, and at most {@code limit} objects are held in memory at any time, so
+ * nothing is written to temporary files.
+ *
+ * <p>The result is the same as the beginning of the result of the other file sorters: objects which are equal
+ * according to the comparator keep their order in the input, and with {@link FileSorter#removeDuplicates} the first
+ * of the equal objects is kept.
+ */
+public class TopKFileSorter<T> extends FileSorterSupport<T> {
+
+    public TopKFileSorter(Serializer<T,T> serializer) {
+        super(serializer);
+    }
+
+    /**
+     * Sort data. If no limit is set, the whole input is sorted in memory.
+     */
+    @Override
+    protected void sort(Iterator<T> iterator, ObjectWriter<T> writer) {
+        int limit = get(FileSorter.limit).orElse(Integer.MAX_VALUE);
+        if (limit <= 0) {
+            return;
+        }
+        Collection<T> sorted = get(FileSorter.removeDuplicates) ?
+                topWithoutDuplicates(iterator, limit) :
+                topWithDuplicates(iterator, limit);
+        writer.write(sorted);
+    }
+
+    /*
+     * The heap's head is the largest of the objects kept so far. Objects are numbered in the input order,
+     * so that a later object never displaces an equal earlier one.
+     */
+    private Collection<T> topWithDuplicates(Iterator<T> iterator, int limit) {
+        Comparator<T> comparator = getComparator();
+        Comparator<Numbered<T>> order =
+                Comparator.<Numbered<T>, T>comparing(n -> n.object, comparator).thenComparingLong(n -> n.number);
+        PriorityQueue<Numbered<T>> heap = new PriorityQueue<>(Math.min(limit, 1024) + 1, order.reversed());
+        long number = 0;
+        while (iterator.hasNext()) {
+            T next = iterator.next();
+            if (heap.size() < limit) {
+                heap.add(new Numbered<>(next, number));
+            } else if (comparator.compare(next, heap.peek().object) < 0) {
+                heap.poll();
+                heap.add(new Numbered<>(next, number));
+            }
+            number++;
+        }
+        List<Numbered<T>> top = new ArrayList<>(heap);
+        top.sort(order);
+        List<T> result = new ArrayList<>(top.size());
+        top.forEach(n -> result.add(n.object));
+        return result;
+    }
+
+    /*
+     * A tree set keeps the first of the equal objects, like the in-memory file sorter does.
+     */
+    private Collection<T> topWithoutDuplicates(Iterator<T> iterator, int limit) {
+        Comparator<T> comparator = getComparator();
+        TreeSet<T> top = new TreeSet<>(comparator);
+        while (iterator.hasNext()) {
+            T next = iterator.next();
+            if (top.size() < limit) {
+                top.add(next);
+            } else if (comparator.compare(next, top.last()) < 0 && top.add(next)) {
+                top.pollLast();
+            }
+        }
+        return top;
+    }
+
+    private static final class Numbered<T> {
+        final T object;
+        final long number;
+
+        Numbered(T object, long number) {
+            this.object = object;
+            this.number = number;
+        }
+    }
+
+}
@@ -0,0 +1,604 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static cl.util.file.sorter.FileSorterUtils.withTempFile;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.Optional;
+
+import cl.core.configurable.Configurable;
+import cl.core.configurable.ConfigurableObject;
+import cl.core.util.FileUtils;
+import cl.serializers.Serializer;
+import cl.serializers.SerializerConfiguration;
+
+/**
+ * Implementation of the {@link FileSorter} interface which sorts lines of UTF-8 text files without converting
+ * them to strings. Lines are kept as raw bytes in large byte arrays (slabs), and sorted by their bytes eight at a time,
+ * which is a kind of MSD radix sort. The result is the same as sorting the lines as strings with
+ * {@code Comparator.naturalOrder()} or {@code Comparator.reverseOrder()}.
+ *
+ * <p>The file sorter accepts the following configuration keys:
+ * <ul>
+ *   <li>{@link FileSorter#comparator}. If the comparator is neither natural nor reverse order, the file is sorted
+ *       as strings by the default file sorter.</li>
+ *   <li>{@link FileSorter#inMemorySizeThreshold}. Maximum number of bytes in a slab. Files which are larger than
+ *       that are split into sorted temporary files, which are merged.</li>
+ *   <li>{@link FileSorter#memoryBudgetBytes}. If set, it replaces {@code inMemorySizeThreshold}: half of the budget
+ *       goes to the bytes of a slab, and the other half to the offsets and sort keys of its lines, which take 21
+ *       bytes per line.</li>
+ *   <li>{@link FileSorter#maxMergeFanIn}. Temporary files are merged in several passes when there are more of them.</li>
+ *   <li>{@link FileSorter#removeDuplicates}.</li>
+ *   <li>{@link FileSorter#limit}. If set, the file is sorted by {@link TopKFileSorter}.</li>
+ *   <li>{@link FileSorter#indexFile}. If set, the file is sorted as strings by the default file sorter, which
+ *       writes the index.</li>
+ *   <li>{@link FileSorter#checkpointDir}. If set, the file is sorted as strings by the default file sorter, which
+ *       keeps the checkpoints.</li>
+ *   <li>{@link FileSorter#checkSorted}. If set, the file is sorted as strings by the default file sorter, which
+ *       checks the file first.</li>
+ *   <li>{@link FileSorter#inputFilter}. If set, the file is sorted as strings by the default file sorter, which
+ *       filters the lines.</li>
+ *   <li>{@link FileSorter#numObjectsPerFile}, {@link FileSorter#parallelism}, {@link FileSorter#readAheadObjects},
+ *       {@link FileSorter#spillDirectories}, {@link FileSorter#runCompression}, {@link FileSorter#sampleSort},
+ *       {@link FileSorter#detectRuns}. If any of them is set, the file is sorted as strings by the default file
+ *       sorter, which uses them.</li>
+ *   <li>{@link FileSorter#metrics}. Lines count as objects; comparisons are not counted, since lines are sorted
+ *       by their bytes.</li>
+ * </ul>
+ *
+ * <p>Like {@code BufferedReader}, the sorter recognizes '\n', '\r', and "\r\n" as line separators, and writes
+ * the result with the system line separator. Byte sequences which are not valid UTF-8 are sorted by their bytes
+ * (except that, as in valid UTF-8, the bytes EE and EF come after all other bytes), and written unchanged.
+ */
+public class Utf8StringFileSorter extends ConfigurableObject<FileSorter<String>> implements FileSorter<String> {
+
+    private static final int MAX_SLAB_SIZE = 1 << 30;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int BYTES_PER_LINE = 21;
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.UTF_8);
+
+    private final File original;
+    private final File sorted;
+    private final int numHeaderLines;
+
+    /**
+     * Create a file sorter.
+     *
+     * @param original        original file
+     * @param sorted          destination file (sorted)
+     * @param numHeaderLines  how many lines are in the header (the sorter will skip them and put them on top of the sorted file)
+     */
+    public Utf8StringFileSorter(File original, File sorted, int numHeaderLines) {
+        this.original = original;
+        this.sorted = sorted;
+        this.numHeaderLines = numHeaderLines;
+    }
+
+    /**
+     * Sort the file. If the destination is the original file, the result is written to a temporary file first,
+     * which then replaces the original file.
+     */
+    @Override
+    public void sort() {
+        requireLock();
+        if (uncheck(() -> original.exists() && sorted.exists() && Files.isSameFile(original.toPath(), sorted.toPath()))) {
+            withTempFile(original, (orig, tmp) ->
+                new Utf8StringFileSorter(orig, tmp, numHeaderLines).withConfigurationFrom(this).locked().sort());
+            return;
+        }
+        Comparator<?> comparator = get(FileSorter.comparator);
+        boolean naturalOrder = comparator == Comparator.naturalOrder() || comparator == Comparator.reverseOrder();
+        if (naturalOrder && !get(FileSorter.limit).isPresent() && !get(FileSorter.indexFile).isPresent()
+                && !get(FileSorter.inputFilter).isPresent() && !get(FileSorter.checkpointDir).isPresent()
+                && !get(FileSorter.checkSorted) && !usesGenericSortKeys()) {
+            uncheck(() -> sortBytes(comparator == Comparator.reverseOrder()));
+        } else {
+            sortStrings();
+        }
+    }
+
+    /*
+     * Return true if any of the keys, which only the default file sorter uses, is set.
+     */
+    private boolean usesGenericSortKeys() {
+        return Arrays.asList(FileSorter.numObjectsPerFile, FileSorter.parallelism, FileSorter.readAheadObjects,
+                FileSorter.spillDirectories, FileSorter.runCompression, FileSorter.sampleSort, FileSorter.detectRuns)
+                .stream().anyMatch(keys()::contains);
+    }
+
+    /*
+     * A custom comparator needs strings, a limit is handled by the top-K file sorter, and the index is written
+     * by the default file sorter.
+     */
+    private void sortStrings() {
+        Configurable<?> serializerConfiguration =
+                Configurable.empty().with(SerializerConfiguration.numHeaderLines, numHeaderLines).locked();
+        uncheck(() -> {
+            try (Serializer<String,String> serializer =
+                    Serializer.stringSerializer(original, sorted, serializerConfiguration)) {
+                new DefaultFileSorter<>(serializer, original).withConfigurationFrom(this).locked().sort();
+            }
+        });
+    }
+
+    private void sortBytes(boolean descending) throws IOException {
+        boolean removeDuplicates = get(FileSorter.removeDuplicates);
+        SortMetrics metrics = get(FileSorter.metrics).orElseGet(SortMetrics::new);
+        Optional<Long> memoryBudget = get(FileSorter.memoryBudgetBytes);
+        long maxBytes = memoryBudget.map(budget -> budget / 2).orElse(get(FileSorter.inMemorySizeThreshold));
+        int maxSlabSize = (int)Math.max(1, Math.min(MAX_SLAB_SIZE, maxBytes));
+        int slabSize = (int)Math.max(1, Math.min(maxSlabSize, original.length() + 1));
+        int maxLines = (int)Math.max(1, Math.min(Integer.MAX_VALUE - 8,
+                memoryBudget.map(budget -> budget / 2 / BYTES_PER_LINE).orElse(Long.MAX_VALUE)));
+
+        Path inprocessDir = null;
+        List<File> inprocessFiles = new ArrayList<>();
+        try (LineScanner scanner = new LineScanner(new FileInputStream(original), slabSize);
+             OutputStream out = new BufferedOutputStream(new FileOutputStream(sorted), BUFFER_SIZE)) {
+            List<byte[]> headerLines = new ArrayList<>();
+            while (headerLines.size() < numHeaderLines) {
+                if (scanner.nextLine()) {
+                    headerLines.add(Arrays.copyOfRange(scanner.slab, scanner.lineStart, scanner.lineEnd));
+                } else if (scanner.eof) {
+                    break;
+                } else {
+                    scanner.compact();
+                }
+            }
+            for (byte[] line : headerLines) {
+                writeLine(out, line, 0, line.length);
+            }
+
+            Slab slab = new Slab(scanner, maxLines);
+            long started = metrics.phaseStarted();
+            while (slab.fill()) {
+                metrics.objectsRead(slab.numLines);
+                if (inprocessDir == null && scanner.eof) {
+                    // the whole file fits into one slab
+                    slab.sort();
+                    slab.write(out, descending, removeDuplicates);
+                    metrics.phaseFinished(SortMetrics.Phase.IN_MEMORY, started);
+                    return;
+                }
+                if (inprocessDir == null) {
+                    inprocessDir = Files.createTempDirectory("fs_");
+                }
+                File file = Files.createTempFile(inprocessDir, "fs_", "_" + inprocessFiles.size()).toFile();
+                inprocessFiles.add(file);
+                slab.sort();
+                try (OutputStream runOut = new BufferedOutputStream(new FileOutputStream(file), BUFFER_SIZE)) {
+                    slab.writeRun(runOut, descending, removeDuplicates);
+                }
+                metrics.runWritten(file);
+            }
+            if (!inprocessFiles.isEmpty()) {
+                metrics.phaseFinished(SortMetrics.Phase.SPLIT, started);
+                started = metrics.phaseStarted();
+                reduceFiles(inprocessFiles, inprocessDir, descending, removeDuplicates, metrics);
+                metrics.objectsMerged(merge(inprocessFiles, out, descending, removeDuplicates, false));
+                metrics.phaseFinished(SortMetrics.Phase.MERGE, started);
+            }
+        } finally {
+            inprocessFiles.forEach(File::delete);
+            if (inprocessDir != null) {
+                inprocessDir.toFile().delete();
+            }
+        }
+    }
+
+    /*
+     * Merge groups of files into intermediate files, until there are at most the maximum merge fan-in files left.
+     * The first group is sized so that the last pass merges exactly the maximum fan-in. Since equal lines have
+     * equal bytes, the order in which files are merged does not matter.
+     */
+    private void reduceFiles(List<File> inprocessFiles, Path inprocessDir, boolean descending,
+            boolean removeDuplicates, SortMetrics metrics) throws IOException {
+        int maxFanIn = Math.max(2, get(FileSorter.maxMergeFanIn));
+        int numFiles = inprocessFiles.size();
+        int numToMerge = numFiles > maxFanIn ? (numFiles - 2) % (maxFanIn - 1) + 2 : 0;
+        while (inprocessFiles.size() > maxFanIn) {
+            List<File> group = new ArrayList<>(inprocessFiles.subList(0, numToMerge));
+            File merged = Files.createTempFile(inprocessDir, "fs_", "_" + numFiles++).toFile();
+            inprocessFiles.add(merged);
+            try (OutputStream runOut = new BufferedOutputStream(new FileOutputStream(merged), BUFFER_SIZE)) {
+                merge(group, runOut, descending, removeDuplicates, true);
+            }
+            metrics.intermediateFileWritten(merged);
+            inprocessFiles.subList(0, numToMerge).clear();
+            group.forEach(File::delete);
+            numToMerge = maxFanIn;
+        }
+    }
+
+    /*
+     * Merge the files into the result, or into a temporary file, and return the number of lines written.
+     */
+    private static long merge(List<File> inprocessFiles, OutputStream out, boolean descending, boolean removeDuplicates,
+            boolean run) throws IOException {
+        List<RunLineReader> readers = new ArrayList<>(inprocessFiles.size());
+        try {
+            for (File file : inprocessFiles) {
+                readers.add(new RunLineReader(new FileInputStream(file)));
+            }
+            Comparator<byte[]> comparator = (a, b) -> compare(a, 0, a.length, b, 0, b.length);
+            RunMerger<byte[]> merger = new RunMerger<>(readers, descending ? comparator.reversed() : comparator);
+            byte[] prev = null;
+            long numLines = 0;
+            while (merger.hasNext()) {
+                byte[] next = merger.next();
+                if (!removeDuplicates || prev == null || !Arrays.equals(prev, next)) {
+                    if (run) {
+                        out.write(next);
+                        out.write('\n');
+                    } else {
+                        writeLine(out, next, 0, next.length);
+                    }
+                    prev = next;
+                    numLines++;
+                }
+            }
+            return numLines;
+        } finally {
+            FileUtils.close(readers.toArray(new Closeable[readers.size()]));
+        }
+    }
+
+    private static void writeLine(OutputStream out, byte[] bytes, int from, int length) throws IOException {
+        out.write(bytes, from, length);
+        out.write(LINE_SEPARATOR);
+    }
+
+    /**
+     * Compare UTF-8 encoded strings in the same order as {@code String.compareTo()} compares them.
+     *
+     * <p>Comparing UTF-8 bytes as unsigned numbers orders strings by code points, while {@code String} compares
+     * UTF-16 chars. The two orders only differ for the characters U+E000..U+FFFF, which come after supplementary
+     * characters in UTF-16 (since supplementary characters are encoded with surrogates D800..DFFF), but before them
+     * in code point order. In UTF-8, these characters start with lead bytes EE and EF, and supplementary characters
+     * start with lead bytes F0..F4, so the lead bytes EE and EF are compared as if they were larger than F4.
+     *
+     * <p>Bytes are compared by their weights, which are a permutation of 0..FF: EE and EF weigh FE and FF, and the bytes
+     * F0..FF, which follow them, move down by two. So different bytes never compare as equal, and a weight fits into
+     * a byte of a sort key.
+     */
+    static int compare(byte[] a, int aFrom, int aLength, byte[] b, int bFrom, int bLength) {
+        int length = Math.min(aLength, bLength);
+        for (int i = 0; i < length; i++) {
+            int x = a[aFrom + i] & 0xFF;
+            int y = b[bFrom + i] & 0xFF;
+            if (x != y) {
+                return weight(x) - weight(y);
+            }
+        }
+        return aLength - bLength;
+    }
+
+    private static int weight(int b) {
+        return b == 0xEE || b == 0xEF ? b + 0x10 : b >= 0xF0 ? b - 2 : b;
+    }
+
+    /*
+     * Reads lines into a slab. After nextLine() returns true, the line is in slab[lineStart..lineEnd).
+     * Bytes in the slab before 'start' may be discarded by compact().
+     */
+    private static final class LineScanner implements Closeable {
+
+        private final InputStream in;
+        byte[] slab;
+        int lineStart;
+        int lineEnd;
+        boolean eof;
+
+        private int start;
+        private int scan;
+        private int end;
+        private boolean skipLf;
+
+        LineScanner(InputStream in, int slabSize) {
+            this.in = in;
+            slab = new byte[slabSize];
+        }
+
+        /*
+         * Read the next line. Return false at the end of the input, or if the slab is full, in which case
+         * compact() has to be called to make room.
+         */
+        boolean nextLine() throws IOException {
+            while (true) {
+                if (scan == end) {
+                    if (end == slab.length) {
+                        if (start > 0) {
+                            return false;
+                        }
+                        // a line which is longer than the slab
+                        slab = Arrays.copyOf(slab, (int)Math.min(MAX_SLAB_SIZE, 2L * slab.length));
+                        if (end == slab.length) throw new IOException("line is too long");
+                    }
+                    int n = eof ? -1 : in.read(slab, end, slab.length - end);
+                    if (n < 0) {
+                        eof = true;
+                        if (start == end) {
+                            return false;
+                        }
+                        lineStart = start;
+                        lineEnd = end;
+                        start = scan = end;
+                        return true;
+                    }
+                    end += n;
+                }
+                byte b = slab[scan];
+                if (skipLf) {
+                    skipLf = false;
+                    if (b == '\n') {
+                        start = ++scan;
+                        continue;
+                    }
+                }
+                if (b == '\n' || b == '\r') {
+                    skipLf = b == '\r';
+                    lineStart = start;
+                    lineEnd = scan;
+                    start = ++scan;
+                    return true;
+                }
+                scan++;
+            }
+        }
+
+        /*
+         * Move the beginning of the line, which is being read, to the beginning of the slab.
+         */
+        void compact() {
+            System.arraycopy(slab, start, slab, 0, end - start);
+            scan -= start;
+            end -= start;
+            start = 0;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+    }
+
+    /*
+     * Lines in a slab, and their sorting.
+     */
+    private static final class Slab {
+
+        private final LineScanner scanner;
+        private final int maxLines;
+        private int numLines;
+        private int[] offsets = new int[1024];
+        private int[] lengths = new int[1024];
+
+        // sorting state: a permutation of the lines, and the current key of each position in it
+        private int[] order;
+        private long[] keys;
+        private byte[] keyLengths;
+
+        Slab(LineScanner scanner, int maxLines) {
+            this.scanner = scanner;
+            this.maxLines = maxLines;
+        }
+
+        /*
+         * Read lines until the slab is full, it has the maximum number of lines, or the input ends.
+         * Return false if there are no lines.
+         */
+        boolean fill() throws IOException {
+            scanner.compact();
+            numLines = 0;
+            while (numLines < maxLines && scanner.nextLine()) {
+                if (numLines == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, (int)Math.min(maxLines, numLines * 2L));
+                    lengths = Arrays.copyOf(lengths, offsets.length);
+                }
+                offsets[numLines] = scanner.lineStart;
+                lengths[numLines] = scanner.lineEnd - scanner.lineStart;
+                numLines++;
+            }
+            return numLines > 0;
+        }
+
+        void write(OutputStream out, boolean descending, boolean removeDuplicates) throws IOException {
+            writeLines(out, descending, removeDuplicates, false);
+        }
+
+        /*
+         * Temporary files always use '\n', which never appears inside a line.
+         */
+        void writeRun(OutputStream out, boolean descending, boolean removeDuplicates) throws IOException {
+            writeLines(out, descending, removeDuplicates, true);
+        }
+
+        private void writeLines(OutputStream out, boolean descending, boolean removeDuplicates, boolean run)
+                throws IOException {
+            byte[] slab = scanner.slab;
+            int prev = -1;
+            for (int i = 0; i < numLines; i++) {
+                int line = order[descending ? numLines - 1 - i : i];
+                if (removeDuplicates && prev >= 0 &&
+                        compare(slab, offsets[prev], lengths[prev], slab, offsets[line], lengths[line]) == 0) {
+                    continue;
+                }
+                prev = line;
+                if (run) {
+                    out.write(slab, offsets[line], lengths[line]);
+                    out.write('\n');
+                } else {
+                    writeLine(out, slab, offsets[line], lengths[line]);
+                }
+            }
+        }
+
+        /*
+         * Sort lines by eight-byte keys. Positions are sorted by (key, key length), where the key length is the number
+         * of the line's bytes left at this depth, capped at 9. Lines with equal keys and key length 9 go on to the
+         * next eight bytes; all other lines with equal keys are equal.
+         */
+        void sort() {
+            if (order == null || order.length < numLines) {
+                order = new int[offsets.length];
+                keys = new long[offsets.length];
+                keyLengths = new byte[offsets.length];
+            }
+            for (int i = 0; i < numLines; i++) {
+                order[i] = i;
+            }
+            Deque<int[]> groups = new ArrayDeque<>();
+            groups.push(new int[] {0, numLines, 0});
+            while (!groups.isEmpty()) {
+                int[] group = groups.pop();
+                int from = group[0], to = group[1], depth = group[2];
+                for (int i = from; i < to; i++) {
+                    computeKey(i, depth);
+                }
+                sortRange(from, to);
+                int groupFrom = from;
+                for (int i = from + 1; i <= to; i++) {
+                    if (i == to || keys[i] != keys[groupFrom] || keyLengths[i] != keyLengths[groupFrom]) {
+                        if (i - groupFrom > 1 && keyLengths[groupFrom] == 9) {
+                            groups.push(new int[] {groupFrom, i, depth + 1});
+                        }
+                        groupFrom = i;
+                    }
+                }
+            }
+        }
+
+        private void computeKey(int position, int depth) {
+            byte[] slab = scanner.slab;
+            int line = order[position];
+            int from = offsets[line] + depth * 8;
+            int remaining = lengths[line] - depth * 8;
+            long key = 0;
+            for (int i = 0; i < 8; i++) {
+                key <<= 8;
+                if (i < remaining) {
+                    key |= weight(slab[from + i] & 0xFF);
+                }
+            }
+            keys[position] = key;
+            keyLengths[position] = (byte)Math.min(remaining, 9);
+        }
+
+        /*
+         * Quicksort with three-way partitioning, which recurses into the smaller part.
+         */
+        private void sortRange(int from, int to) {
+            while (to - from > 16) {
+                int mid = (from + to) >>> 1;
+                int p = median(from, mid, to - 1);
+                long pivotKey = keys[p];
+                byte pivotLength = keyLengths[p];
+                int lt = from, gt = to - 1, i = from;
+                while (i <= gt) {
+                    int c = comparePosition(i, pivotKey, pivotLength);
+                    if (c < 0) swap(lt++, i++);
+                    else if (c > 0) swap(i, gt--);
+                    else i++;
+                }
+                if (lt - from < to - gt - 1) {
+                    sortRange(from, lt);
+                    from = gt + 1;
+                } else {
+                    sortRange(gt + 1, to);
+                    to = lt;
+                }
+            }
+            for (int i = from + 1; i < to; i++) {
+                for (int j = i; j > from && comparePosition(j, keys[j - 1], keyLengths[j - 1]) < 0; j--) {
+                    swap(j, j - 1);
+                }
+            }
+        }
+
+        private int comparePosition(int position, long key, byte keyLength) {
+            int c = Long.compareUnsigned(keys[position], key);
+            return c != 0 ? c : keyLengths[position] - keyLength;
+        }
+
+        private int median(int a, int b, int c) {
+            boolean ab = comparePosition(a, keys[b], keyLengths[b]) < 0;
+            boolean bc = comparePosition(b, keys[c], keyLengths[c]) < 0;
+            boolean ac = comparePosition(a, keys[c], keyLengths[c]) < 0;
+            return ab ? (bc ? b : ac ? c : a) : (ac ? a : bc ? c : b);
+        }
+
+        private void swap(int i, int j) {
+            int line = order[i]; order[i] = order[j]; order[j] = line;
+            long key = keys[i]; keys[i] = keys[j]; keys[j] = key;
+            byte length = keyLengths[i]; keyLengths[i] = keyLengths[j]; keyLengths[j] = length;
+        }
+    }
+
+    /*
+     * Reads lines, separated by '\n', from a temporary file.
+     */
+    private static final class RunLineReader implements Iterator<byte[]>, Closeable {
+
+        private final InputStream in;
+        private byte[] buffer = new byte[256];
+        private byte[] next;
+
+        RunLineReader(InputStream in) throws IOException {
+            this.in = new BufferedInputStream(in, BUFFER_SIZE);
+            next = readLine();
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != null;
+        }
+
+        @Override
+        public byte[] next() {
+            if (next == null) throw new NoSuchElementException();
+            byte[] line = next;
+            next = uncheck(() -> readLine());
+            return line;
+        }
+
+        @Override
+        public void close() throws IOException {
+            in.close();
+        }
+
+        private byte[] readLine() throws IOException {
+            int length = 0;
+            int b;
+            while ((b = in.read()) != '\n') {
+                if (b < 0) {
+                    return null;
+                }
+                if (length == buffer.length) {
+                    buffer = Arrays.copyOf(buffer, length * 2);
+                }
+                buffer[length++] = (byte)b;
+            }
+            return Arrays.copyOf(buffer, length);
+        }
+    }
+
+}
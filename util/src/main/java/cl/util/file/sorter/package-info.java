@@ -44,5 +44,11 @@
  *  default file sorter, but it might be easier to set {@link FileSorter#inMemorySizeThreshold}
  *  configuration value to do just that. Setting it to zero will force using of {@link ExternalMergeFileSorter}
  *  while setting it to {@code Long.MAX_VALUE} will force using of {@link InMemoryFileSorter}.
+ *  
+ *  <p>The package also contains tools which work on large files along with file sorters: {@link SortedFileReader}
+ *  looks up objects in indexed sorted files, {@link SortedFiles} implements set operations and joins over sorted files,
+ *  {@link FileAggregator} groups objects of files by keys without sorting them, {@link Deduplicator} removes
+ *  duplicates without sorting, {@link StreamSorter} sorts streams and iterators instead of files, and
+ *  {@link BatchFileSorter} sorts many files at once under a common memory budget.
  */
 package cl.util.file.sorter;
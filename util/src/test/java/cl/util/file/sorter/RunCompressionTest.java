@@ -0,0 +1,92 @@
+package cl.util.file.sorter;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Unit tests in this class verify that data written through {@link RunCompression} streams is read back unchanged.
+ */
+public class RunCompressionTest {
+
+    @Test
+    public void testEmptyData() throws IOException {
+        for (RunCompression compression : RunCompression.values()) {
+            assertArrayEquals(new byte[0], roundTrip(compression, new byte[0]));
+        }
+    }
+
+    /**
+     * Random bytes don't compress, so LZ blocks are stored as is.
+     */
+    @Test
+    public void testIncompressibleData() throws IOException {
+        byte[] data = new byte[3 * RunCompression.BLOCK_SIZE + 17];
+        new Random(1).nextBytes(data);
+        for (RunCompression compression : RunCompression.values()) {
+            assertArrayEquals(data, roundTrip(compression, data));
+        }
+    }
+
+    /**
+     * Long repeats produce matches which overlap their own output, and lengths which don't fit into a token.
+     */
+    @Test
+    public void testRepetitiveData() throws IOException {
+        byte[] data = new byte[2 * RunCompression.BLOCK_SIZE + 1000];
+        Arrays.fill(data, 0, 5000, (byte)'a');
+        Random r = new Random(2);
+        byte[] words = "lorem ipsum dolor sit amet consectetur adipiscing elit ".getBytes();
+        for (int i = 5000; i < data.length; i++) {
+            data[i] = words[r.nextInt(8) == 0 ? r.nextInt(words.length) : i % words.length];
+        }
+        byte[] compressed = compress(RunCompression.LZ, data);
+        assertTrue(compressed.length < data.length / 2);
+        for (RunCompression compression : RunCompression.values()) {
+            assertArrayEquals(data, roundTrip(compression, data));
+        }
+    }
+
+    @Test
+    public void testSingleByteWritesAndReads() throws IOException {
+        byte[] data = "abcabcabcabcabcabc and some more text abcabcabc".getBytes("UTF-8");
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = RunCompression.LZ.compress(bytes)) {
+            for (byte b : data) out.write(b);
+        }
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = RunCompression.LZ.decompress(new ByteArrayInputStream(bytes.toByteArray()))) {
+            int b;
+            while ((b = in.read()) >= 0) result.write(b);
+        }
+        assertArrayEquals(data, result.toByteArray());
+    }
+
+    private static byte[] roundTrip(RunCompression compression, byte[] data) throws IOException {
+        byte[] compressed = compress(compression, data);
+        ByteArrayOutputStream result = new ByteArrayOutputStream();
+        try (InputStream in = compression.decompress(new ByteArrayInputStream(compressed))) {
+            byte[] buffer = new byte[1000];
+            int n;
+            while ((n = in.read(buffer)) >= 0) result.write(buffer, 0, n);
+        }
+        return result.toByteArray();
+    }
+
+    private static byte[] compress(RunCompression compression, byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = compression.compress(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+}
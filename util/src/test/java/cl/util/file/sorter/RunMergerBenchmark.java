@@ -0,0 +1,124 @@
+package cl.util.file.sorter;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Random;
+
+import org.junit.Test;
+
+/**
+ * Compares merging of sorted runs with the tournament tree ({@link RunMerger}) to the
+ * linear scan over all runs, which {@link ExternalMergeFileSorter} used before.
+ */
+public class RunMergerBenchmark {
+
+    private static final int NUM_OBJECTS = 200_000;
+
+    @Test
+    public void compareMergeAlgorithms() {
+        for (int numRuns : new int[] {10, 100, 1000}) {
+            List<List<Integer>> runs = sortedRuns(numRuns);
+
+            long start = System.currentTimeMillis();
+            List<Integer> linear = linearScanMerge(iterators(runs), Comparator.naturalOrder());
+            long linearTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            List<Integer> tree = new ArrayList<>(NUM_OBJECTS);
+            new RunMerger<>(iterators(runs), Comparator.<Integer>naturalOrder()).forEachRemaining(tree::add);
+            long treeTime = System.currentTimeMillis() - start;
+
+            assertEquals(linear, tree);
+            System.out.println("Merging " + numRuns + " runs: linear scan " + linearTime +
+                    " ms, tournament tree " + treeTime + " ms");
+        }
+    }
+
+    /**
+     * Objects, which are equal according to the comparator, come out in the order of their runs.
+     */
+    @Test
+    public void testTiesAreResolvedByRunIndex() {
+        List<List<String>> runs = new ArrayList<>();
+        runs.add(list("a1", "b1", "c1"));
+        runs.add(list("a2", "c2"));
+        runs.add(list("b3"));
+        runs.add(list());
+        runs.add(list("a5", "b5", "c5", "d5"));
+        Comparator<String> firstLetter = Comparator.comparing(s -> s.charAt(0));
+
+        List<String> merged = new ArrayList<>();
+        new RunMerger<>(iterators(runs), firstLetter).forEachRemaining(merged::add);
+        assertEquals(list("a1", "a2", "a5", "b1", "b3", "b5", "c1", "c2", "c5", "d5"), merged);
+        assertEquals(linearScanMerge(iterators(runs), firstLetter), merged);
+    }
+
+    @Test
+    public void testNoRuns() {
+        assertFalse(new RunMerger<>(new ArrayList<Iterator<String>>(), Comparator.<String>naturalOrder()).hasNext());
+    }
+
+    /*
+     * Merge runs by scanning the heads of all runs for every output object.
+     */
+    private static <T> List<T> linearScanMerge(List<Iterator<T>> iterators, Comparator<T> comparator) {
+        List<T> result = new ArrayList<>();
+        @SuppressWarnings("unchecked")
+        T[] objects = (T[])new Object[iterators.size()];
+        while (true) {
+            for (int i = 0; i < objects.length; i++) {
+                if (objects[i] == null && iterators.get(i).hasNext()) {
+                    objects[i] = iterators.get(i).next();
+                }
+            }
+            T min = null;
+            int minIndex = -1;
+            for (int i = 0; i < objects.length; i++) {
+                if (objects[i] != null && (min == null || comparator.compare(objects[i], min) < 0)) {
+                    min = objects[i];
+                    minIndex = i;
+                }
+            }
+            if (min == null) {
+                return result;
+            }
+            objects[minIndex] = null;
+            result.add(min);
+        }
+    }
+
+    private static List<List<Integer>> sortedRuns(int numRuns) {
+        Random r = new Random(numRuns);
+        List<List<Integer>> runs = new ArrayList<>();
+        for (int i = 0; i < numRuns; i++) {
+            List<Integer> run = new ArrayList<>();
+            for (int j = 0; j < NUM_OBJECTS / numRuns; j++) {
+                run.add(r.nextInt(NUM_OBJECTS));
+            }
+            Collections.sort(run);
+            runs.add(run);
+        }
+        return runs;
+    }
+
+    private static <T> List<Iterator<T>> iterators(List<List<T>> runs) {
+        List<Iterator<T>> iterators = new ArrayList<>();
+        runs.forEach(run -> iterators.add(run.iterator()));
+        return iterators;
+    }
+
+    @SafeVarargs
+    private static <T> List<T> list(T ... xs) {
+        List<T> list = new ArrayList<>(xs.length);
+        for (T x : xs) {
+            list.add(x);
+        }
+        return list;
+    }
+
+}
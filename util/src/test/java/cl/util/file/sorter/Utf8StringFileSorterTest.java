@@ -0,0 +1,247 @@
+package cl.util.file.sorter;
+
+import static cl.core.decorator.exception.ExceptionDecorators.*;
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Comparator;
+import java.util.Optional;
+import java.util.Random;
+
+import org.junit.Test;
+
+import cl.core.configurable.Configurable;
+import cl.serializers.Serializer;
+import cl.serializers.SerializerConfiguration;
+
+/**
+ * Unit tests in this class verify that {@link Utf8StringFileSorter} produces exactly the same files as sorting
+ * lines as strings does.
+ */
+public class Utf8StringFileSorterTest {
+
+    private static final String[] SAMPLES = {
+        "", "a", "ab", "abc", "abcdefgh", "abcdefghi", "abcdefgh\u0000", "abcdefghabcdefgh", "abcdefghabcdefgh1",
+        "\u0000", "z", "Z", "\u00E9t\u00E9", "\u043F\u0440\u0438\u0432\u0435\u0442", "\u20AC", "\uD7FF", "\uE000",
+        "\uFF21", "\uFEFFbom", "\uFFFF", "\uD83D\uDE00", "\uD83D\uDE00\uD83D\uDE01", "\uD800\uDC00", "\uDBFF\uDFFF", "~"
+    };
+
+    @Test
+    public void testSameOrderAsStrings() {
+        for (boolean reverse : new boolean[] {false, true}) {
+            for (boolean removeDuplicates : new boolean[] {false, true}) {
+                for (int numHeaderLines : new int[] {0, 2}) {
+                    for (long slabSize : new long[] {100 * 1024 * 1024, 1000}) {
+                        verifySameAsStrings(randomLines(5000, new Random(slabSize + numHeaderLines)),
+                                reverse, removeDuplicates, numHeaderLines, slabSize);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testLineSeparators() {
+        verifySameAsStrings("b\r\na\rc\n\r\nd\r\r\ne", false, false, 0, 100);
+        verifySameAsStrings("b\na\n", false, false, 0, 1000);
+        verifySameAsStrings("b\r", false, false, 1, 1000);
+        verifySameAsStrings("", false, false, 0, 1000);
+    }
+
+    @Test
+    public void testLinesLongerThanSlab() {
+        StringBuilder sb = new StringBuilder();
+        Random r = new Random(1);
+        for (int i = 0; i < 50; i++) {
+            for (int j = r.nextInt(300); j > 0; j--) sb.append((char)('a' + r.nextInt(3)));
+            sb.append('\n');
+        }
+        verifySameAsStrings(sb.toString(), false, false, 1, 64);
+    }
+
+    @Test
+    public void testMergeFanInAndMemoryBudget() {
+        File src = writeFile(randomLines(5000, new Random(2)));
+        File expected = newFile();
+        File actual = newFile();
+        try {
+            sortStrings(src, expected, false, true, 0, Long.MAX_VALUE);
+
+            SortMetrics metrics = new SortMetrics();
+            new Utf8StringFileSorter(src, actual, 0)
+                .with(FileSorter.removeDuplicates, true)
+                .with(FileSorter.inMemorySizeThreshold, 1000L)
+                .with(FileSorter.maxMergeFanIn, 3)
+                .with(FileSorter.metrics, Optional.of(metrics))
+                .locked().sort();
+            assertArrayEquals(readBytes(expected), readBytes(actual));
+            assertTrue(metrics.getRunsWritten() > 3);
+            assertTrue(metrics.getIntermediateFilesWritten() > 0);
+
+            // 50 lines per slab at most
+            metrics = new SortMetrics();
+            new Utf8StringFileSorter(src, actual, 0)
+                .with(FileSorter.removeDuplicates, true)
+                .with(FileSorter.memoryBudgetBytes, Optional.of(2L * 50 * 21))
+                .with(FileSorter.metrics, Optional.of(metrics))
+                .locked().sort();
+            assertArrayEquals(readBytes(expected), readBytes(actual));
+            assertEquals(5000 / 50, metrics.getRunsWritten());
+        } finally {
+            src.delete();
+            expected.delete();
+            actual.delete();
+        }
+    }
+
+    @Test
+    public void testInvalidBytesAreNotDuplicatesOfLeadBytes() {
+        byte[] separator = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+        File src = writeFile(lines(new byte[][] {{(byte)0xEE}, {(byte)0xFE}, {(byte)0xEF}, {(byte)0xFF}, {'a'},
+                {(byte)0xFE}, {(byte)0xEE}}, new byte[] {'\n'}));
+        File dest = newFile();
+        try {
+            byte[] expected = lines(new byte[][] {{'a'}, {(byte)0xFE}, {(byte)0xFF}, {(byte)0xEE}, {(byte)0xEF}}, separator);
+            for (long slabSize : new long[] {1000, 4}) {
+                SortMetrics metrics = new SortMetrics();
+                new Utf8StringFileSorter(src, dest, 0)
+                    .with(FileSorter.removeDuplicates, true)
+                    .with(FileSorter.inMemorySizeThreshold, slabSize)
+                    .with(FileSorter.metrics, Optional.of(metrics))
+                    .locked().sort();
+                assertArrayEquals("slab size: " + slabSize, expected, readBytes(dest));
+                assertEquals(slabSize < 1000, metrics.getRunsWritten() > 1);
+            }
+        } finally {
+            src.delete();
+            dest.delete();
+        }
+    }
+
+    @Test
+    public void testCustomComparatorSortsStrings() {
+        Comparator<String> byLength = Comparator.comparing(String::length);
+        File src = writeFile("ccc\na\nbb\n");
+        File dest = newFile();
+        try {
+            new Utf8StringFileSorter(src, dest, 0).with(FileSorter.comparator, byLength).locked().sort();
+            assertEquals("a,bb,ccc", String.join(",", uncheck(() -> Files.readAllLines(dest.toPath()))));
+        } finally {
+            src.delete();
+            dest.delete();
+        }
+    }
+
+    /**
+     * Compare the time of sorting a text file as UTF-8 bytes with sorting it as strings.
+     */
+    @Test
+    public void compareWithSortingStrings() {
+        File src = writeFile(randomLines(1_000_000, new Random(0)));
+        File bytesSorted = newFile();
+        File stringsSorted = newFile();
+        try {
+            long start = System.currentTimeMillis();
+            new Utf8StringFileSorter(src, bytesSorted, 0).locked().sort();
+            long bytesTime = System.currentTimeMillis() - start;
+
+            start = System.currentTimeMillis();
+            sortStrings(src, stringsSorted, false, false, 0, src.length());
+            long stringsTime = System.currentTimeMillis() - start;
+
+            assertArrayEquals(readBytes(stringsSorted), readBytes(bytesSorted));
+            System.out.println("Sorting " + src.length() + " bytes: as strings " + stringsTime +
+                    " ms, as UTF-8 bytes " + bytesTime + " ms");
+        } finally {
+            src.delete();
+            bytesSorted.delete();
+            stringsSorted.delete();
+        }
+    }
+
+    private static void verifySameAsStrings(String content, boolean reverse, boolean removeDuplicates,
+            int numHeaderLines, long slabSize) {
+        File src = writeFile(content);
+        File expected = newFile();
+        File actual = newFile();
+        try {
+            sortStrings(src, expected, reverse, removeDuplicates, numHeaderLines, Long.MAX_VALUE);
+            new Utf8StringFileSorter(src, actual, numHeaderLines)
+                .with(FileSorter.comparator, reverse ? Comparator.<String>reverseOrder() : Comparator.<String>naturalOrder())
+                .with(FileSorter.removeDuplicates, removeDuplicates)
+                .with(FileSorter.inMemorySizeThreshold, slabSize)
+                .locked().sort();
+            assertArrayEquals("reverse: " + reverse + ", remove duplicates: " + removeDuplicates +
+                    ", header lines: " + numHeaderLines + ", slab size: " + slabSize,
+                    readBytes(expected), readBytes(actual));
+        } finally {
+            src.delete();
+            expected.delete();
+            actual.delete();
+        }
+    }
+
+    private static void sortStrings(File src, File dest, boolean reverse, boolean removeDuplicates,
+            int numHeaderLines, long inMemorySizeThreshold) {
+        Configurable<?> configuration = Configurable.empty().with(SerializerConfiguration.numHeaderLines, numHeaderLines).locked();
+        uncheck(() -> {
+            try (Serializer<String, String> serializer = Serializer.stringSerializer(src, dest, configuration)) {
+                FileSorter.getFileSorter(serializer, src.length(), false)
+                    .with(FileSorter.comparator, reverse ? Comparator.<String>reverseOrder() : Comparator.<String>naturalOrder())
+                    .with(FileSorter.removeDuplicates, removeDuplicates)
+                    .with(FileSorter.inMemorySizeThreshold, inMemorySizeThreshold)
+                    .locked().sort();
+            }
+        });
+    }
+
+    private static String randomLines(int numLines, Random r) {
+        StringBuilder sb = new StringBuilder();
+        for (int i = 0; i < numLines; i++) {
+            int numParts = 1 + r.nextInt(3);
+            for (int j = 0; j < numParts; j++) {
+                sb.append(SAMPLES[r.nextInt(SAMPLES.length)]);
+            }
+            if (r.nextInt(4) == 0) sb.append(r.nextInt(1000));
+            sb.append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static byte[] lines(byte[][] lines, byte[] separator) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        for (byte[] line : lines) {
+            out.write(line, 0, line.length);
+            out.write(separator, 0, separator.length);
+        }
+        return out.toByteArray();
+    }
+
+    private static File writeFile(String content) {
+        return writeFile(content.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static File writeFile(byte[] content) {
+        File f = newFile();
+        uncheck(() -> {
+            try (OutputStream out = new FileOutputStream(f)) {
+                out.write(content);
+            }
+        });
+        return f;
+    }
+
+    private static File newFile() {
+        return uncheck(() -> File.createTempFile("tmp", ".txt"));
+    }
+
+    private static byte[] readBytes(File f) {
+        return uncheck(() -> Files.readAllBytes(f.toPath()));
+    }
+
+}
@@ -0,0 +1,77 @@
+package cl.util.file.sorter
+
+import java.io.File
+import java.util.Collections
+import java.util.Optional
+import java.util.Random
+import java.util.function.Consumer
+
+import org.junit.runner.RunWith
+import org.scalatest.FlatSpec
+import org.scalatest.Matchers
+
+import cl.core.lang.Control.using
+import cl.serializers.SerializersTestSupport._
+import cl.serializers.iterators.StringIterator
+import cl.serializers.writers.StringWriter
+
+@RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class BatchFileSorterSpec extends FlatSpec with Matchers {
+
+  behavior of "batch file sorter"
+
+  it should "sort every file of the batch, and report progress" in {
+    val sizes = Seq(10, 500, 3000, 100000, 0, 20000, 7, 60000)
+    val files = sizes.map(n => (inputFile(n), newFile))
+    try {
+      val progress = new java.util.ArrayList[BatchFileSorter.Progress]
+      val listener: Optional[Consumer[BatchFileSorter.Progress]] = Optional.of(new Consumer[BatchFileSorter.Progress] {
+        override def accept(p: BatchFileSorter.Progress) = progress.synchronized { progress.add(p) }
+      })
+      val batch = new BatchFileSorter()
+        .`with`[java.lang.Integer](BatchFileSorter.parallelism, 3)
+        .`with`[java.lang.Long](BatchFileSorter.memoryBudgetBytes, 3 * 1024 * 1024L)
+        .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 5000)
+        .`with`(BatchFileSorter.progressListener, listener)
+        .locked()
+      for ((src, dest) <- files) batch.add(src, dest)
+      batch.sort()
+
+      for ((src, dest) <- files) {
+        val expected = StringIterator.fromFile(src).read()
+        Collections.sort(expected)
+        StringIterator.fromFile(dest).read() should equal (expected)
+      }
+      progress.size() should be (sizes.size)
+      val last = progress.stream().max(java.util.Comparator.comparingInt[BatchFileSorter.Progress](
+          new java.util.function.ToIntFunction[BatchFileSorter.Progress] {
+            override def applyAsInt(p: BatchFileSorter.Progress) = p.getNumFilesSorted()
+          })).get()
+      last.getNumFilesSorted() should be (sizes.size)
+      last.getNumBytesSorted() should be (files.map(_._1.length()).sum)
+    } finally {
+      for ((src, dest) <- files) { src.delete(); dest.delete() }
+    }
+  }
+
+  it should "sort the other files when one of them fails, and then throw" in {
+    withFiles(inputFile(100), newFile) { (src, dest) =>
+      val missing = new File(src.getPath() + ".missing")
+      val batch = new BatchFileSorter().locked().add(missing, newFile).add(src, dest)
+      intercept[RuntimeException] { batch.sort() }
+      val expected = StringIterator.fromFile(src).read()
+      Collections.sort(expected)
+      StringIterator.fromFile(dest).read() should equal (expected)
+    }
+  }
+
+  private[this] def inputFile(numLines: Int) = {
+    val file = newFile
+    val r = new Random(numLines)
+    using (StringWriter.toFile(file)) { writer =>
+      for (i <- 0 until numLines) writer.write(r.nextInt(numLines + 1) + " " + i)
+    }
+    file
+  }
+
+}
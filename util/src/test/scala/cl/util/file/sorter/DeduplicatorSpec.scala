@@ -0,0 +1,78 @@
+package cl.util.file.sorter
+
+import java.util.Random
+
+import org.junit.runner.RunWith
+import org.scalatest.FlatSpec
+import org.scalatest.Matchers
+
+import cl.core.lang.Control.using
+import cl.serializers.SerializationType
+import cl.serializers.Serializer.stringSerializer
+import cl.serializers.SerializersTestSupport._
+import cl.serializers.iterators.StringIterator
+import cl.serializers.writers.StringWriter
+
+@RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class DeduplicatorSpec extends FlatSpec with Matchers {
+
+  behavior of "deduplicator"
+
+  it should "keep the first occurrence of each object in the order of the input" in {
+    for ((maxFingerprints, numPartitions, bloomFilter) <-
+        Seq((10000000, 16, false), (100, 3, false), (1, 2, true), (50, 4, true))) {
+      withFiles(inputFile(3000, 400), newFile) { (src, dest) =>
+        Deduplicator.strings()
+          .`with`[java.lang.Integer](Deduplicator.maxFingerprints, maxFingerprints)
+          .`with`[java.lang.Integer](Deduplicator.numPartitions, numPartitions)
+          .`with`[java.lang.Boolean](Deduplicator.bloomFilter, bloomFilter)
+          .locked().removeDuplicates(stringSerializer[String, String](src, dest))
+        StringIterator.fromFile(dest).read() should equal (expected(src))
+      }
+    }
+  }
+
+  it should "work as a predicate" in {
+    withFile(inputFile(1000, 100)) { src =>
+      val deduplicator = Deduplicator.strings().locked()
+      val result = new java.util.ArrayList[String]
+      StringIterator.fromFile(src).read().forEach(new java.util.function.Consumer[String] {
+        override def accept(s: String) { if (deduplicator.test(s)) result.add(s) }
+      })
+      result should equal (expected(src))
+    }
+  }
+
+  it should "filter the input of a file sorter" in {
+    withFiles(inputFile(1000, 100), newFile) { (src, dest) =>
+      val filter: java.util.Optional[java.util.function.Predicate[_]] =
+        java.util.Optional.of(Deduplicator.strings().locked())
+      FileSorter.getFileSorter(src, dest, SerializationType.STRING, classOf[String], false)
+        .`with`(FileSorter.inputFilter, filter)
+        .locked().sort()
+      val sorted = expected(src)
+      java.util.Collections.sort(sorted)
+      StringIterator.fromFile(dest).read() should equal (sorted)
+    }
+  }
+
+  it should "handle an empty input file" in {
+    withFiles(newFile, newFile) { (src, dest) =>
+      Deduplicator.strings().locked().removeDuplicates(stringSerializer[String, String](src, dest))
+      StringIterator.fromFile(dest).read().isEmpty() should be (true)
+    }
+  }
+
+  private[this] def inputFile(numLines: Int, numValues: Int) = {
+    val file = newFile
+    val r = new Random(numLines)
+    using (StringWriter.toFile(file)) { writer =>
+      for (i <- 0 until numLines) writer.write("v" + r.nextInt(numValues))
+    }
+    file
+  }
+
+  private[this] def expected(src: java.io.File) =
+    new java.util.ArrayList[String](new java.util.LinkedHashSet[String](StringIterator.fromFile(src).read()))
+
+}
@@ -0,0 +1,89 @@
+package cl.util.file.sorter
+
+import java.util.Collections
+import java.util.Random
+import java.util.stream.Collectors
+
+import org.junit.runner.RunWith
+import org.scalatest.FlatSpec
+import org.scalatest.Matchers
+
+import cl.core.lang.Control.using
+import cl.serializers.Serializer.stringSerializer
+import cl.serializers.SerializersTestSupport._
+import cl.serializers.iterators.StringIterator
+import cl.serializers.writers.StringWriter
+
+@RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class FileAggregatorSpec extends FlatSpec with Matchers {
+
+  private[this] val key = new java.util.function.Function[String, String] {
+    override def apply(s: String) = s.substring(0, s.indexOf(' '))
+  }
+
+  private[this] val sumOfValues = Collectors.summingLong[String](new java.util.function.ToLongFunction[String] {
+    override def applyAsLong(s: String) = s.substring(s.indexOf(' ') + 1).toLong
+  })
+
+  private[this] val result = new java.util.function.BiFunction[String, java.lang.Long, String] {
+    override def apply(k: String, sum: java.lang.Long) = k + " " + sum
+  }
+
+  behavior of "file aggregator"
+
+  it should "write one aggregate per key" in {
+    for ((maxGroups, numPartitions) <- Seq((100000, 16), (50, 3), (1, 2))) {
+      withFiles(inputFile(5000, 700), newFile) { (src, dest) =>
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          FileAggregator.getFileAggregator(serializer, key, sumOfValues, result, false)
+            .`with`[java.lang.Integer](FileAggregator.maxGroupsInMemory, maxGroups)
+            .`with`[java.lang.Integer](FileAggregator.numPartitions, numPartitions)
+            .locked().aggregate()
+        }
+        sorted(StringIterator.fromFile(dest).read()) should equal (expected(src))
+      }
+    }
+  }
+
+  it should "handle an empty input file" in {
+    withFiles(newFile, newFile) { (src, dest) =>
+      using (stringSerializer[String, String](src, dest)) { serializer =>
+        FileAggregator.getFileAggregator(serializer, key, sumOfValues, result).aggregate()
+      }
+      StringIterator.fromFile(dest).read().isEmpty() should be (true)
+    }
+  }
+
+  /*
+   * Lines look like "<key> <value>".
+   */
+  private[this] def inputFile(numLines: Int, numKeys: Int) = {
+    val file = newFile
+    val r = new Random(numLines)
+    using (StringWriter.toFile(file)) { writer =>
+      for (i <- 0 until numLines) writer.write("k" + r.nextInt(numKeys) + " " + r.nextInt(100))
+    }
+    file
+  }
+
+  private[this] def expected(src: java.io.File) = {
+    val sums = new java.util.HashMap[String, java.lang.Long]
+    val lines = StringIterator.fromFile(src).read()
+    for (i <- 0 until lines.size()) {
+      val line = lines.get(i)
+      val k = key(line)
+      sums.put(k, sums.getOrDefault(k, 0L) + line.substring(line.indexOf(' ') + 1).toLong)
+    }
+    val result = new java.util.ArrayList[String]
+    sums.forEach(new java.util.function.BiConsumer[String, java.lang.Long] {
+      override def accept(k: String, sum: java.lang.Long) { result.add(k + " " + sum) }
+    })
+    sorted(result)
+  }
+
+  private[this] def sorted(lines: java.util.List[String]) = {
+    Collections.sort(lines)
+    lines
+  }
+
+}
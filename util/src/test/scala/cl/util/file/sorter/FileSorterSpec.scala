@@ -1,17 +1,27 @@
 package cl.util.file.sorter
 
+import java.io.DataInputStream
+import java.io.DataOutputStream
 import java.io.File
 import java.io.UncheckedIOException
 import java.util.ArrayList
 import java.util.Collections
+import java.util.Comparator
+import java.util.Optional
+import java.util.Random
+import java.util.stream.Collectors
 
 import org.junit.runner.RunWith
 import org.scalatest.FlatSpec
 import org.scalatest.Matchers
 
+import cl.core.configurable.Configurable
+import cl.core.function.ScalaToJava.toConsumer
 import cl.core.lang.Control.using
 import cl.serializers.Person
+import cl.serializers.SerializationType
 import cl.serializers.Serializer
+import cl.serializers.SerializerConfiguration
 import cl.serializers.Serializer.javaSerializer
 import cl.serializers.Serializer.jsonSerializer
 import cl.serializers.Serializer.stringSerializer
@@ -19,6 +29,7 @@ import cl.serializers.SerializersTestSupport._
 import cl.serializers.iterators.JavaIterator
 import cl.serializers.iterators.JsonIterator
 import cl.serializers.iterators.StringIterator
+import cl.serializers.writers.StringWriter
 
 @RunWith(classOf[org.scalatest.junit.JUnitRunner])
 class FileSorterSpec extends FlatSpec with Matchers {
@@ -90,16 +101,588 @@ class FileSorterSpec extends FlatSpec with Matchers {
     }
   }
   
+  behavior of "in-memory file sorter"
+  
+  it should "sort large inputs in parallel and keep the order of equal objects" in {
+    for (removeDuplicates <- Seq(false, true)) {
+      withFiles(keyedStringInputFile(50000), newFile) { (src, dest) =>
+        val expected = stableSort(StringIterator.fromFile(src).read(), removeDuplicates)
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          new InMemoryFileSorter(serializer)
+            .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .locked().sort()
+        }
+        StringIterator.fromFile(dest).read() should equal (expected)
+      }
+    }
+  }
+  
+  behavior of "external merge file sorter"
+  
+  it should "produce the same result when chunks are sorted in parallel" in {
+    for (removeDuplicates <- Seq(false, true)) {
+      withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+        val expected = stableSort(StringIterator.fromFile(src).read(), removeDuplicates)
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          new ExternalMergeFileSorter(serializer)
+            .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 500)
+            .`with`[java.lang.Integer](FileSorter.parallelism, 4)
+            .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .locked().sort()
+        }
+        StringIterator.fromFile(dest).read() should equal (expected)
+      }
+    }
+  }
+  
+  it should "merge in several passes when there are more files than the maximum merge fan-in" in {
+    for (removeDuplicates <- Seq(false, true)) {
+      withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+        val expected = stableSort(StringIterator.fromFile(src).read(), removeDuplicates)
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          new ExternalMergeFileSorter(serializer)
+            .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 100)
+            .`with`[java.lang.Integer](FileSorter.maxMergeFanIn, 7)
+            .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .locked().sort()
+        }
+        StringIterator.fromFile(dest).read() should equal (expected)
+      }
+    }
+  }
+  
+  it should "report its work in the metrics" in {
+    withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+      var numProgressCalls = 0
+      val metrics = new SortMetrics(true, 5000, toConsumer((m: SortMetrics) => numProgressCalls += 1))
+      using (stringSerializer[String, String](src, dest)) { serializer =>
+        new ExternalMergeFileSorter(serializer)
+          .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 1000)
+          .`with`[java.lang.Integer](FileSorter.maxMergeFanIn, 7)
+          .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+          .`with`(FileSorter.metrics, Optional.of(metrics))
+          .locked().sort()
+      }
+      metrics.getObjectsRead() should be (20000)
+      metrics.getRunsWritten() should be (20)
+      metrics.getIntermediateFilesWritten() should be > 0L
+      metrics.getBytesSpilled() should be > src.length()
+      metrics.getObjectsMerged() should be > 20000L
+      metrics.getComparisons() should be > 20000L
+      metrics.getPhaseTime(SortMetrics.Phase.SPLIT, java.util.concurrent.TimeUnit.NANOSECONDS) should be > 0L
+      metrics.getMergeThroughput() should be > 0.0
+      numProgressCalls should be (6)
+    }
+  }
+  
+  it should "produce the same result when temporary files are read ahead" in {
+    for (parallelism <- Seq(1, 3); removeDuplicates <- Seq(false, true)) {
+      withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+        val expected = stableSort(StringIterator.fromFile(src).read(), removeDuplicates)
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          new ExternalMergeFileSorter(serializer)
+            .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 300)
+            .`with`[java.lang.Integer](FileSorter.maxMergeFanIn, 10)
+            .`with`[java.lang.Integer](FileSorter.readAheadObjects, 7)
+            .`with`[java.lang.Integer](FileSorter.parallelism, parallelism)
+            .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .locked().sort()
+        }
+        StringIterator.fromFile(dest).read() should equal (expected)
+      }
+    }
+  }
+  
+  it should "spread temporary files over the spill directories" in {
+    withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+      val expected = stableSort(StringIterator.fromFile(src).read(), false)
+      val dirs = java.util.Arrays.asList(
+          java.nio.file.Files.createTempDirectory("fs_spill_").toFile(),
+          java.nio.file.Files.createTempDirectory("fs_spill_").toFile())
+      val used = new java.util.HashSet[File]
+      val recordingCodec = new RunCodec[String] {
+        private[this] val codec = RunCodec.strings()
+        override def encode(s: String, out: DataOutputStream) = {
+          dirs.forEach(toConsumer((d: File) => if (d.listFiles().exists(_.list().nonEmpty)) used.synchronized { used.add(d) }))
+          codec.encode(s, out)
+        }
+        override def decode(in: DataInputStream) = codec.decode(in)
+      }
+      using (stringSerializer[String, String](src, dest)) { serializer =>
+        new ExternalMergeFileSorter(serializer)
+          .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 500)
+          .`with`[java.lang.Integer](FileSorter.maxMergeFanIn, 7)
+          .`with`[java.lang.Integer](FileSorter.parallelism, 2)
+          .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+          .`with`(FileSorter.spillDirectories, dirs)
+          .`with`(FileSorter.runCodec, Optional.of[RunCodec[_]](recordingCodec))
+          .locked().sort()
+      }
+      StringIterator.fromFile(dest).read() should equal (expected)
+      used.size() should be (2)
+      dirs.forEach(toConsumer((d: File) => { d.list().isEmpty should be (true); d.delete() }))
+    }
+  }
+  
+  it should "write sorted chunks which continue each other to one file when detecting runs" in {
+    for (parallelism <- Seq(1, 3); removeDuplicates <- Seq(false, true)) {
+      val lines = { val f = keyedStringInputFile(20000); try StringIterator.fromFile(f).read() finally f.delete() }
+      // sorted input, input which is sorted except for a few chunks, and random input
+      val sorted = stableSort(new ArrayList(lines), false)
+      val nearlySorted = new ArrayList(sorted)
+      Collections.reverse(nearlySorted.subList(5000, 6000))
+      Collections.reverse(nearlySorted.subList(12000, 12500))
+      for ((input, maxFiles) <- Seq((sorted, 1), (nearlySorted, 6), (lines, 40))) {
+        withFiles(newFile, newFile) { (src, dest) =>
+          using (StringWriter.toFile(src)) { writer => writer.write(input) }
+          val expected = stableSort(new ArrayList(input), removeDuplicates)
+          val dir = java.nio.file.Files.createTempDirectory("fs_runs_").toFile()
+          var maxNumFiles = 0
+          val codec = new RunCodec[String] {
+            private[this] val strings = RunCodec.strings()
+            override def encode(s: String, out: DataOutputStream) = {
+              dir.synchronized { maxNumFiles = Math.max(maxNumFiles, dir.listFiles().map(_.list().length).sum) }
+              strings.encode(s, out)
+            }
+            override def decode(in: DataInputStream) = strings.decode(in)
+          }
+          using (stringSerializer[String, String](src, dest)) { serializer =>
+            new ExternalMergeFileSorter(serializer)
+              .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 500)
+              .`with`[java.lang.Integer](FileSorter.parallelism, parallelism)
+              .`with`[java.lang.Boolean](FileSorter.detectRuns, true)
+              .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+              .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+              .`with`(FileSorter.spillDirectories, Collections.singletonList(dir))
+              .`with`(FileSorter.runCodec, Optional.of[RunCodec[_]](codec))
+              .locked().sort()
+          }
+          StringIterator.fromFile(dest).read() should equal (expected)
+          maxNumFiles should be <= maxFiles
+          dir.delete()
+        }
+      }
+    }
+  }
+  
+  it should "resume an interrupted sort from its checkpoint" in {
+    for (parallelism <- Seq(1, 3)) {
+      withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+        val expected = stableSort(StringIterator.fromFile(src).read(), false)
+        val checkpointDir = java.nio.file.Files.createTempDirectory("fs_checkpoint_").toFile()
+        def newSorter(serializer: Serializer[String, String]) =
+          new ExternalMergeFileSorter(serializer)
+            .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 500)
+            .`with`[java.lang.Integer](FileSorter.maxMergeFanIn, 7)
+            .`with`[java.lang.Integer](FileSorter.parallelism, parallelism)
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .`with`(FileSorter.checkpointDir, Optional.of(checkpointDir))
+            .locked().asInstanceOf[ExternalMergeFileSorter[String]]
+        
+        // the input "fails" in the middle of the file
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          val iterator = serializer.getIterator()
+          val failing = new java.util.Iterator[String] {
+            var n = 0
+            override def hasNext() = iterator.hasNext()
+            override def next() = { n += 1; if (n > 12345) throw new IllegalStateException("interrupted"); iterator.next() }
+          }
+          intercept[IllegalStateException] { newSorter(serializer).sort(failing, serializer.getWriter()) }
+        }
+        checkpointDir.list().exists(_.startsWith("fs_")) should be (true)
+        
+        using (stringSerializer[String, String](src, dest)) { serializer => newSorter(serializer).sort() }
+        StringIterator.fromFile(dest).read() should equal (expected)
+        checkpointDir.list().exists(_.startsWith("fs_")) should be (false)
+        checkpointDir.delete()
+      }
+    }
+  }
+  
+  it should "start from the beginning when the input has changed since its checkpoint" in {
+    withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+      val checkpointDir = java.nio.file.Files.createTempDirectory("fs_checkpoint_").toFile()
+      def newSorter(serializer: Serializer[String, String]) =
+        new ExternalMergeFileSorter(serializer, src)
+          .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 500)
+          .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+          .`with`(FileSorter.checkpointDir, Optional.of(checkpointDir))
+          .locked().asInstanceOf[ExternalMergeFileSorter[String]]
+
+      using (stringSerializer[String, String](src, dest)) { serializer =>
+        val iterator = serializer.getIterator()
+        val failing = new java.util.Iterator[String] {
+          var n = 0
+          override def hasNext() = iterator.hasNext()
+          override def next() = { n += 1; if (n > 12345) throw new IllegalStateException("interrupted"); iterator.next() }
+        }
+        intercept[IllegalStateException] { newSorter(serializer).sort(failing, serializer.getWriter()) }
+      }
+      checkpointDir.list().exists(_.startsWith("fs_")) should be (true)
+
+      withFile(keyedStringInputFile(15000, 100)) { changed =>
+        java.nio.file.Files.copy(changed.toPath(), src.toPath(), java.nio.file.StandardCopyOption.REPLACE_EXISTING)
+      }
+      val expected = stableSort(StringIterator.fromFile(src).read(), false)
+      using (stringSerializer[String, String](src, dest)) { serializer => newSorter(serializer).sort() }
+      StringIterator.fromFile(dest).read() should equal (expected)
+      checkpointDir.list().exists(_.startsWith("fs_")) should be (false)
+      checkpointDir.delete()
+    }
+  }
+
+  it should "keep header lines when merging in several passes" in {
+    withFiles(keyedStringInputFile(2000), newFile) { (src, dest) =>
+      val lines = StringIterator.fromFile(src).read()
+      using (StringWriter.toFile(src)) { writer =>
+        writer.write("header 1")
+        writer.write("header 2")
+        writer.write(lines)
+      }
+      val config = Configurable.empty().`with`[java.lang.Integer](SerializerConfiguration.numHeaderLines, 2).locked()
+      using (stringSerializer[String, String](src, dest, config)) { serializer =>
+        new ExternalMergeFileSorter(serializer)
+          .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 100)
+          .`with`[java.lang.Integer](FileSorter.maxMergeFanIn, 3)
+          .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+          .locked().sort()
+      }
+      val result = StringIterator.fromFile(dest).read()
+      result.subList(0, 2) should equal (java.util.Arrays.asList("header 1", "header 2"))
+      result.subList(2, result.size()) should equal (stableSort(lines, false))
+    }
+  }
+  
+  it should "cut temporary files by the estimated size of objects when memory budget is set" in {
+    withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+      val lines = StringIterator.fromFile(src).read()
+      val sizer = ObjectSizer.strings()
+      var totalSize = 0L
+      for (i <- 0 until lines.size()) totalSize += sizer.sizeOf(lines.get(i)) + 8
+      
+      using (stringSerializer[String, String](src, dest)) { serializer =>
+        val fileSorter = new ExternalMergeFileSorter(serializer)
+          .`with`[java.util.Optional[java.lang.Long]](FileSorter.memoryBudgetBytes, java.util.Optional.of(totalSize / 10))
+          .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+          .locked().asInstanceOf[ExternalMergeFileSorter[String]]
+        
+        var numChunks = 0
+        fileSorter.forEachChunk(lines.iterator(), 1, toConsumer((chunk: java.util.List[String]) => numChunks += 1))
+        numChunks should (be >= 10 and be <= 11)
+        
+        fileSorter.sort()
+      }
+      StringIterator.fromFile(dest).read() should equal (stableSort(lines, false))
+    }
+  }
+  
+  it should "count the characters of strings in records when estimating their size" in {
+    val name = "n" * 1000
+    val street = "s" * 100
+    val person = new Person(name, java.time.LocalDate.of(1968, 2, 8), Person.Gender.MALE, new Person.Address(street, 1))
+    val strings = ObjectSizer.strings()
+    
+    // person (header and 4 references), two strings, date (header, int and 2 shorts), address (header, int, reference)
+    ObjectSizer.reflective[Person]().sizeOf(person) should equal (
+        32 + strings.sizeOf(name) + 24 + 24 + strings.sizeOf(street))
+    ObjectSizer.reflective[Any]().sizeOf(Array[Any](name, name, 1, 2L)) should equal (
+        32 + strings.sizeOf(name) + 16 + 24)
+  }
+  
+  it should "produce the same result with every run codec and compression" in {
+    val codecs = Seq(java.util.Optional.empty[RunCodec[_]](), java.util.Optional.of[RunCodec[_]](RunCodec.javaSerialization[String]()))
+    for (codec <- codecs; compression <- RunCompression.values()) {
+      withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+        val expected = stableSort(StringIterator.fromFile(src).read(), true)
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          new ExternalMergeFileSorter(serializer)
+            .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 1000)
+            .`with`[java.lang.Integer](FileSorter.maxMergeFanIn, 4)
+            .`with`[java.util.Optional[RunCodec[_]]](FileSorter.runCodec, codec)
+            .`with`[RunCompression](FileSorter.runCompression, compression)
+            .`with`[java.lang.Boolean](FileSorter.removeDuplicates, true)
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .locked().sort()
+        }
+        StringIterator.fromFile(dest).read() should equal (expected)
+      }
+    }
+  }
+  
+  it should "write objects to temporary files with the serializer by default, even if they are serializable" in {
+    withFiles(newFile, newFile) { (src, dest) =>
+      using (new java.io.PrintWriter(src)) { out =>
+        for (i <- 0 until 2000) out.println("{\"id\":" + (i * 7919 % 2000) + ",\"tag\":{\"name\":\"t" + (i * 7919 % 2000) + "\"}}")
+      }
+      using (jsonSerializer[Tagged, Tagged](src, dest, classOf[Tagged])) { serializer =>
+        new ExternalMergeFileSorter(serializer)
+          .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 100)
+          .locked().sort()
+      }
+      val sorted = using (JsonIterator.fromFile(dest, classOf[Tagged])) { _.read() }
+      sorted.size() should be (2000)
+      for (i <- 0 until 2000) {
+        sorted.get(i).id should be (i)
+        sorted.get(i).tag.name should equal ("t" + i)
+      }
+    }
+  }
+  
+  it should "compress temporary files written with the serializer" in {
+    for (compression <- RunCompression.values()) {
+      withFiles(javaInputFileWithDuplicates, newFile) { (src, dest) =>
+        using (javaSerializer[Person, Person](src, dest)) { serializer =>
+          new ExternalMergeFileSorter(serializer)
+            .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 3)
+            .`with`[java.lang.Integer](FileSorter.maxMergeFanIn, 2)
+            .`with`[java.lang.Boolean](FileSorter.removeDuplicates, true)
+            .`with`[RunCompression](FileSorter.runCompression, compression)
+            .locked().sort()
+        }
+        verifyJavaFileSorted(dest)
+      }
+    }
+  }
+
+  behavior of "sample sort file sorter"
+
+  it should "produce the same result as a stable sort" in {
+    for (parallelism <- Seq(1, 4); removeDuplicates <- Seq(false, true); numKeys <- Seq(2000, 3)) {
+      withFiles(keyedStringInputFile(20000, numKeys), newFile) { (src, dest) =>
+        val expected = stableSort(StringIterator.fromFile(src).read(), removeDuplicates)
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          new SampleSortFileSorter(serializer)
+            .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 500)
+            .`with`[java.lang.Integer](FileSorter.parallelism, parallelism)
+            .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .locked().sort()
+        }
+        StringIterator.fromFile(dest).read() should equal (expected)
+      }
+    }
+  }
+
+  it should "sort sorted input, whether it samples the whole file or the first chunk" in {
+    for (descending <- Seq(false, true); wholeFile <- Seq(false, true)) {
+      val src = newFile
+      using (StringWriter.toFile(src)) { writer =>
+        for (i <- 0 until 20000) writer.write((if (descending) 20000 - i / 2 else i / 2) + " " + i)
+      }
+      withFiles(src, newFile) { (src, dest) =>
+        val expected = stableSort(StringIterator.fromFile(src).read(), false)
+        val metrics = new SortMetrics
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          (if (wholeFile) new SampleSortFileSorter(serializer, src) else new SampleSortFileSorter(serializer))
+            .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 500)
+            .`with`[java.lang.Integer](FileSorter.parallelism, 4)
+            .`with`[Optional[SortMetrics]](FileSorter.metrics, Optional.of(metrics))
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .locked().sort()
+        }
+        StringIterator.fromFile(dest).read() should equal (expected)
+        metrics.getObjectsMerged should equal (20000)
+      }
+    }
+  }
+
+  it should "sort small files in memory" in {
+    withFiles(keyedStringInputFile(100), newFile) { (src, dest) =>
+      val expected = stableSort(StringIterator.fromFile(src).read(), false)
+      using (stringSerializer[String, String](src, dest)) { serializer =>
+        new SampleSortFileSorter(serializer)
+          .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+          .locked().sort()
+      }
+      StringIterator.fromFile(dest).read() should equal (expected)
+    }
+  }
+
+  behavior of "sorted file reader"
+
+  it should "find objects by the index written by file sorters" in {
+    val sorters = Seq(
+        (serializer: Serializer[String, String]) => new InMemoryFileSorter(serializer),
+        (serializer: Serializer[String, String]) => new ExternalMergeFileSorter(serializer)
+          .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 500))
+    for (sorter <- sorters; removeDuplicates <- Seq(false, true)) {
+      withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+        val index = newFile
+        try {
+          val expected = stableSort(StringIterator.fromFile(src).read(), removeDuplicates)
+          using (stringSerializer[String, String](src, dest)) { serializer =>
+            sorter(serializer)
+              .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+              .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+              .`with`[Optional[File]](FileSorter.indexFile, Optional.of(index))
+              .`with`[java.lang.Integer](FileSorter.indexInterval, 100)
+              .locked().sort()
+          }
+          StringIterator.fromFile(dest).read() should equal (expected)
+          index.length() should be ((expected.size() + 99) / 100 * 8)
+
+          val reader = new SortedFileReader(dest, index, StringIterator.fromFile(dest), keyComparator)
+          for (key <- Seq(-1, 0, 1, 5, 1000, 1999, 2000)) {
+            reader.get(key + " ") should equal (filter(expected)(_.startsWith(key + " ")))
+          }
+          using (reader.range("100 ", "200 ")) { range =>
+            range.collect(Collectors.toList[String]) should equal (filter(expected) { s =>
+              val key = s.substring(0, s.indexOf(' ')).toInt
+              key >= 100 && key < 200
+            })
+          }
+        } finally {
+          index.delete()
+        }
+      }
+    }
+  }
+
+  it should "find objects in text files sorted with an index" in {
+    withFiles(keyedStringInputFile(5000), newFile) { (src, dest) =>
+      val index = newFile
+      try {
+        new Utf8StringFileSorter(src, dest, 0)
+          .`with`[Optional[File]](FileSorter.indexFile, Optional.of(index))
+          .`with`[java.lang.Integer](FileSorter.indexInterval, 10)
+          .locked().sort()
+        val lines = StringIterator.fromFile(dest).read()
+        val reader = new SortedFileReader[String](dest, index, StringIterator.fromFile(dest), Comparator.naturalOrder())
+        for (line <- Seq(lines.get(0), lines.get(2500), lines.get(lines.size() - 1), "", "~")) {
+          reader.get(line) should equal (filter(lines)(_ == line))
+        }
+      } finally {
+        index.delete()
+      }
+    }
+  }
+
+  it should "not be supported by serializers which can't tell positions" in {
+    withFiles(javaInputFile, newFile) { (src, dest) =>
+      val index = newFile
+      try {
+        an[UnsupportedOperationException] should be thrownBy (
+          using (javaSerializer[Person, Person](src, dest)) { serializer =>
+            new InMemoryFileSorter(serializer)
+              .`with`[Optional[File]](FileSorter.indexFile, Optional.of(index))
+              .locked().sort()
+          }
+        )
+      } finally {
+        index.delete()
+      }
+    }
+  }
+
+  behavior of "top-K file sorter"
+  
+  it should "write the beginning of the sorted file" in {
+    for (limit <- Seq(0, 1, 100, 5000, 50000); removeDuplicates <- Seq(false, true)) {
+      withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+        val sorted = stableSort(StringIterator.fromFile(src).read(), removeDuplicates)
+        val expected = sorted.subList(0, Math.min(limit, sorted.size()))
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          FileSorter.getFileSorter(serializer, src.length(), false)
+            .`with`[java.util.Optional[Integer]](FileSorter.limit, java.util.Optional.of(limit))
+            .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .locked().sort()
+        }
+        StringIterator.fromFile(dest).read() should equal (expected)
+      }
+    }
+  }
+  
+  it should "be used for text files when a limit is set" in {
+    withFiles(keyedStringInputFile(2000), newFile) { (src, dest) =>
+      val expected = StringIterator.fromFile(src).read()
+      Collections.sort(expected)
+      new Utf8StringFileSorter(src, dest, 0)
+        .`with`[java.util.Optional[Integer]](FileSorter.limit, java.util.Optional.of(10))
+        .locked().sort()
+      StringIterator.fromFile(dest).read() should equal (expected.subList(0, 10))
+    }
+  }
+  
   behavior of "default file sorter"
   
+  it should "copy sorted input when asked to check it first" in {
+    for (removeDuplicates <- Seq(false, true)) {
+      withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+        val expected = stableSort(StringIterator.fromFile(src).read(), removeDuplicates)
+        val presorted = newFile
+        try {
+          using (StringWriter.toFile(presorted)) { writer => writer.write(stableSort(StringIterator.fromFile(src).read(), false)) }
+          for (input <- Seq(presorted, src)) {
+            val codec = new EncodeCountingCodec
+            FileSorter.getFileSorter(input, dest, SerializationType.STRING, classOf[String], false)
+              .`with`[java.lang.Boolean](FileSorter.checkSorted, true)
+              .`with`[java.lang.Long](FileSorter.inMemorySizeThreshold, 0L)
+              .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+              .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+              .`with`[java.util.Optional[RunCodec[_]]](FileSorter.runCodec, java.util.Optional.of(codec))
+              .locked().sort()
+            StringIterator.fromFile(dest).read() should equal (expected)
+            codec.numEncoded should be (if (input == presorted) 0 else 20000)
+          }
+        } finally {
+          presorted.delete()
+        }
+      }
+    }
+  }
+  
+  it should "check text files before sorting them" in {
+    withFiles(keyedStringInputFile(2000), newFile) { (src, dest) =>
+      val expected = StringIterator.fromFile(src).read()
+      Collections.sort(expected)
+      using (StringWriter.toFile(src)) { writer => writer.write(expected) }
+      new Utf8StringFileSorter(src, dest, 0)
+        .`with`[java.lang.Boolean](FileSorter.checkSorted, true)
+        .locked().sort()
+      StringIterator.fromFile(dest).read() should equal (expected)
+    }
+  }
+  
+  it should "switch from in-memory file sorter to external merge file sorter on memory budget" in {
+    for (inMemory <- Seq(true, false)) {
+      withFiles(keyedStringInputFile(20000), newFile) { (src, dest) =>
+        val lines = StringIterator.fromFile(src).read()
+        val sizer = ObjectSizer.strings()
+        var totalSize = 0L
+        for (i <- 0 until lines.size()) totalSize += sizer.sizeOf(lines.get(i)) + 8
+        val memoryBudget = if (inMemory) totalSize else totalSize / 2
+        
+        val codec = new EncodeCountingCodec
+        using (stringSerializer[String, String](src, dest)) { serializer =>
+          // the input file size would make the sorter choose in-memory sorting, but the budget takes precedence
+          FileSorter.getFileSorter(serializer, src.length(), false)
+            .`with`[java.util.Optional[java.lang.Long]](FileSorter.memoryBudgetBytes, java.util.Optional.of(memoryBudget))
+            .`with`[java.util.Optional[RunCodec[_]]](FileSorter.runCodec, java.util.Optional.of(codec))
+            .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+            .locked().sort()
+        }
+        if (inMemory) codec.numEncoded should be (0) else codec.numEncoded should be (lines.size())
+        StringIterator.fromFile(dest).read() should equal (stableSort(lines, false))
+      }
+    }
+  }
+  
   it should "switch from in-memory file sorter to external merge file sorter on file size threshold" in {
     var inMemoryTime: Long = 0
     var externalMergeTime: Long = 0
+    val inMemoryCodec = new EncodeCountingCodec
+    val externalMergeCodec = new EncodeCountingCodec
     
     withFiles(largeStringInputFile(1000000), newFile) { (src, dest) =>
       using (stringSerializer[String, String](src, dest)) { serializer =>
         val fileSorter = FileSorter.getFileSorter(serializer, src.length(), false)
-          .`with`[java.lang.Long](FileSorter.inMemorySizeThreshold, src.length() + 1).locked()
+          .`with`[java.lang.Long](FileSorter.inMemorySizeThreshold, src.length() + 1)
+          .`with`[java.util.Optional[RunCodec[_]]](FileSorter.runCodec, java.util.Optional.of(inMemoryCodec)).locked()
         
         val start = System.currentTimeMillis()
         fileSorter.sort()
@@ -112,7 +695,8 @@ class FileSorterSpec extends FlatSpec with Matchers {
     withFiles(largeStringInputFile(1000000), newFile) { (src, dest) =>
       using (stringSerializer[String, String](src, dest)) { serializer =>
         val fileSorter = FileSorter.getFileSorter(serializer, src.length(), false)
-          .`with`[java.lang.Long](FileSorter.inMemorySizeThreshold, src.length() - 1).locked()
+          .`with`[java.lang.Long](FileSorter.inMemorySizeThreshold, src.length() - 1)
+          .`with`[java.util.Optional[RunCodec[_]]](FileSorter.runCodec, java.util.Optional.of(externalMergeCodec)).locked()
         
         val start = System.currentTimeMillis()
         fileSorter.sort()
@@ -124,8 +708,21 @@ class FileSorterSpec extends FlatSpec with Matchers {
     
     println ("External merge sorting time: " + externalMergeTime)
     println ("In-memory sorting time: " + inMemoryTime)
-    externalMergeTime > inMemoryTime should be (true)
     
+    // in-memory sorter does not write temporary files, while external merge sorter writes every object to one
+    inMemoryCodec.numEncoded should be (0)
+    externalMergeCodec.numEncoded should be (1000000)
+    
+  }
+  
+  /*
+   * Counts how many strings a file sorter writes to temporary files.
+   */
+  private[this] class EncodeCountingCodec extends RunCodec[String] {
+    private[this] val codec = RunCodec.strings()
+    var numEncoded = 0
+    override def encode(s: String, out: DataOutputStream) = { numEncoded += 1; codec.encode(s, out) }
+    override def decode(in: DataInputStream) = codec.decode(in)
   }
   
   private[this] def withFileSorters[T](fileSorters: Array[Serializer[T,T] => FileSorter[T]])
@@ -135,6 +732,43 @@ class FileSorterSpec extends FlatSpec with Matchers {
     }
   }
   
+  /*
+   * Lines look like "<key> <line number>", and many lines share the same key,
+   * which makes it possible to verify that sorting is stable.
+   */
+  private[this] def keyedStringInputFile(numLines: Int): File = keyedStringInputFile(numLines, numLines / 10)
+  
+  private[this] def keyedStringInputFile(numLines: Int, numKeys: Int): File = {
+    val file = newFile
+    val r = new Random(numLines)
+    using (StringWriter.toFile(file)) { writer =>
+      for (i <- 0 until numLines) writer.write(r.nextInt(numKeys) + " " + i)
+    }
+    file
+  }
+  
+  private[this] val keyComparator: Comparator[String] =
+    Comparator.comparing[String, Integer](new java.util.function.Function[String, Integer] {
+      override def apply(s: String) = Integer.valueOf(s.substring(0, s.indexOf(' ')))
+    })
+  
+  private[this] def stableSort(lines: java.util.List[String], removeDuplicates: Boolean) = {
+    Collections.sort(lines, keyComparator)
+    if (removeDuplicates) {
+      val unique = new ArrayList[String]
+      for (i <- 0 until lines.size()) {
+        if (i == 0 || keyComparator.compare(lines.get(i - 1), lines.get(i)) != 0) unique.add(lines.get(i))
+      }
+      unique
+    } else lines
+  }
+  
+  private[this] def filter(lines: java.util.List[String])(p: String => Boolean) = {
+    val result = new ArrayList[String]
+    for (i <- 0 until lines.size()) if (p(lines.get(i))) result.add(lines.get(i))
+    result
+  }
+  
   private[this] def verifyJsonFileSorted(f: File) {
     using (JsonIterator.fromFile(f, classOf[Person])) { iterator =>
       val people = Person.peopleDB
@@ -171,4 +805,17 @@ class FileSorterSpec extends FlatSpec with Matchers {
     }
   }
   
-}
\ No newline at end of file
+}
+
+/**
+ * Serializable object with a field which is not serializable, but which JSON serializers write.
+ */
+class Tagged extends java.io.Serializable with Comparable[Tagged] {
+  var id: Int = 0
+  var tag: Tag = null
+  override def compareTo(other: Tagged) = Integer.compare(id, other.id)
+}
+
+class Tag {
+  var name: String = null
+}
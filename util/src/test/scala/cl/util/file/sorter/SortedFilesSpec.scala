@@ -0,0 +1,114 @@
+package cl.util.file.sorter
+
+import java.util.ArrayList
+import java.util.Arrays
+import java.util.Comparator
+import java.util.Random
+import java.util.TreeSet
+
+import org.junit.runner.RunWith
+import org.scalatest.FlatSpec
+import org.scalatest.Matchers
+
+import cl.core.lang.Control.using
+import cl.core.util.Sets
+import cl.serializers.SerializationType
+import cl.serializers.SerializersTestSupport._
+import cl.serializers.iterators.StringIterator
+import cl.serializers.writers.StringWriter
+
+@RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class SortedFilesSpec extends FlatSpec with Matchers {
+
+  private[this] val natural = Comparator.naturalOrder[String]
+
+  behavior of "sorted files"
+
+  it should "produce the same results as set operations on collections" in {
+    val a = randomLines(3000, 1)
+    val b = randomLines(2000, 2)
+    withFiles(newFile, newFile) { (fa, fb) =>
+      write(fa, a)
+      write(fb, b)
+      val operations = Seq[(java.io.File, java.io.File, java.io.File) => Unit](
+        (x, y, z) => SortedFiles.union(x, y, z, SerializationType.STRING, classOf[String], natural),
+        (x, y, z) => SortedFiles.intersection(x, y, z, SerializationType.STRING, classOf[String], natural),
+        (x, y, z) => SortedFiles.difference(x, y, z, SerializationType.STRING, classOf[String], natural),
+        (x, y, z) => SortedFiles.complement(x, y, z, SerializationType.STRING, classOf[String], natural))
+      val expected = Seq(
+        Sets.union(a, b), Sets.intersection(a, b), Sets.difference(a, b), Sets.complement(a, b))
+      for ((operation, set) <- operations.zip(expected)) {
+        val result = newFile
+        try {
+          operation(fa, fb, result)
+          StringIterator.fromFile(result).read() should equal (new ArrayList(new TreeSet(set)))
+        } finally {
+          result.delete()
+        }
+      }
+      // the inputs are left as they are
+      StringIterator.fromFile(fa).read() should equal (a)
+    }
+  }
+
+  it should "write the first of equal objects from the first input" in {
+    val byLength = Comparator.comparing[String, Integer](new java.util.function.Function[String, Integer] {
+      override def apply(s: String) = s.length
+    })
+    withFile(newFile) { result =>
+      using (StringWriter.toFile(result)) { writer =>
+        SortedFiles.union(Arrays.asList("a", "b", "ccc").iterator, Arrays.asList("y", "xx").iterator, byLength, writer)
+      }
+      StringIterator.fromFile(result).read() should equal (Arrays.asList("a", "xx", "ccc"))
+    }
+  }
+
+  it should "join inputs by their keys" in {
+    val a = Arrays.asList("1 a", "2 b", "2 c", "4 d")
+    val b = Arrays.asList("0 x", "2 y", "2 z", "4 w", "5 v")
+    val key = new java.util.function.Function[String, String] { override def apply(s: String) = s.substring(0, 1) }
+    val combine = new java.util.function.BiFunction[String, String, String] {
+      override def apply(x: String, y: String) = x + y.substring(1)
+    }
+    withFile(newFile) { result =>
+      using (StringWriter.toFile(result)) { writer =>
+        SortedFiles.join(a.iterator, b.iterator, key, key, natural, combine, writer)
+      }
+      StringIterator.fromFile(result).read() should equal (Arrays.asList("2 b y", "2 b z", "2 c y", "2 c z", "4 d w"))
+    }
+  }
+
+  it should "reject inputs which are not sorted" in {
+    withFile(newFile) { result =>
+      using (StringWriter.toFile(result)) { writer =>
+        an[IllegalArgumentException] should be thrownBy (
+          SortedFiles.union(Arrays.asList("a", "c", "b").iterator, Arrays.asList("a").iterator, natural, writer)
+        )
+      }
+    }
+  }
+
+  it should "tell whether files are sorted" in {
+    withFiles(newFile, newFile) { (sorted, unsorted) =>
+      val lines = randomLines(1000, 3)
+      write(unsorted, lines)
+      write(sorted, new ArrayList(new TreeSet(lines)))
+      SortedFiles.isSorted(sorted) should be (true)
+      SortedFiles.isSorted(unsorted) should be (false)
+      SortedFiles.isSorted(sorted, SerializationType.STRING, classOf[String], natural.reversed()) should be (false)
+      SortedFiles.isSorted(Arrays.asList("a", "a", "b").iterator, natural) should be (true)
+    }
+  }
+
+  private[this] def randomLines(numLines: Int, seed: Int) = {
+    val r = new Random(seed)
+    val lines = new ArrayList[String]
+    for (i <- 0 until numLines) lines.add(String.valueOf(r.nextInt(numLines)))
+    lines
+  }
+
+  private[this] def write(f: java.io.File, lines: java.util.List[String]) {
+    using (StringWriter.toFile(f)) { writer => writer.write(lines) }
+  }
+
+}
@@ -0,0 +1,113 @@
+package cl.util.file.sorter
+
+import java.io.File
+import java.nio.file.Files
+import java.util.ArrayList
+import java.util.Collections
+import java.util.Comparator
+import java.util.Random
+import java.util.stream.Collectors
+
+import org.junit.runner.RunWith
+import org.scalatest.FlatSpec
+import org.scalatest.Matchers
+
+import cl.core.lang.Control.using
+
+@RunWith(classOf[org.scalatest.junit.JUnitRunner])
+class StreamSorterSpec extends FlatSpec with Matchers {
+
+  behavior of "stream sorter"
+
+  it should "sort an iterator, and delete temporary files when the result is closed" in {
+    for (parallelism <- Seq(1, 3); removeDuplicates <- Seq(false, true)) {
+      withSpillDirectory { dir =>
+        val lines = keyedLines(20000)
+        val sorted = new ArrayList[String]
+        using (newSorter(dir, parallelism, removeDuplicates).sort(lines.iterator())) { iterator =>
+          dir.list().isEmpty should be (false)
+          iterator.forEachRemaining(new java.util.function.Consumer[String] {
+            override def accept(s: String) = sorted.add(s)
+          })
+        }
+        sorted should equal (stableSort(lines, removeDuplicates))
+        dir.list().isEmpty should be (true)
+      }
+    }
+  }
+
+  it should "sort a stream" in {
+    withSpillDirectory { dir =>
+      val lines = keyedLines(5000)
+      using (newSorter(dir, 1, false).sort(lines.stream())) { stream =>
+        stream.collect(Collectors.toList[String]) should equal (stableSort(lines, false))
+      }
+      dir.list().isEmpty should be (true)
+    }
+  }
+
+  it should "collect a parallel stream into a sorted stream" in {
+    withSpillDirectory { dir =>
+      val lines = keyedLines(20000)
+      using (lines.parallelStream().collect(newSorter(dir, 1, false).toSortedStream())) { stream =>
+        stream.collect(Collectors.toList[String]) should equal (stableSort(lines, false))
+      }
+      dir.list().isEmpty should be (true)
+    }
+  }
+
+  it should "sort in memory when the objects fit into one chunk" in {
+    withSpillDirectory { dir =>
+      val lines = keyedLines(300)
+      using (newSorter(dir, 1, true).sort(lines.iterator())) { iterator =>
+        dir.list().isEmpty should be (true)
+        val sorted = new ArrayList[String]
+        while (iterator.hasNext()) sorted.add(iterator.next())
+        sorted should equal (stableSort(lines, true))
+      }
+    }
+  }
+
+  private[this] def newSorter(dir: File, parallelism: Int, removeDuplicates: Boolean) =
+    new StreamSorter[String]()
+      .`with`[java.lang.Integer](FileSorter.numObjectsPerFile, 500)
+      .`with`[java.lang.Integer](FileSorter.maxMergeFanIn, 7)
+      .`with`[java.lang.Integer](FileSorter.parallelism, parallelism)
+      .`with`[java.lang.Boolean](FileSorter.removeDuplicates, removeDuplicates)
+      .`with`[Comparator[_]](FileSorter.comparator, keyComparator)
+      .`with`(FileSorter.spillDirectories, Collections.singletonList(dir))
+      .locked()
+
+  private[this] def withSpillDirectory(f: File => Unit) {
+    val dir = Files.createTempDirectory("ss_").toFile()
+    try f(dir) finally dir.delete()
+  }
+
+  /*
+   * Lines look like "<key> <line number>", so that stable sorting can be verified.
+   */
+  private[this] def keyedLines(numLines: Int) = {
+    val r = new Random(numLines)
+    val lines = new ArrayList[String]
+    for (i <- 0 until numLines) lines.add(r.nextInt(numLines / 10) + " " + i)
+    lines
+  }
+
+  private[this] val keyComparator: Comparator[String] =
+    Comparator.comparing[String, Integer](new java.util.function.Function[String, Integer] {
+      override def apply(s: String) = Integer.valueOf(s.substring(0, s.indexOf(' ')))
+    })
+
+  private[this] def stableSort(lines: java.util.List[String], removeDuplicates: Boolean) = {
+    val sorted = new ArrayList[String](lines)
+    Collections.sort(sorted, keyComparator)
+    if (removeDuplicates) {
+      val unique = new ArrayList[String]
+      for (i <- 0 until sorted.size()) {
+        if (i == 0 || keyComparator.compare(sorted.get(i - 1), sorted.get(i)) != 0) unique.add(sorted.get(i))
+      }
+      unique
+    } else sorted
+  }
+
+}